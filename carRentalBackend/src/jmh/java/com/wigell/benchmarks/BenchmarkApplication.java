@@ -0,0 +1,45 @@
+package com.wigell.benchmarks;
+
+import com.wigell.Main;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Startar applikationen mot en H2-databas i minnet (i MySQL-läge) för benchmarks.
+ * Inställningarna skickas som kommandoradsargument, så att de går före application.properties.
+ */
+final class BenchmarkApplication {
+
+    private static final String[] DEFAULT_ARGS = {
+            "--spring.datasource.url=jdbc:h2:mem:benchmark;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+            "--spring.datasource.driverClassName=org.h2.Driver",
+            "--spring.datasource.username=sa",
+            "--spring.datasource.password=",
+            "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+            "--spring.jpa.show-sql=false",
+            "--server.port=0",
+            // Mätvärdena samlas in som vanligt men actuator-porten öppnas inte
+            "--management.server.port=-1",
+            "--logging.level.root=WARN",
+            // Fast kostnad, så att resultaten går att jämföra mellan maskiner och releaser
+            "--app.auth.bcrypt.cost=10",
+            "--app.auth.tokens.enabled=true",
+            "--app.users.reconcile-orders-cron=-"
+    };
+
+    private BenchmarkApplication() {
+    }
+
+    /**
+     * @param extraArgs ytterligare inställningar, t.ex. "--app.bookings.lock-stripes=16"
+     */
+    static ConfigurableApplicationContext start(String... extraArgs) {
+        List<String> args = new ArrayList<>(Arrays.asList(DEFAULT_ARGS));
+        args.addAll(Arrays.asList(extraArgs));
+        return SpringApplication.run(Main.class, args.toArray(String[]::new));
+    }
+}
@@ -0,0 +1,123 @@
+package com.wigell.benchmarks;
+
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.Booking;
+import com.wigell.entities.Car;
+import com.wigell.services.BookingService;
+import com.wigell.services.CarService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BookingService.orderCar följt av returnCar, en hel bokningscykel per operation.
+ *
+ * withImages jämför bilar utan bild med bilar med en stor bild. Bilden läses aldrig vid
+ * bokning, så tiden ska vara densamma. Kör med -prof gc för att se allokering per operation.
+ * Den samtidiga varianten låter flera trådar boka åt samma kund, på var sin bil, och visar
+ * att kundens orderräknare inte är en flaskhals.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingBenchmark {
+
+    private static final int CARS = 16;
+
+    @Param({"false", "true"})
+    public boolean withImages;
+
+    private ConfigurableApplicationContext context;
+    private BookingService bookingService;
+    private long userId;
+    private final long[] carIds = new long[CARS];
+    private final AtomicInteger nextCar = new AtomicInteger();
+
+    /**
+     * Varje tråd bokar sin egen bil, så att trådarna inte väntar på samma billås.
+     */
+    @State(Scope.Thread)
+    public static class ThreadCar {
+        long carId;
+
+        @Setup
+        public void setup(BookingBenchmark benchmark) {
+            carId = benchmark.carIds[benchmark.nextCar.getAndIncrement() % CARS];
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        context = BenchmarkApplication.start();
+        bookingService = context.getBean(BookingService.class);
+        CarService carService = context.getBean(CarService.class);
+        userId = context.getBean(UserRepo.class).findByUsername("user1").orElseThrow().getId();
+
+        byte[] image = withImages ? noiseJpeg(1600, 1200) : null;
+        for (int i = 0; i < CARS; i++) {
+            Car car = carService.addCar(new Car("Car " + i, "Model", "a", "b", "c", "SUV", 500, false));
+            carIds[i] = car.getId();
+            if (image != null) {
+                carService.saveCarImage(car.getId(), new ByteArrayInputStream(image), "image/jpeg");
+            }
+        }
+        awaitImageVariants(context.getBean("imageExecutor", ThreadPoolTaskExecutor.class));
+    }
+
+    // Bildskalningen ska inte ta CPU under mätningen
+    private static void awaitImageVariants(ThreadPoolTaskExecutor executor) throws InterruptedException {
+        while (executor.getActiveCount() > 0 || executor.getQueueSize() > 0) {
+            Thread.sleep(50);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Booking orderAndReturn(ThreadCar car) {
+        return cycle(car.carId);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Booking orderAndReturnConcurrentSameUser(ThreadCar car) {
+        return cycle(car.carId);
+    }
+
+    // Bokningen täcker idag, så bilens booked-flagga och katalogen uppdateras också
+    private Booking cycle(long carId) {
+        LocalDate today = LocalDate.now();
+        Booking placed = bookingService.orderCar(new Booking(today, today.plusDays(2), userId, carId));
+        return bookingService.returnCar(placed.getId());
+    }
+
+    // Brus komprimeras dåligt, så bilden blir stor (omkring 1 MB)
+    private static byte[] noiseJpeg(int width, int height) throws IOException {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpg", out);
+        return out.toByteArray();
+    }
+}
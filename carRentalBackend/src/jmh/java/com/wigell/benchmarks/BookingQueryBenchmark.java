@@ -0,0 +1,93 @@
+package com.wigell.benchmarks;
+
+import com.wigell.dao.BookingRepo;
+import com.wigell.dto.PageDTO;
+import com.wigell.entities.Booking;
+import com.wigell.services.BookingService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Överlappskontrollen (BookingRepo.existsOverlap) och keyset-pagineringen av bokningar
+ * i en stor bokningstabell, med indexen från BookingIndexMigration.
+ * Med en miljon rader: -p rows=1000000 (tar en stund att fylla).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingQueryBenchmark {
+
+    private static final int CARS = 1000;
+    private static final LocalDate START = LocalDate.of(2020, 1, 1);
+
+    @Param({"100000"})
+    public int rows;
+
+    private ConfigurableApplicationContext context;
+    private BookingRepo bookingRepo;
+    private BookingService bookingService;
+    private long lastId;
+    private LocalDate bookedDay;
+    private LocalDate freeDay;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkApplication.start();
+        bookingRepo = context.getBean(BookingRepo.class);
+        bookingService = context.getBean(BookingService.class);
+
+        // Varje bil får bokningar på var tredje dag, så det finns både lediga och bokade dagar.
+        // Id:n anges här eftersom bokningarnas id-generator bara används via Hibernate.
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        List<Object[]> batch = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            LocalDate from = START.plusDays((long) (i / CARS) * 3);
+            batch.add(new Object[]{(long) i + 1, Date.valueOf(from), Date.valueOf(from.plusDays(1)), 1L, (long) (i % CARS) + 1, true});
+            if (batch.size() == 10_000) {
+                insert(jdbc, batch);
+            }
+        }
+        insert(jdbc, batch);
+
+        lastId = jdbc.queryForObject("select max(id) from booking", Long.class);
+        long days = (long) (rows / CARS) * 3;
+        bookedDay = START.plusDays(days / 2 - (days / 2) % 3);
+        freeDay = bookedDay.plusDays(2);
+    }
+
+    private static void insert(JdbcTemplate jdbc, List<Object[]> batch) {
+        jdbc.batchUpdate("insert into booking (id, from_date, to_date, user_id, car_id, active) values (?, ?, ?, ?, ?, ?)", batch);
+        batch.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean overlapHit() {
+        return bookingRepo.existsOverlap(CARS / 2L, bookedDay, bookedDay, null);
+    }
+
+    @Benchmark
+    public boolean overlapMiss() {
+        return bookingRepo.existsOverlap(CARS / 2L, freeDay, freeDay, null);
+    }
+
+    // En sida mitt i tabellen, lika dyr som första sidan med keyset-paginering
+    @Benchmark
+    public PageDTO<Booking> pageFromMiddle() {
+        return bookingService.getBookingsPage(lastId / 2, PageDTO.DEFAULT_LIMIT, true, null, null);
+    }
+}
@@ -0,0 +1,79 @@
+package com.wigell.benchmarks;
+
+import com.wigell.dao.CarRepo;
+import com.wigell.dto.CarSummary;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listning av alla bilar, före och efter CarSummary. fullRows läser hela raderna med bilden,
+ * som när listorna hämtade Car-entiteter utan fungerande lat laddning av bilden.
+ * summaries läser CarSummary via CarRepo.findAllSummaries, som aldrig rör bildkolumnen.
+ *
+ * Allokering per anrop (heap) fås med GC-profileraren:
+ * mvn -Pbenchmark verify -Djmh.args="CarListBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class CarListBenchmark {
+
+    @Param({"1000", "10000"})
+    public int cars;
+
+    @Param({"16384"})
+    public int imageBytes;
+
+    private ConfigurableApplicationContext context;
+    private CarRepo carRepo;
+    private JdbcTemplate jdbc;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkApplication.start();
+        carRepo = context.getBean(CarRepo.class);
+        jdbc = context.getBean(JdbcTemplate.class);
+
+        byte[] image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        List<Object[]> batch = new ArrayList<>();
+        for (long id = 1; id <= cars; id++) {
+            batch.add(new Object[]{id, "Car " + id, "Model", "SUV", 500.0, id % 3 == 0, image, "image/jpeg"});
+            if (batch.size() == 500) {
+                insert(batch);
+            }
+        }
+        insert(batch);
+    }
+
+    private void insert(List<Object[]> batch) {
+        jdbc.batchUpdate("insert into car (id, name, model, type, price, booked, image, image_content_type, version)"
+                + " values (?, ?, ?, ?, ?, ?, ?, ?, 0)", batch);
+        batch.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> fullRows() {
+        return jdbc.queryForList("select * from car");
+    }
+
+    @Benchmark
+    public List<CarSummary> summaries() {
+        return carRepo.findAllSummaries();
+    }
+}
@@ -0,0 +1,120 @@
+package com.wigell.benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wigell.dto.CarSummary;
+import com.wigell.entities.Car;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Jackson-serialisering av Car med och utan inläst bild, och av katalogen (CarSummary).
+ * legacyCarWithImage serialiserar bilden som base64 i JSON, som före /api/v1/cars/{id}/image,
+ * som jämförelse.
+ *
+ * Katalogen mäts för 1 000 och 10 000 bilar, okomprimerad och med gzip som i CarCatalog.
+ * Allokering per anrop (heap) fås med GC-profileraren:
+ * mvn -Pbenchmark verify -Djmh.args="CarSerializationBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CarSerializationBenchmark {
+
+    @Param({"262144"})
+    public int imageBytes;
+
+    private ObjectMapper mapper;
+    private ObjectMapper legacyMapper;
+    private Car car;
+    private Car carWithImage;
+
+    @State(Scope.Benchmark)
+    public static class Catalog {
+
+        @Param({"1000", "10000"})
+        public int cars;
+
+        private List<CarSummary> summaries;
+
+        @Setup
+        public void setup() {
+            summaries = new ArrayList<>(cars);
+            for (long id = 1; id <= cars; id++) {
+                summaries.add(new CarSummary(id, "Car " + id, "Model", "SUV", 500, "a", "b", "c", id % 3 == 0, "0123456789abcdef"));
+            }
+        }
+    }
+
+    // Tar bort @JsonIgnore från bilden, så att den skrivs ut som base64
+    abstract static class LegacyImageMixIn {
+        @JsonIgnore(false)
+        byte[] image;
+    }
+
+    @Setup
+    public void setup() {
+        // Samma standardinställningar som Spring Boot använder för sin ObjectMapper
+        mapper = Jackson2ObjectMapperBuilder.json().build();
+        legacyMapper = Jackson2ObjectMapperBuilder.json()
+                .mixIn(Car.class, LegacyImageMixIn.class)
+                .build();
+
+        car = newCar(1);
+        carWithImage = newCar(2);
+        byte[] image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        carWithImage.setImage(image);
+        carWithImage.setImageContentType("image/jpeg");
+        carWithImage.setImageHash("0123456789abcdef");
+    }
+
+    private static Car newCar(long id) {
+        Car car = new Car("Volvo", "XC60", "Automat", "Drag", "GPS", "SUV", 899, false);
+        car.setId(id);
+        return car;
+    }
+
+    @Benchmark
+    public byte[] carWithoutImage() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(car);
+    }
+
+    @Benchmark
+    public byte[] carWithImage() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(carWithImage);
+    }
+
+    @Benchmark
+    public byte[] legacyCarWithImage() throws JsonProcessingException {
+        return legacyMapper.writeValueAsBytes(carWithImage);
+    }
+
+    @Benchmark
+    public byte[] catalog(Catalog catalog) throws JsonProcessingException {
+        return mapper.writeValueAsBytes(catalog.summaries);
+    }
+
+    // Som CarCatalog.build: JSON och gzip av samma bytes
+    @Benchmark
+    public byte[] catalogGzip(Catalog catalog) throws IOException {
+        byte[] json = mapper.writeValueAsBytes(catalog.summaries);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,62 @@
+package com.wigell.benchmarks;
+
+import com.wigell.config.BoundedPasswordEncoder;
+import com.wigell.services.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BCryptPasswordEncoder.matches per kostnad, och samma kontroll genom applikationens kodare
+ * ({bcrypt}-prefix via DelegatingPasswordEncoder, körd i PasswordHasher:s trådpool).
+ * Skillnaden mellan de två är vad prefixet och trådbytet kostar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordBenchmark {
+
+    private static final String PASSWORD = "correct horse battery staple";
+
+    @Param({"10", "12"})
+    public int cost;
+
+    private BCryptPasswordEncoder bcrypt;
+    private String hash;
+    private PasswordHasher hasher;
+    private PasswordEncoder appEncoder;
+    private String prefixedHash;
+
+    @Setup
+    public void setup() {
+        bcrypt = new BCryptPasswordEncoder(cost);
+        hash = bcrypt.encode(PASSWORD);
+        hasher = new PasswordHasher(1, 32, Duration.ofSeconds(30));
+        DelegatingPasswordEncoder delegating = new DelegatingPasswordEncoder("bcrypt", Map.of("bcrypt", bcrypt));
+        appEncoder = new BoundedPasswordEncoder(delegating, hasher);
+        prefixedHash = "{bcrypt}" + hash;
+    }
+
+    @TearDown
+    public void tearDown() {
+        hasher.shutdown();
+    }
+
+    @Benchmark
+    public boolean bcryptMatches() {
+        return bcrypt.matches(PASSWORD, hash);
+    }
+
+    @Benchmark
+    public boolean appEncoderMatches() {
+        return appEncoder.matches(PASSWORD, prefixedHash);
+    }
+}
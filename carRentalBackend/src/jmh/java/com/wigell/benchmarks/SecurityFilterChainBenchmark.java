@@ -0,0 +1,75 @@
+package com.wigell.benchmarks;
+
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.User;
+import com.wigell.services.TokenService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.web.FilterChainProxy;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Säkerhetsfilterkedjan från SecurityConfig, utan Tomcat och utan controller.
+ * Mäter en öppen GET, en skyddad GET utan inloggning (omdirigeras till inloggningen)
+ * och en skyddad GET med Bearer-token (app.auth.tokens.enabled=true).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecurityFilterChainBenchmark {
+
+    // Ersätter controllern, så att bara filtren mäts
+    private static final FilterChain NO_OP = (request, response) -> { };
+
+    private ConfigurableApplicationContext context;
+    private FilterChainProxy filterChain;
+    private String bearer;
+    private long userId;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkApplication.start();
+        filterChain = context.getBean(FilterChainProxy.class);
+        User user = context.getBean(UserRepo.class).findByUsername("user1").orElseThrow();
+        userId = user.getId();
+        bearer = "Bearer " + context.getBean(TokenService.class).issue(user).getAccessToken();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int anonymousPublic() throws ServletException, IOException {
+        return run(new MockHttpServletRequest("GET", "/api/v1/cars"));
+    }
+
+    @Benchmark
+    public int anonymousProtected() throws ServletException, IOException {
+        return run(new MockHttpServletRequest("GET", "/api/v1/users/" + userId));
+    }
+
+    @Benchmark
+    public int bearerAuthenticated() throws ServletException, IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/users/" + userId);
+        request.addHeader(HttpHeaders.AUTHORIZATION, bearer);
+        return run(request);
+    }
+
+    private int run(MockHttpServletRequest request) throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filterChain.doFilter(request, response, NO_OP);
+        return response.getStatus();
+    }
+}
@@ -0,0 +1,69 @@
+package com.wigell.benchmarks;
+
+import com.wigell.dao.BookingRepo;
+import com.wigell.dao.UserRepo;
+import com.wigell.dto.BookingDTO;
+import com.wigell.entities.Booking;
+import com.wigell.services.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserService.getOrders (alla bokningar) och getOrdersForUser (en kunds bokningar),
+ * dvs. frågan plus mappningen till BookingDTO. Alla bokningar tillhör samma kund.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserOrdersBenchmark {
+
+    @Param({"100", "10000"})
+    public int bookings;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private long userId;
+
+    @Setup
+    public void setup() {
+        context = BenchmarkApplication.start();
+        userService = context.getBean(UserService.class);
+        userId = context.getBean(UserRepo.class).findByUsername("user1").orElseThrow().getId();
+
+        // Bokningarna sparas direkt, utan BookingService:s kontroller
+        BookingRepo bookingRepo = context.getBean(BookingRepo.class);
+        LocalDate start = LocalDate.of(2020, 1, 1);
+        List<Booking> batch = new ArrayList<>();
+        for (int i = 0; i < bookings; i++) {
+            batch.add(new Booking(start.plusDays(i), start.plusDays(i + 1), userId, (long) (i % 50) + 1, i % 2 == 0));
+            if (batch.size() == 1000) {
+                bookingRepo.saveAll(batch);
+                batch.clear();
+            }
+        }
+        bookingRepo.saveAll(batch);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<BookingDTO> getOrders() {
+        return userService.getOrders();
+    }
+
+    @Benchmark
+    public List<BookingDTO> getOrdersForUser() {
+        return userService.getOrdersForUser(userId);
+    }
+}
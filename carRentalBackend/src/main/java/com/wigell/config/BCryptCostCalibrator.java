@@ -0,0 +1,62 @@
+package com.wigell.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Väljer BCrypt-kostnad utifrån hur snabb den här maskinen är. Tiden mäts vid lägsta
+ * tillåtna kostnad och räknas upp, eftersom varje steg i kostnad dubblar tiden.
+ * Den högsta kostnad vars beräknade tid ryms inom måltiden väljs.
+ */
+public final class BCryptCostCalibrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(BCryptCostCalibrator.class);
+    private static final int SAMPLES = 3;
+    private static final String SAMPLE_PASSWORD = "calibration-password";
+
+    private BCryptCostCalibrator() {
+    }
+
+    /**
+     * @param target  önskad tid för en lösenordskontroll
+     * @param minCost lägsta kostnad, väljs även om den tar längre tid än target
+     * @param maxCost högsta kostnad
+     * @return vald kostnad, mellan minCost och maxCost
+     */
+    public static int calibrate(Duration target, int minCost, int maxCost) {
+        if (minCost < 4 || maxCost > 31 || minCost > maxCost) {
+            throw new IllegalArgumentException("BCrypt cost range must be within 4..31, got " + minCost + ".." + maxCost);
+        }
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(minCost);
+        String hash = encoder.encode(SAMPLE_PASSWORD);
+        // Första körningen värmer upp JIT och räknas inte
+        encoder.matches(SAMPLE_PASSWORD, hash);
+
+        long[] samples = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long start = System.nanoTime();
+            encoder.matches(SAMPLE_PASSWORD, hash);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        long measured = samples[SAMPLES / 2];
+
+        int cost = minCost;
+        long estimated = measured;
+        while (cost < maxCost && estimated * 2 <= target.toNanos()) {
+            cost++;
+            estimated *= 2;
+        }
+        logger.info("BCrypt cost {} selected: {} ms measured at cost {}, about {} ms estimated, target {} ms",
+                cost, measured / 1_000_000, minCost, estimated / 1_000_000, target.toMillis());
+        if (estimated > target.toNanos()) {
+            logger.warn("BCrypt at minimum cost {} takes {} ms, above the target of {} ms",
+                    minCost, measured / 1_000_000, target.toMillis());
+        }
+        return cost;
+    }
+}
@@ -0,0 +1,80 @@
+package com.wigell.config;
+
+import com.wigell.entities.Booking;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Schemamigrering för bokningarnas id-generator (se Booking). Bokningar som skapats med
+ * AUTO_INCREMENT har redan id:n, så generatorns nästa block måste börja över det högsta id:t.
+ * Saknas raden för bokningar, eller ligger den under det högsta id:t, flyttas den upp.
+ * Tabellen id_generator skapas om den saknas (Hibernate skapar den bara när
+ * spring.jpa.generate-ddl=true). Kan köras om, en generator som redan ligger rätt lämnas orörd.
+ *
+ * Körs när bönan skapas, efter Hibernate men innan webbservern tar emot anrop, eftersom
+ * första bokningen annars kan få ett id som redan finns.
+ *
+ * Styrs av app.schema.migrate-booking-ids (på som standard).
+ */
+@Component
+@ConditionalOnProperty(name = "app.schema.migrate-booking-ids", havingValue = "true", matchIfMissing = true)
+public class BookingIdGeneratorMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingIdGeneratorMigration.class);
+    private static final String BOOKING_TABLE = "Booking";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // EntityManagerFactory tas in så att Hibernate har skapat tabellerna innan migreringen körs
+    public BookingIdGeneratorMigration(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void migrate() {
+        String bookingTable = findTable(BOOKING_TABLE);
+        if (bookingTable == null) {
+            logger.warn("Table {} not found, booking id generator not migrated", BOOKING_TABLE);
+            return;
+        }
+        String generatorTable = findTable(Booking.ID_GENERATOR_TABLE);
+        if (generatorTable == null) {
+            generatorTable = Booking.ID_GENERATOR_TABLE;
+            jdbcTemplate.execute("create table " + generatorTable
+                    + " (sequence_name varchar(255) not null, next_val bigint, primary key (sequence_name))");
+            logger.info("Created table {}", generatorTable);
+        }
+
+        long maxId = jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + bookingTable, Long.class);
+        if (maxId == 0) {
+            // Inga bokningar, generatorn kan börja där den står
+            return;
+        }
+        List<Long> current = jdbcTemplate.queryForList(
+                "select next_val from " + generatorTable + " where sequence_name = ?", Long.class, Booking.ID_GENERATOR_NAME);
+        // Ett helt block över det högsta id:t, oavsett om optimeraren räknar värdet som blockets början eller slut
+        long next = maxId + Booking.ID_ALLOCATION_SIZE + 1;
+        if (current.isEmpty()) {
+            jdbcTemplate.update("insert into " + generatorTable + " (sequence_name, next_val) values (?, ?)",
+                    Booking.ID_GENERATOR_NAME, next);
+            logger.info("Booking id generator initialized at {} (highest booking id {})", next, maxId);
+        } else if (current.get(0) == null || current.get(0) <= maxId) {
+            jdbcTemplate.update("update " + generatorTable + " set next_val = ? where sequence_name = ?",
+                    next, Booking.ID_GENERATOR_NAME);
+            logger.info("Booking id generator moved from {} to {} (highest booking id {})", current.get(0), next, maxId);
+        }
+    }
+
+    private String findTable(String table) {
+        return jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                BookingIndexMigration.findTableName(connection, table));
+    }
+}
@@ -0,0 +1,97 @@
+package com.wigell.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Schemamigrering för bokningstabellens index. Samma index är deklarerade på Booking-entiteten,
+ * men Hibernate skapar dem bara när spring.jpa.generate-ddl=true. Den här migreringen skapar
+ * de index som saknas oavsett DDL-inställning och kan köras om, befintliga index lämnas orörda.
+ *
+ * Styrs av app.schema.migrate-indexes (på som standard).
+ */
+@Component
+@ConditionalOnProperty(name = "app.schema.migrate-indexes", havingValue = "true", matchIfMissing = true)
+public class BookingIndexMigration implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingIndexMigration.class);
+    private static final String TABLE = "Booking";
+
+    // Indexnamn och kolumner, i samma ordning som på entiteten
+    private static final Map<String, String> INDEXES = new LinkedHashMap<>();
+
+    static {
+        INDEXES.put("idx_booking_car_dates", "car_id, from_date, to_date");
+        INDEXES.put("idx_booking_user", "user_id");
+        INDEXES.put("idx_booking_active_to", "active, to_date");
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public BookingIndexMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        String table = jdbcTemplate.execute((ConnectionCallback<String>) BookingIndexMigration::findTableName);
+        if (table == null) {
+            logger.warn("Table {} not found, booking indexes not created", TABLE);
+            return;
+        }
+        Set<String> existing = jdbcTemplate.execute(
+                (ConnectionCallback<Set<String>>) connection -> existingIndexes(connection.getMetaData(), table));
+        for (Map.Entry<String, String> index : INDEXES.entrySet()) {
+            if (!existing.contains(index.getKey().toLowerCase(Locale.ROOT))) {
+                jdbcTemplate.execute("create index " + index.getKey() + " on " + table + " (" + index.getValue() + ")");
+                logger.info("Created index {} on {} ({})", index.getKey(), table, index.getValue());
+            }
+        }
+    }
+
+    private static String findTableName(Connection connection) throws SQLException {
+        return findTableName(connection, TABLE);
+    }
+
+    // Tabellnamnets skiftläge beror på databas och inställningar (Booking, booking eller BOOKING)
+    static String findTableName(Connection connection, String table) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), null, "%", new String[]{"TABLE"})) {
+            while (rs.next()) {
+                String name = rs.getString("TABLE_NAME");
+                if (table.equalsIgnoreCase(name)) {
+                    return name;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> existingIndexes(DatabaseMetaData metaData, String table) throws SQLException {
+        Set<String> names = new HashSet<>();
+        try (ResultSet rs = metaData.getIndexInfo(metaData.getConnection().getCatalog(), null, table, false, true)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name != null) {
+                    names.add(name.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        return names;
+    }
+}
@@ -0,0 +1,34 @@
+package com.wigell.config;
+
+import com.wigell.services.PasswordHasher;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * PasswordEncoder som kör den egentliga kodaren (BCrypt) i PasswordHasher:s begränsade
+ * trådpool. Används av både formulärinloggningen och LoginController.
+ */
+public class BoundedPasswordEncoder implements PasswordEncoder {
+
+    private final PasswordEncoder delegate;
+    private final PasswordHasher hasher;
+
+    public BoundedPasswordEncoder(PasswordEncoder delegate, PasswordHasher hasher) {
+        this.delegate = delegate;
+        this.hasher = hasher;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return hasher.run(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return hasher.run(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+}
@@ -0,0 +1,31 @@
+package com.wigell.config;
+
+import com.wigell.services.CarService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fyller i hash och content type för bilder som sparades innan bild-endpointen fanns,
+ * så att även äldre bilar får en bild-URL i katalogen.
+ */
+@Component
+public class CarImageMetadataBackfill {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarImageMetadataBackfill.class);
+
+    private final CarService carService;
+
+    public CarImageMetadataBackfill(CarService carService) {
+        this.carService = carService;
+    }
+
+    @PostConstruct
+    public void backfill() {
+        int updated = carService.backfillImageMetadata();
+        if (updated > 0) {
+            logger.info("Backfilled image metadata for {} cars", updated);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.wigell.config;
+
+import com.wigell.services.CarImageMigrationService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Engångsmigrering av bilder från databasen till filsystemet. Körs vid uppstart när
+ * app.images.migrate-to-filesystem=true, och bör kombineras med app.images.store=filesystem.
+ * Stäng av flaggan när migreringen är klar.
+ */
+@Component
+@ConditionalOnProperty(name = "app.images.migrate-to-filesystem", havingValue = "true")
+public class CarImageMigrationRunner implements ApplicationRunner {
+
+    private final CarImageMigrationService migrationService;
+
+    public CarImageMigrationRunner(CarImageMigrationService migrationService) {
+        this.migrationService = migrationService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        migrationService.migrateToFileSystem();
+    }
+}
@@ -0,0 +1,30 @@
+package com.wigell.config;
+
+import com.wigell.services.CarImageStore;
+import com.wigell.services.DatabaseCarImageStore;
+import com.wigell.services.FileSystemCarImageStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+@Configuration
+public class CarImageStoreConfig {
+
+    /**
+     * Väljer var bildinnehåll lagras: "database" (LONGBLOB, standard) eller "filesystem".
+     * Båda implementationerna finns alltid som bönor så att migreringen kan läsa från den ena
+     * och skriva till den andra.
+     */
+    @Bean
+    @Primary
+    public CarImageStore carImageStore(@Value("${app.images.store:database}") String store,
+                                       DatabaseCarImageStore databaseStore,
+                                       FileSystemCarImageStore fileSystemStore) {
+        return switch (store) {
+            case "database" -> databaseStore;
+            case "filesystem" -> fileSystemStore;
+            default -> throw new IllegalStateException("Unknown app.images.store: " + store);
+        };
+    }
+}
@@ -0,0 +1,59 @@
+package com.wigell.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.time.Duration;
+import java.util.OptionalLong;
+
+/**
+ * Andra nivåns cache för Hibernate: Caffeine i minnet via JCache.
+ *
+ * Regionerna skapas här med en övre gräns för antal poster och en livslängd. Livslängden är
+ * ett skyddsnät för ändringar som görs direkt i databasen, allt som går via Hibernate
+ * uppdaterar eller tömmer cachen själv. Cachen finns bara i den här JVM:en.
+ */
+@Configuration
+public class HibernateCacheConfig {
+
+    // Regionerna som entiteterna anger i @Cache och @NaturalIdCache
+    public static final String USERS = "users";
+    public static final String USERS_BY_USERNAME = "users-by-username";
+    public static final String CARS = "cars";
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(
+            @Value("${app.cache.users.max-size:10000}") long maxUsers,
+            @Value("${app.cache.cars.max-size:1000}") long maxCars,
+            @Value("${app.cache.expire-after-write:10m}") Duration expireAfterWrite) {
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager();
+        createRegion(cacheManager, USERS, maxUsers, expireAfterWrite);
+        createRegion(cacheManager, USERS_BY_USERNAME, maxUsers, expireAfterWrite);
+        createRegion(cacheManager, CARS, maxCars, expireAfterWrite);
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+    }
+
+    private static void createRegion(CacheManager cacheManager, String name, long maxSize, Duration expireAfterWrite) {
+        if (cacheManager.getCache(name) != null) {
+            return;
+        }
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setMaximumSize(OptionalLong.of(maxSize));
+        configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+        configuration.setStatisticsEnabled(true);
+        cacheManager.createCache(name, configuration);
+    }
+}
@@ -0,0 +1,62 @@
+package com.wigell.config;
+
+import org.hibernate.SessionEventListener;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Räknar Hibernates databasfrågor för det pågående HTTP-anropet (se QueryStats):
+ * varje SQL-sats som förbereds, tiden som satserna tar att köra och entiteter som laddas.
+ * Laddade entiteter räknas i stället för rader, eftersom Hibernate inte visar radantal.
+ * En entitet från andra nivåns cache räknas som laddad men ger ingen fråga.
+ *
+ * Samma klass används som StatementInspector, som SessionEventListener
+ * (en instans per session, skapad av Hibernate) och som PostLoadEventListener.
+ * Den har inget eget tillstånd. Utanför ett HTTP-anrop gör den ingenting.
+ */
+public class HibernateQueryCounter implements StatementInspector, SessionEventListener, PostLoadEventListener {
+
+    @Override
+    public String inspect(String sql) {
+        QueryStats stats = QueryStats.current();
+        if (stats != null) {
+            stats.statementPrepared(sql);
+        }
+        return sql;
+    }
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        QueryStats stats = QueryStats.current();
+        if (stats != null) {
+            stats.executeStarted();
+        }
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        QueryStats stats = QueryStats.current();
+        if (stats != null) {
+            stats.executeEnded();
+        }
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        jdbcExecuteStatementStart();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        jdbcExecuteStatementEnd();
+    }
+
+    @Override
+    public void onPostLoad(PostLoadEvent event) {
+        QueryStats stats = QueryStats.current();
+        if (stats != null) {
+            stats.entityLoaded();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.wigell.config;
+
+import com.wigell.dao.CarRepo;
+import com.wigell.entities.Car;
+import com.wigell.services.CarService;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Skapar bilar att boka när applikationen körs med profilen loadtest.
+ * Användarna skapas som vanligt av VirtualUsersSeeder.
+ */
+@Component
+@Profile("loadtest")
+public class LoadTestCarSeeder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadTestCarSeeder.class);
+    private static final String[] TYPES = {"SUV", "Sedan", "Kombi", "Elbil", "Minibuss"};
+
+    private final CarRepo carRepo;
+    private final CarService carService;
+    private final int cars;
+
+    public LoadTestCarSeeder(CarRepo carRepo, CarService carService,
+                             @Value("${app.loadtest.cars:50}") int cars) {
+        this.carRepo = carRepo;
+        this.carService = carService;
+        this.cars = cars;
+    }
+
+    @PostConstruct
+    public void seed() {
+        long existing = carRepo.count();
+        for (long i = existing; i < cars; i++) {
+            String type = TYPES[(int) (i % TYPES.length)];
+            carService.addCar(new Car("Bil " + (i + 1), "Modell " + (i % 7 + 1), "Automat", "Drag", "GPS",
+                    type, 400 + (i % 10) * 50, false));
+        }
+        logger.info("Load test data: {} cars", Math.max(existing, cars));
+    }
+}
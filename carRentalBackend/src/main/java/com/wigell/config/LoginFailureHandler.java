@@ -0,0 +1,37 @@
+package com.wigell.config;
+
+import com.wigell.services.LoginAttemptTracker;
+import com.wigell.services.LoginThrottledException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+
+import java.io.IOException;
+
+/**
+ * Misslyckad formulärinloggning: räknas i LoginAttemptTracker och skickas tillbaka till
+ * inloggningssidan. Nekades försöket för att lösenordskontrollerna var fullbelagda
+ * blir svaret 429 och inget misslyckande räknas.
+ */
+public class LoginFailureHandler implements AuthenticationFailureHandler {
+
+    private final LoginAttemptTracker tracker;
+
+    public LoginFailureHandler(LoginAttemptTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public void onAuthenticationFailure(HttpServletRequest request, HttpServletResponse response,
+                                        AuthenticationException exception) throws IOException {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LoginThrottledException throttled) {
+                LoginThrottleFilter.reject(response, throttled);
+                return;
+            }
+        }
+        tracker.recordFailure(request.getParameter("username"), request.getRemoteAddr());
+        response.sendRedirect("/login.html?error");
+    }
+}
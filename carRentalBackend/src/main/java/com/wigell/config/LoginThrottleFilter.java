@@ -0,0 +1,53 @@
+package com.wigell.config;
+
+import com.wigell.services.LoginAttemptTracker;
+import com.wigell.services.LoginThrottledException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Nekar formulärinloggningar (POST /login) med 429 innan lösenordet kontrolleras, när
+ * användarnamnet eller IP-adressen har för många misslyckade försök, eller när
+ * lösenordskontrollerna är fullbelagda (se PasswordHasher).
+ *
+ * Registreras i SecurityConfig, inte som böna.
+ */
+public class LoginThrottleFilter extends OncePerRequestFilter {
+
+    private final LoginAttemptTracker tracker;
+
+    public LoginThrottleFilter(LoginAttemptTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !("POST".equals(request.getMethod()) && "/login".equals(request.getServletPath()));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        try {
+            tracker.checkAllowed(request.getParameter("username"), request.getRemoteAddr());
+            chain.doFilter(request, response);
+        } catch (LoginThrottledException e) {
+            // Från PasswordHasher när en befintlig användares lösenord skulle kontrolleras
+            reject(response, e);
+        }
+    }
+
+    /**
+     * Skickar 429 Too Many Requests med Retry-After.
+     */
+    static void reject(HttpServletResponse response, LoginThrottledException e) throws IOException {
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+        response.sendError(429, e.getMessage());
+    }
+}
@@ -0,0 +1,21 @@
+package com.wigell.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Högsta antal databasfrågor för ett anrop till controllermetoden, inklusive frågor
+ * under inloggningskontrollen. Utan annotation gäller app.db.query-budget.default.
+ * UNLIMITED betyder ingen budget och ingen N+1-varning, för anrop där antalet frågor
+ * växer med indata (t.ex. bilimporten). Se QueryBudgetFilter.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface QueryBudget {
+
+    int UNLIMITED = -1;
+
+    int value();
+}
@@ -0,0 +1,177 @@
+package com.wigell.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.jpa.boot.spi.JpaSettings;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.autoconfigure.security.SecurityProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Räkning av databasfrågor per HTTP-anrop: Hibernate-krokarna (HibernateQueryCounter),
+ * filtret som rapporterar (QueryBudgetFilter), budgeten från @QueryBudget och tiden för
+ * JSON-serialisering.
+ */
+@Configuration
+public class QueryBudgetConfig {
+
+    private static final HibernateQueryCounter QUERY_COUNTER = new HibernateQueryCounter();
+
+    @Bean
+    public HibernatePropertiesCustomizer queryCounterCustomizer() {
+        return properties -> {
+            properties.put(AvailableSettings.STATEMENT_INSPECTOR, QUERY_COUNTER);
+            properties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, HibernateQueryCounter.class.getName());
+            properties.put(JpaSettings.INTEGRATOR_PROVIDER, (IntegratorProvider) () -> List.of(new PostLoadIntegrator()));
+        };
+    }
+
+    @Bean
+    public FilterRegistrationBean<QueryBudgetFilter> queryBudgetFilter(
+            @Value("${app.db.query-budget.default:10}") int defaultBudget,
+            @Value("${app.db.n-plus-one-threshold:5}") int nPlusOneThreshold,
+            MeterRegistry meterRegistry) {
+        FilterRegistrationBean<QueryBudgetFilter> registration = new FilterRegistrationBean<>(
+                new QueryBudgetFilter(defaultBudget, nPlusOneThreshold, meterRegistry));
+        // Före Spring Security, så att inloggningskontrollen räknas med
+        registration.setOrder(SecurityProperties.DEFAULT_FILTER_ORDER - 10);
+        return registration;
+    }
+
+    @Bean
+    public WebMvcConfigurer queryBudgetWebMvcConfigurer() {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(new HandlerInterceptor() {
+                    @Override
+                    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                        QueryStats stats = QueryStats.current();
+                        if (stats != null) {
+                            stats.handlerStarted(budgetFor(handler));
+                        }
+                        return true;
+                    }
+                });
+            }
+
+            @Override
+            public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+                converters.replaceAll(converter -> converter instanceof MappingJackson2HttpMessageConverter jackson
+                        ? new TimedJacksonConverter(jackson) : converter);
+            }
+        };
+    }
+
+    private static int budgetFor(Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return 0;
+        }
+        QueryBudget budget = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), QueryBudget.class);
+        if (budget == null) {
+            budget = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), QueryBudget.class);
+        }
+        return budget != null ? budget.value() : 0;
+    }
+
+    /**
+     * Jackson-konverteraren med samma ObjectMapper, som mäter tiden för att skriva svaret.
+     */
+    private static final class TimedJacksonConverter extends MappingJackson2HttpMessageConverter {
+
+        TimedJacksonConverter(MappingJackson2HttpMessageConverter original) {
+            super(original.getObjectMapper());
+            setSupportedMediaTypes(original.getSupportedMediaTypes());
+        }
+
+        @Override
+        protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                throws IOException, HttpMessageNotWritableException {
+            QueryStats stats = QueryStats.current();
+            if (stats == null) {
+                super.writeInternal(object, type, outputMessage);
+                return;
+            }
+            // Jackson gör flush när det är klart, vilket skickar svaret innan tiden hunnit sparas.
+            // Flush görs därför här efteråt, så att Server-Timing får med serialiseringen.
+            OutputStream body = outputMessage.getBody();
+            HttpOutputMessage unflushed = new HttpOutputMessage() {
+                @Override
+                public OutputStream getBody() {
+                    return new FilterOutputStream(body) {
+                        @Override
+                        public void write(byte[] b, int off, int len) throws IOException {
+                            out.write(b, off, len);
+                        }
+
+                        @Override
+                        public void flush() {
+                        }
+
+                        @Override
+                        public void close() {
+                        }
+                    };
+                }
+
+                @Override
+                public HttpHeaders getHeaders() {
+                    return outputMessage.getHeaders();
+                }
+            };
+            long start = System.nanoTime();
+            try {
+                super.writeInternal(object, type, unflushed);
+            } finally {
+                stats.addSerialization(System.nanoTime() - start);
+            }
+            body.flush();
+        }
+    }
+
+    /**
+     * Lägger till HibernateQueryCounter för laddade entiteter.
+     */
+    private static final class PostLoadIntegrator implements Integrator {
+
+        @Override
+        public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+                              SessionFactoryImplementor sessionFactory) {
+            sessionFactory.getServiceRegistry().requireService(EventListenerRegistry.class)
+                    .appendListeners(EventType.POST_LOAD, QUERY_COUNTER);
+        }
+
+        @Override
+        public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+        }
+    }
+}
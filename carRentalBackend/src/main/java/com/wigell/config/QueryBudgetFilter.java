@@ -0,0 +1,288 @@
+package com.wigell.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Räknar databasfrågor per HTTP-anrop (se QueryStats) och
+ * <ul>
+ *   <li>skickar headern Server-Timing med tid i databasen, serialisering och inloggningskontroll,</li>
+ *   <li>varnar när ett anrop kör fler frågor än sin budget (@QueryBudget eller app.db.query-budget.default),</li>
+ *   <li>varnar när samma fråga körs minst app.db.n-plus-one-threshold gånger i ett anrop (N+1),</li>
+ *   <li>registrerar antal frågor per endpoint i app.db.queries.</li>
+ * </ul>
+ *
+ * Ligger före Spring Security, så att frågor under inloggningskontrollen räknas.
+ * Headern sätts precis innan svaret skickas. För svar som är större än svarsbufferten
+ * har serialiseringen då inte hunnit bli klar, och Server-Timing visar bara tiden fram till dess.
+ *
+ * Registreras i QueryBudgetConfig, inte som böna.
+ */
+public class QueryBudgetFilter extends OncePerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryBudgetFilter.class);
+    private static final String SERVER_TIMING = "Server-Timing";
+    private static final int MAX_LOGGED_SQL_LENGTH = 300;
+
+    private final int defaultBudget;
+    private final int nPlusOneThreshold;
+    private final MeterRegistry meterRegistry;
+    private final Counter exceeded;
+
+    public QueryBudgetFilter(int defaultBudget, int nPlusOneThreshold, MeterRegistry meterRegistry) {
+        this.defaultBudget = defaultBudget;
+        // En fråga som körs en gång är aldrig N+1
+        this.nPlusOneThreshold = Math.max(2, nPlusOneThreshold);
+        this.meterRegistry = meterRegistry;
+        this.exceeded = Counter.builder("app.db.query-budget.exceeded")
+                .description("Requests that ran more database queries than their budget")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        QueryStats stats = QueryStats.begin(defaultBudget);
+        ServerTimingResponse timingResponse = new ServerTimingResponse(response, stats);
+        try {
+            chain.doFilter(request, timingResponse);
+        } finally {
+            QueryStats.end();
+            timingResponse.addServerTiming();
+            report(request, stats);
+        }
+    }
+
+    private void report(HttpServletRequest request, QueryStats stats) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        DistributionSummary.builder("app.db.queries")
+                .description("Database queries per request")
+                .tag("method", request.getMethod())
+                .tag("uri", pattern != null ? pattern.toString() : "UNKNOWN")
+                .register(meterRegistry)
+                .record(stats.getQueries());
+
+        if (stats.isOverBudget()) {
+            exceeded.increment();
+            logger.warn("Query budget exceeded: {} {} ran {} queries (budget {}), {} entities loaded, {} ms in database",
+                    request.getMethod(), request.getRequestURI(), stats.getQueries(), stats.getBudget(),
+                    stats.getEntities(), String.format("%.1f", stats.getDbMillis()));
+        }
+        if (stats.isUnlimited()) {
+            return;
+        }
+        stats.repeatedStatements(nPlusOneThreshold).forEach((sql, count) ->
+                logger.warn("Possible N+1 in {} {}: statement ran {} times: {}",
+                        request.getMethod(), request.getRequestURI(), count, abbreviate(sql)));
+    }
+
+    private static String abbreviate(String sql) {
+        return sql.length() <= MAX_LOGGED_SQL_LENGTH ? sql : sql.substring(0, MAX_LOGGED_SQL_LENGTH) + "...";
+    }
+
+    /**
+     * Sätter Server-Timing innan svaret skickas: när svarsbufferten blir full, vid flush
+     * eller close, vid sendError/sendRedirect, och annars när filtret är klart.
+     */
+    private static final class ServerTimingResponse extends HttpServletResponseWrapper {
+
+        private final QueryStats stats;
+        private boolean timingAdded;
+        private long written;
+        private long contentLength = -1;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        ServerTimingResponse(HttpServletResponse response, QueryStats stats) {
+            super(response);
+            this.stats = stats;
+        }
+
+        void addServerTiming() {
+            if (!timingAdded) {
+                timingAdded = true;
+                if (!isCommitted()) {
+                    setHeader(SERVER_TIMING, stats.serverTiming());
+                }
+            }
+        }
+
+        private void beforeWrite(int length) {
+            written += length;
+            // Svaret skickas när bufferten är full eller när hela Content-Length är skriven
+            if (written >= getBufferSize() || (contentLength >= 0 && written >= contentLength)) {
+                addServerTiming();
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            contentLength = len;
+            super.setContentLength(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            contentLength = len;
+            super.setContentLengthLong(len);
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            rememberContentLength(name, value);
+            super.setHeader(name, value);
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            rememberContentLength(name, value);
+            super.addHeader(name, value);
+        }
+
+        private void rememberContentLength(String name, String value) {
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name) && value != null) {
+                try {
+                    contentLength = Long.parseLong(value.trim());
+                } catch (NumberFormatException e) {
+                    // Servern avgör själv vad en ogiltig längd innebär
+                }
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addServerTiming();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addServerTiming();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addServerTiming();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addServerTiming();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new TimingOutputStream(super.getOutputStream());
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new TimingWriter(super.getWriter());
+            }
+            return writer;
+        }
+
+        private final class TimingOutputStream extends ServletOutputStream {
+
+            private final ServletOutputStream delegate;
+
+            TimingOutputStream(ServletOutputStream delegate) {
+                this.delegate = delegate;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                beforeWrite(1);
+                delegate.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                beforeWrite(len);
+                delegate.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                addServerTiming();
+                delegate.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                addServerTiming();
+                delegate.close();
+            }
+
+            @Override
+            public boolean isReady() {
+                return delegate.isReady();
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                delegate.setWriteListener(writeListener);
+            }
+        }
+
+        private final class TimingWriter extends PrintWriter {
+
+            TimingWriter(PrintWriter delegate) {
+                super(delegate);
+            }
+
+            @Override
+            public void write(int c) {
+                beforeWrite(1);
+                super.write(c);
+            }
+
+            @Override
+            public void write(char[] buf, int off, int len) {
+                beforeWrite(len);
+                super.write(buf, off, len);
+            }
+
+            @Override
+            public void write(String s, int off, int len) {
+                beforeWrite(len);
+                super.write(s, off, len);
+            }
+
+            @Override
+            public void flush() {
+                addServerTiming();
+                super.flush();
+            }
+
+            @Override
+            public void close() {
+                addServerTiming();
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.wigell.config;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Databasfrågor, databastid och laddade entiteter för ett HTTP-anrop, samt tid för
+ * inloggningskontroll och serialisering. Skapas av QueryBudgetFilter och knyts till tråden
+ * som hanterar anropet. Frågor från andra trådar (t.ex. schemalagda jobb) räknas inte.
+ *
+ * Frågorna räknas av HibernateQueryCounter, så SQL som körs direkt via JDBC ingår inte.
+ */
+public final class QueryStats {
+
+    private static final ThreadLocal<QueryStats> CURRENT = new ThreadLocal<>();
+    // Övre gräns för antal olika frågor som sparas per anrop, för att hitta N+1
+    private static final int MAX_DISTINCT_STATEMENTS = 256;
+
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Integer> statements = new HashMap<>();
+    private int budget;
+    private int queries;
+    private int entities;
+    private long dbNanos;
+    private long executeStartNanos;
+    private long handlerStartNanos;
+    private long serializationNanos;
+
+    private QueryStats(int budget) {
+        this.budget = budget;
+    }
+
+    static QueryStats begin(int defaultBudget) {
+        QueryStats stats = new QueryStats(defaultBudget);
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return räknarna för anropet som tråden hanterar, eller null utanför ett HTTP-anrop
+     */
+    public static QueryStats current() {
+        return CURRENT.get();
+    }
+
+    void statementPrepared(String sql) {
+        queries++;
+        Integer count = statements.get(sql);
+        if (count != null) {
+            statements.put(sql, count + 1);
+        } else if (statements.size() < MAX_DISTINCT_STATEMENTS) {
+            statements.put(sql, 1);
+        }
+    }
+
+    void executeStarted() {
+        executeStartNanos = System.nanoTime();
+    }
+
+    void executeEnded() {
+        if (executeStartNanos != 0) {
+            dbNanos += System.nanoTime() - executeStartNanos;
+            executeStartNanos = 0;
+        }
+    }
+
+    void entityLoaded() {
+        entities++;
+    }
+
+    void handlerStarted(int handlerBudget) {
+        handlerStartNanos = System.nanoTime();
+        if (handlerBudget != 0) {
+            budget = handlerBudget;
+        }
+    }
+
+    void addSerialization(long nanos) {
+        serializationNanos += nanos;
+    }
+
+    public int getQueries() {
+        return queries;
+    }
+
+    public int getEntities() {
+        return entities;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public double getDbMillis() {
+        return dbNanos / 1_000_000.0;
+    }
+
+    public boolean isUnlimited() {
+        return budget == QueryBudget.UNLIMITED;
+    }
+
+    public boolean isOverBudget() {
+        return budget > 0 && queries > budget;
+    }
+
+    /**
+     * @return frågor som körts minst threshold gånger under anropet, med antal
+     */
+    Map<String, Integer> repeatedStatements(int threshold) {
+        Map<String, Integer> repeated = new LinkedHashMap<>();
+        statements.forEach((sql, count) -> {
+            if (count >= threshold) {
+                repeated.put(sql, count);
+            }
+        });
+        return repeated;
+    }
+
+    /**
+     * Värdet för Server-Timing. Inloggningskontrollen är tiden från anropets start tills
+     * controllern anropas, eller hela anropet om det aldrig nådde någon controller.
+     */
+    String serverTiming() {
+        long now = System.nanoTime();
+        long authNanos = (handlerStartNanos != 0 ? handlerStartNanos : now) - startNanos;
+        return String.format(Locale.ROOT,
+                "db;dur=%.1f;desc=\"%d queries, %d entities\", serialization;dur=%.1f, auth;dur=%.1f, total;dur=%.1f",
+                getDbMillis(), queries, entities, serializationNanos / 1_000_000.0,
+                authNanos / 1_000_000.0, (now - startNanos) / 1_000_000.0);
+    }
+}
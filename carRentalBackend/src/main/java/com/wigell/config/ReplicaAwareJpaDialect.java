@@ -0,0 +1,55 @@
+package com.wigell.config;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.sql.SQLException;
+
+/**
+ * HibernateJpaDialect som låter läsande transaktioner hämta från andra nivåns cache men inte
+ * lägga in något i den när en replika används (CacheMode.GET).
+ *
+ * En replika som ligger efter kan annars lägga tillbaka en gammal rad i cachen efter att
+ * raden har tagits bort ur den, t.ex. efter ett lösenordsbyte eller en ändrad orderräknare
+ * (se UserRepoCustomImpl), och den gamla raden ligger då kvar tills cachen går ut.
+ * Cachen fylls i stället av skrivande transaktioner, som läser från primären.
+ */
+class ReplicaAwareJpaDialect extends HibernateJpaDialect {
+
+    private final ReplicaRoutingDataSource replicaRouting;
+
+    ReplicaAwareJpaDialect(ReplicaRoutingDataSource replicaRouting) {
+        this.replicaRouting = replicaRouting;
+    }
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition)
+            throws SQLException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        if (!definition.isReadOnly() || !replicaRouting.hasHealthyReplica()) {
+            return transactionData;
+        }
+        Session session = entityManager.unwrap(Session.class);
+        CacheMode previous = session.getCacheMode();
+        session.setCacheMode(CacheMode.GET);
+        return new ReplicaTransactionData(transactionData, session, previous);
+    }
+
+    @Override
+    public void cleanupTransaction(Object transactionData) {
+        if (transactionData instanceof ReplicaTransactionData replicaData) {
+            if (replicaData.session.isOpen()) {
+                replicaData.session.setCacheMode(replicaData.previousCacheMode);
+            }
+            super.cleanupTransaction(replicaData.transactionData);
+        } else {
+            super.cleanupTransaction(transactionData);
+        }
+    }
+
+    private record ReplicaTransactionData(Object transactionData, Session session, CacheMode previousCacheMode) {
+    }
+}
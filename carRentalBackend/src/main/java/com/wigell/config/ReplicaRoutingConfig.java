@@ -0,0 +1,111 @@
+package com.wigell.config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Skickar läsande transaktioner (readOnly = true) till en eller flera replikor, allt annat går
+ * till primären. Slås på med app.datasource.replica.urls, utan den används Spring Boots vanliga
+ * DataSource.
+ *
+ * Hibernate och JdbcTemplate får en LazyConnectionDataSourceProxy. Den hämtar den riktiga
+ * anslutningen först vid första frågan, när transaktionen redan har markerat den som läsande,
+ * och tar den då från ReplicaRoutingDataSource i stället för primären. Spring Datas
+ * läsmetoder är readOnly som standard, så de hamnar också på replikorna när de anropas utan
+ * en omgivande transaktion.
+ *
+ * En läsning från en replika kan vara högst app.datasource.replica.max-lag gammal. Det som måste
+ * vara aktuellt läser därför i en skrivande transaktion: inloggningen (UserRepoCustomImpl),
+ * tillgänglighetsindexet och bilkatalogen, som båda sparas i minnet tills nästa ändring.
+ * Open-in-view är avstängt (spring.jpa.open-in-view), annars behåller sessionen den första
+ * anslutningen under hela anropet och en skrivning efter en läsning hamnar på replikan.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.datasource.replica.urls")
+public class ReplicaRoutingConfig {
+
+    /**
+     * Primären, konfigurerad av spring.datasource.* och spring.datasource.hikari.* som vanligt.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource replicaRoutingDataSource(
+            HikariDataSource primaryDataSource,
+            DataSourceProperties properties,
+            @Value("${app.datasource.replica.urls}") List<String> urls,
+            @Value("${app.datasource.replica.username:}") String username,
+            @Value("${app.datasource.replica.password:}") String password,
+            @Value("${app.datasource.replica.max-lag:5s}") Duration maxLag,
+            @Value("${app.datasource.replica.check-interval:2s}") Duration checkInterval,
+            MeterRegistry meterRegistry) {
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : urls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            // Samma poolinställningar som primären
+            HikariConfig config = new HikariConfig();
+            primaryDataSource.copyStateTo(config);
+            config.setPoolName("replica-" + (replicas.size() + 1));
+            config.setJdbcUrl(url.trim());
+            config.setUsername(username.isEmpty() ? properties.determineUsername() : username);
+            config.setPassword(username.isEmpty() ? properties.determinePassword() : password);
+            config.setReadOnly(true);
+            // Starta även om replikan inte svarar, hälsokontrollen tar in den när den är uppe
+            config.setInitializationFailTimeout(-1);
+            config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            replicas.add(new HikariDataSource(config));
+        }
+        if (replicas.isEmpty()) {
+            throw new IllegalStateException("app.datasource.replica.urls contains no replica URL");
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLag, checkInterval, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, ReplicaRoutingDataSource replicaRoutingDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        dataSource.setReadOnlyDataSource(replicaRoutingDataSource);
+        return dataSource;
+    }
+
+    // Statisk, så att post-processorn kan skapas innan konfigurationsklassen
+    @Bean
+    public static BeanPostProcessor replicaAwareJpaDialectPostProcessor(
+            ObjectProvider<ReplicaRoutingDataSource> replicaRoutingDataSource) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof AbstractEntityManagerFactoryBean factoryBean) {
+                    factoryBean.setJpaDialect(new ReplicaAwareJpaDialect(replicaRoutingDataSource.getObject()));
+                }
+                return bean;
+            }
+        };
+    }
+}
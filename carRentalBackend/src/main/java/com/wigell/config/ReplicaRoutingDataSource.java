@@ -0,0 +1,237 @@
+package com.wigell.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Anslutningar för läsande transaktioner: en frisk replika i tur och ordning, annars primären.
+ * Används som readOnlyDataSource i LazyConnectionDataSourceProxy (se ReplicaRoutingConfig),
+ * så den får bara anrop från transaktioner med readOnly = true.
+ *
+ * Replikornas hälsa kontrolleras var check-interval i en egen tråd. En replika är frisk om
+ * den svarar och, när max-lag är satt, om dess fördröjning är högst max-lag. Fördröjningen mäts
+ * med en hjärtslagsrad som skrivs till primären vid varje kontroll och läses från replikan:
+ * fördröjningen är tiden sedan det hjärtslag replikan har hunnit få. Tiden kommer från
+ * applikationens klocka, så flera instanser mot samma databas behöver synkade klockor.
+ * Går det inte att få en anslutning från en replika markeras den som sjuk direkt och
+ * nästa replika eller primären används.
+ *
+ * Mätvärden: app.datasource.replica.lag (sekunder) och app.datasource.replica.healthy (1 eller 0)
+ * per replika, och app.datasource.reads med taggen target för vart läsningarna gick.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    static final String HEARTBEAT_TABLE = "replica_heartbeat";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final Duration maxLag;
+    private final JdbcTemplate primaryJdbc;
+    private final Counter primaryReads;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService checker;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, Duration maxLag,
+                                    Duration checkInterval, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.maxLag = maxLag;
+        this.primaryJdbc = new JdbcTemplate(primary);
+        this.replicas = replicas.stream().map(dataSource -> new Replica(dataSource, meterRegistry)).toList();
+        this.primaryReads = Counter.builder("app.datasource.reads")
+                .description("Connections handed out for read-only transactions")
+                .tag("target", "primary")
+                .register(meterRegistry);
+        this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (isLagChecked()) {
+            createHeartbeatTable();
+        }
+        // Första kontrollen görs direkt, så att replikorna inte används innan de har kontrollerats
+        checkReplicas();
+        long interval = Math.max(100, checkInterval.toMillis());
+        checker.scheduleWithFixedDelay(this::checkReplicas, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        int count = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replica.reads.increment();
+                return connection;
+            } catch (SQLException e) {
+                replica.markUnhealthy("no connection: " + e.getMessage());
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        // Replikornas pooler har fasta inloggningsuppgifter, andra uppgifter kan bara gå till primären
+        primaryReads.increment();
+        return primary.getConnection(username, password);
+    }
+
+    /**
+     * Om minst en replika är frisk, dvs. om nästa läsande transaktion troligen går till en replika.
+     */
+    public boolean hasHealthyReplica() {
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        checker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+    }
+
+    private boolean isLagChecked() {
+        return maxLag.toMillis() > 0;
+    }
+
+    private void createHeartbeatTable() {
+        primaryJdbc.execute("create table if not exists " + HEARTBEAT_TABLE
+                + " (id int not null, beat_millis bigint not null, primary key (id))");
+    }
+
+    void checkReplicas() {
+        long now = System.currentTimeMillis();
+        if (isLagChecked()) {
+            try {
+                writeHeartbeat(now);
+            } catch (RuntimeException e) {
+                // Replikornas fördröjning växer då tills den går över max-lag,
+                // precis som om replikeringen hade stannat
+                logger.warn("Replica heartbeat could not be written to the primary: {}", e.getMessage());
+            }
+        }
+        for (Replica replica : replicas) {
+            replica.check(now);
+        }
+    }
+
+    private void writeHeartbeat(long now) {
+        if (primaryJdbc.update("update " + HEARTBEAT_TABLE + " set beat_millis = ? where id = 1", now) == 0) {
+            primaryJdbc.update("insert into " + HEARTBEAT_TABLE + " (id, beat_millis) values (1, ?)", now);
+        }
+    }
+
+    private final class Replica {
+
+        private final HikariDataSource dataSource;
+        private final JdbcTemplate jdbc;
+        private final Counter reads;
+        private volatile boolean healthy;
+        private volatile boolean checked;
+        // Sekunder, NaN när fördröjningen inte gick att mäta
+        private volatile double lag = Double.NaN;
+
+        private Replica(HikariDataSource dataSource, MeterRegistry meterRegistry) {
+            this.dataSource = dataSource;
+            this.jdbc = new JdbcTemplate(dataSource);
+            String name = dataSource.getPoolName();
+            this.reads = Counter.builder("app.datasource.reads")
+                    .description("Connections handed out for read-only transactions")
+                    .tag("target", name)
+                    .register(meterRegistry);
+            Gauge.builder("app.datasource.replica.lag", this, replica -> replica.lag)
+                    .description("How far the replica is behind the primary")
+                    .baseUnit("seconds")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+            Gauge.builder("app.datasource.replica.healthy", this, replica -> replica.healthy ? 1 : 0)
+                    .description("Whether read-only transactions are routed to the replica")
+                    .tag("replica", name)
+                    .register(meterRegistry);
+        }
+
+        private void check(long now) {
+            try {
+                boolean valid = Boolean.TRUE.equals(jdbc.execute((ConnectionCallback<Boolean>) connection ->
+                        connection.isValid(VALIDATION_TIMEOUT_SECONDS)));
+                if (!valid) {
+                    lag = Double.NaN;
+                    markUnhealthy("connection not valid");
+                    return;
+                }
+                if (!isLagChecked()) {
+                    markHealthy();
+                    return;
+                }
+                List<Long> beats = jdbc.queryForList(
+                        "select beat_millis from " + HEARTBEAT_TABLE + " where id = 1", Long.class);
+                if (beats.isEmpty()) {
+                    lag = Double.NaN;
+                    markUnhealthy("no heartbeat replicated yet");
+                    return;
+                }
+                long lagMillis = Math.max(0, now - beats.get(0));
+                lag = lagMillis / 1000.0;
+                if (lagMillis > maxLag.toMillis()) {
+                    markUnhealthy("lag " + lagMillis + " ms exceeds " + maxLag.toMillis() + " ms");
+                } else {
+                    markHealthy();
+                }
+            } catch (RuntimeException e) {
+                lag = Double.NaN;
+                markUnhealthy(e.getMessage());
+            }
+        }
+
+        private void markHealthy() {
+            checked = true;
+            if (!healthy) {
+                healthy = true;
+                logger.info("Replica {} is healthy, routing read-only transactions to it", dataSource.getPoolName());
+            }
+        }
+
+        private void markUnhealthy(String reason) {
+            if (healthy || !checked) {
+                healthy = false;
+                checked = true;
+                logger.warn("Replica {} is unhealthy ({}), read-only transactions fall back", dataSource.getPoolName(), reason);
+            } else {
+                logger.debug("Replica {} still unhealthy: {}", dataSource.getPoolName(), reason);
+            }
+        }
+    }
+}
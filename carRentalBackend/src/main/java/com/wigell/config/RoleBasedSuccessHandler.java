@@ -1,5 +1,6 @@
 package com.wigell.config;
 
+import com.wigell.services.LoginAttemptTracker;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -11,6 +12,12 @@ import java.io.IOException;
 
 public class RoleBasedSuccessHandler implements AuthenticationSuccessHandler {
 
+    private final LoginAttemptTracker tracker;
+
+    public RoleBasedSuccessHandler(LoginAttemptTracker tracker) {
+        this.tracker = tracker;
+    }
+
     @Override
     public void onAuthenticationSuccess(
             HttpServletRequest request,
@@ -18,6 +25,9 @@ public class RoleBasedSuccessHandler implements AuthenticationSuccessHandler {
             Authentication auth
     ) throws IOException {
 
+        // Tidigare misslyckade försök för användarnamnet räknas inte längre
+        tracker.recordSuccess(auth.getName());
+
         String role = auth.getAuthorities().iterator().next().getAuthority();
 
         if (role.equals("ROLE_ADMIN")) {
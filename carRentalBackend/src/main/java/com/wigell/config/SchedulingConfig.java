@@ -0,0 +1,13 @@
+package com.wigell.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Slår på schemalagda jobb (@Scheduled), t.ex. avstämningen av användarnas orderräknare
+ * och avslutet av bokningar som har gått ut.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
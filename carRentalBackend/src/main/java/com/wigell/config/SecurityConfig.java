@@ -1,6 +1,11 @@
                         package com.wigell.config;
 
                         import com.wigell.dao.UserRepo;
+                        import com.wigell.services.LoginAttemptTracker;
+                        import com.wigell.services.PasswordHasher;
+                        import com.wigell.services.TokenService;
+                        import org.springframework.beans.factory.annotation.Value;
+                        import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
                         import org.springframework.context.annotation.Bean;
                         import org.springframework.context.annotation.Configuration;
                         import org.springframework.http.HttpMethod;
@@ -10,23 +15,47 @@
                         import org.springframework.security.core.userdetails.UserDetailsService;
                         import org.springframework.security.core.userdetails.UsernameNotFoundException;
                         import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+                        import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
                         import org.springframework.security.crypto.password.PasswordEncoder;
                         import org.springframework.security.web.SecurityFilterChain;
+                        import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
                         import org.springframework.web.cors.CorsConfiguration;
                         import org.springframework.web.cors.CorsConfigurationSource;
                         import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
 
+                        import java.time.Duration;
                         import java.util.Arrays;
                         import java.util.Collections;
+                        import java.util.HashMap;
+                        import java.util.Map;
 
                         @Configuration
                         @EnableWebSecurity
                         @EnableMethodSecurity
                         public class SecurityConfig {
 
+                            private static final String BCRYPT_ID = "bcrypt";
+
+                            /**
+                             * BCrypt med en kostnad som antingen anges i app.auth.bcrypt.cost eller kalibreras vid
+                             * uppstart mot app.auth.bcrypt.target-time (se BCryptCostCalibrator). Nya hashar får
+                             * prefixet {bcrypt}. Hashar utan prefix är från tiden före och kontrolleras som BCrypt.
+                             * Hashar utan prefix eller med lägre kostnad kodas om vid inloggning (se PasswordUpgrader).
+                             * Kodaren körs i en begränsad trådpool, se PasswordHasher.
+                             */
                             @Bean
-                            public PasswordEncoder passwordEncoder() {
-                                return new BCryptPasswordEncoder();
+                            public PasswordEncoder passwordEncoder(PasswordHasher passwordHasher,
+                                                                   @Value("${app.auth.bcrypt.cost:0}") int cost,
+                                                                   @Value("${app.auth.bcrypt.target-time:100ms}") Duration targetTime,
+                                                                   @Value("${app.auth.bcrypt.min-cost:10}") int minCost,
+                                                                   @Value("${app.auth.bcrypt.max-cost:16}") int maxCost) {
+                                int strength = cost > 0 ? cost : BCryptCostCalibrator.calibrate(targetTime, minCost, maxCost);
+                                BCryptPasswordEncoder bcrypt = new BCryptPasswordEncoder(strength);
+                                Map<String, PasswordEncoder> encoders = new HashMap<>();
+                                encoders.put(BCRYPT_ID, bcrypt);
+                                DelegatingPasswordEncoder delegating = new DelegatingPasswordEncoder(BCRYPT_ID, encoders);
+                                delegating.setDefaultPasswordEncoderForMatches(bcrypt);
+                                return new BoundedPasswordEncoder(delegating, passwordHasher);
                             }
 
                             @Bean
@@ -36,7 +65,18 @@
                             }
 
                             @Bean
-                            public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+                            public SecurityFilterChain securityFilterChain(HttpSecurity http, TokenService tokenService,
+                                                                           LoginAttemptTracker loginAttemptTracker) throws Exception {
+                                // Nekar inloggningsförsök med 429 innan lösenordet kontrolleras
+                                http.addFilterBefore(new LoginThrottleFilter(loginAttemptTracker),
+                                        UsernamePasswordAuthenticationFilter.class);
+
+                                // Tillståndslösa Bearer-tokens utöver formulärinloggningen (app.auth.tokens.enabled)
+                                if (tokenService.isEnabled()) {
+                                    http.addFilterBefore(new TokenAuthenticationFilter(tokenService),
+                                            UsernamePasswordAuthenticationFilter.class);
+                                }
+
                                 http
                                         .csrf(csrf -> csrf.disable())
                                         .cors(cors -> cors.configurationSource(corsConfigurationSource()))
@@ -54,19 +94,27 @@
 
                                                 ).permitAll()
 
+                                                // actuator, bara på den interna management-porten: health och prometheus
+                                                // är öppna för lastbalanserare och scraping, resten (metrics, info) kräver admin
+                                                .requestMatchers(EndpointRequest.to("health", "prometheus")).permitAll()
+                                                .requestMatchers(EndpointRequest.toAnyEndpoint()).hasRole("ADMIN")
+
                                                 // public APIs
                                                 .requestMatchers(HttpMethod.GET, "/api/v1/").permitAll()
                                                 .requestMatchers(HttpMethod.GET, "/api/v1/cars").permitAll()
+                                                .requestMatchers(HttpMethod.GET, "/api/v1/cars/available").permitAll()
+                                                .requestMatchers(HttpMethod.GET, "/api/v1/cars/*/image").permitAll()
                                                 .requestMatchers(HttpMethod.GET, "/api/v1/bookings/**").permitAll()
                                                 .requestMatchers(HttpMethod.POST, "/api/v1/users").permitAll()
+                                                .requestMatchers(HttpMethod.POST, "/api/v1/auth/login", "/api/v1/auth/refresh", "/api/v1/auth/logout").permitAll()
 
                                                 // bookings
-                                                .requestMatchers(HttpMethod.POST, "/api/v1/bookings").hasRole("USER")
+                                                .requestMatchers(HttpMethod.POST, "/api/v1/bookings", "/api/v1/bookings/batch").hasRole("USER")
                                                 .requestMatchers(HttpMethod.PUT, "/api/v1/bookings/**").hasRole("ADMIN")
                                                 .requestMatchers(HttpMethod.DELETE, "/api/v1/bookings/**").hasRole("ADMIN")
 
                                                 // cars
-                                                .requestMatchers(HttpMethod.POST, "/api/v1/cars").hasRole("ADMIN")
+                                                .requestMatchers(HttpMethod.POST, "/api/v1/cars", "/api/v1/cars/import").hasRole("ADMIN")
                                                 .requestMatchers(HttpMethod.PUT, "/api/v1/cars/**").hasRole("ADMIN")
                                                 .requestMatchers(HttpMethod.DELETE, "/api/v1/cars/**").hasRole("ADMIN")
 
@@ -80,8 +128,8 @@
                                         .formLogin(form -> form
                                                 .loginPage("/login.html")
                                                 .loginProcessingUrl("/login")
-                                                .successHandler(new RoleBasedSuccessHandler())
-                                                .failureUrl("/login.html?error")
+                                                .successHandler(new RoleBasedSuccessHandler(loginAttemptTracker))
+                                                .failureHandler(new LoginFailureHandler(loginAttemptTracker))
                                                 .permitAll()
                                         )
                                         .logout(logout -> logout
@@ -0,0 +1,74 @@
+package com.wigell.config;
+
+import com.wigell.entities.User;
+import com.wigell.services.TokenService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Autentiserar anrop med "Authorization: Bearer <token>" utifrån tokenen själv,
+ * utan session och utan databasanrop. Anrop utan Bearer-header går vidare som vanligt
+ * (formulärinloggning med session). En ogiltig token ger 401 direkt, utom för
+ * /api/v1/auth/refresh och /api/v1/auth/logout: de kräver ingen inloggning, och en klient
+ * vars access-token har gått ut ska ändå kunna förnya eller spärra sin refresh-token.
+ *
+ * Registreras bara i SecurityConfig när app.auth.tokens.enabled=true, inte som böna,
+ * så att den inte även läggs in som vanligt servletfilter.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final String BEARER = "Bearer ";
+    private static final Set<String> TOKEN_OPTIONAL = Set.of("/api/v1/auth/refresh", "/api/v1/auth/logout");
+
+    private final TokenService tokenService;
+
+    public TokenAuthenticationFilter(TokenService tokenService) {
+        this.tokenService = tokenService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return HttpMethod.POST.matches(request.getMethod()) && TOKEN_OPTIONAL.contains(path);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Optional<User> principal = tokenService.authenticate(header.substring(BEARER.length()).trim());
+        if (principal.isEmpty()) {
+            response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        User user = principal.get();
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(user, null, user.getAuthorities()));
+        SecurityContextHolder.setContext(context);
+        try {
+            // Kontexten sparas aldrig i sessionen
+            chain.doFilter(request, response);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.wigell.config;
+
+import com.wigell.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Schemamigrering som breddar user.password till User.PASSWORD_LENGTH tecken. Hashar med
+ * {bcrypt}-prefix är 68 tecken och ryms inte i den tidigare kolumnen på 64. Hibernate breddar
+ * kolumnen bara när spring.jpa.generate-ddl=true. Kan köras om, en tillräckligt bred kolumn lämnas orörd.
+ *
+ * Styrs av app.schema.migrate-password-column (på som standard).
+ */
+@Component
+@ConditionalOnProperty(name = "app.schema.migrate-password-column", havingValue = "true", matchIfMissing = true)
+public class UserPasswordColumnMigration implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserPasswordColumnMigration.class);
+    private static final String TABLE = "user";
+    private static final String COLUMN = "password";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public UserPasswordColumnMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        ColumnInfo column = jdbcTemplate.execute((ConnectionCallback<ColumnInfo>) UserPasswordColumnMigration::findColumn);
+        if (column == null) {
+            logger.warn("Column {}.{} not found, password column not migrated", TABLE, COLUMN);
+            return;
+        }
+        if (column.size >= User.PASSWORD_LENGTH) {
+            return;
+        }
+        jdbcTemplate.execute("alter table " + column.table + " modify " + column.name
+                + " varchar(" + User.PASSWORD_LENGTH + ") not null");
+        logger.info("Widened {}.{} from {} to {} characters", column.table, column.name, column.size, User.PASSWORD_LENGTH);
+    }
+
+    private record ColumnInfo(String table, String name, int size) {
+    }
+
+    // Skiftläget på tabell och kolumn beror på databas och inställningar
+    private static ColumnInfo findColumn(Connection connection) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getColumns(connection.getCatalog(), null, "%", "%")) {
+            while (rs.next()) {
+                String table = rs.getString("TABLE_NAME");
+                String name = rs.getString("COLUMN_NAME");
+                if (TABLE.equalsIgnoreCase(table) && COLUMN.equalsIgnoreCase(name)) {
+                    return new ColumnInfo(table, name, rs.getInt("COLUMN_SIZE"));
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -1,15 +1,31 @@
 package com.wigell.controllers;
 
+import com.wigell.config.QueryBudget;
+import com.wigell.dto.BatchBookingResult;
+import com.wigell.dto.PageDTO;
 import com.wigell.entities.Booking;
 import com.wigell.entities.User;
+import com.wigell.services.BookingExportService;
 import com.wigell.services.BookingService;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.context.request.async.WebAsyncTask;
+
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 
@@ -21,24 +37,71 @@ public class BookingController {
 
     private static final Logger logger = LoggerFactory.getLogger(BookingController.class);
     private final BookingService bookingService;
+    private final BookingExportService exportService;
+    private final Duration exportTimeout;
 
-    public BookingController(BookingService bookingService) {
+    public BookingController(BookingService bookingService, BookingExportService exportService,
+                             @Value("${app.bookings.export.timeout:30m}") Duration exportTimeout) {
         this.bookingService = bookingService;
+        this.exportService = exportService;
+        this.exportTimeout = exportTimeout;
     }
 
     /**
      * Hämtar alla bokningar.
+     * Med limit, after eller något filter (active, carId, userId) returneras en sida
+     * i id-ordning ({"data": [...], "next": id}) i stället för hela listan.
      *
      * @return ResponseEntity med lista över alla bokningar och HTTP-status OK.
      */
     //Testad
     @PreAuthorize("hasRole('ROLE_ADMIN')")
     @GetMapping
-    public ResponseEntity<List<Booking>> getAllBookings() {
+    public ResponseEntity<?> getAllBookings(@RequestParam(value = "limit", required = false) Integer limit,
+                                            @RequestParam(value = "after", required = false) Long after,
+                                            @RequestParam(value = "active", required = false) Boolean active,
+                                            @RequestParam(value = "carId", required = false) Long carId,
+                                            @RequestParam(value = "userId", required = false) Long userId) {
+        if (limit != null || after != null || active != null || carId != null || userId != null) {
+            return ResponseEntity.ok(bookingService.getBookingsPage(after, PageDTO.clampLimit(limit),
+                    active, carId, userId));
+        }
         List<Booking> bookings = bookingService.getAllBookings();
         return ResponseEntity.ok(bookings);
     }
 
+    /**
+     * Exporterar bokningar som överlappar perioden from till och med to (yyyy-MM-dd),
+     * som NDJSON (standard) eller CSV. Svaret strömmas medan bokningarna läses,
+     * så även mycket stora exporter börjar skickas direkt. Returnerar 400 vid okänt format.
+     * Exporten skrivs i en egen tråd och får ta app.bookings.export.timeout, övriga asynkrona
+     * anrop har kvar standardtiden.
+     */
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    @GetMapping("/export")
+    public WebAsyncTask<Void> exportBookings(
+            @RequestParam(value = "format", required = false) String format,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            HttpServletResponse response) {
+        BookingExportService.Format exportFormat;
+        try {
+            exportFormat = BookingExportService.Format.fromParam(format);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+        // StreamingResponseBody skulle få standardtiden, därför skrivs svaret direkt här
+        response.setContentType(exportFormat.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                .filename("bookings." + exportFormat.getExtension()).build().toString());
+        return new WebAsyncTask<>(exportTimeout.toMillis(), () -> {
+            ServletOutputStream out = response.getOutputStream();
+            exportService.export(exportFormat, from, to, out);
+            out.flush();
+            return null;
+        });
+    }
+
     /**
      * Hämtar alla bokningar för en specifik användare (userId).
      * Endast en admin får komma åt denna.
@@ -62,6 +125,7 @@ public class BookingController {
     //Testad
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/me")
+    @QueryBudget(3)
     public ResponseEntity<List<Booking>> getMyBookings(
             @AuthenticationPrincipal User currentUser) {
 
@@ -75,13 +139,22 @@ public class BookingController {
     }
     /**
      * Hämtar alla aktiva bokningar.
+     * Med limit, after, carId eller userId returneras en sida i id-ordning
+     * ({"data": [...], "next": id}) i stället för hela listan.
      *
      * @return ResponseEntity med lista över aktiva bokningar och HTTP-status OK.
      */
     //Testad
     @PreAuthorize("hasRole('ROLE_ADMIN')")
     @GetMapping("/active")
-    public ResponseEntity<List<Booking>> getActiveBookings() {
+    public ResponseEntity<?> getActiveBookings(@RequestParam(value = "limit", required = false) Integer limit,
+                                               @RequestParam(value = "after", required = false) Long after,
+                                               @RequestParam(value = "carId", required = false) Long carId,
+                                               @RequestParam(value = "userId", required = false) Long userId) {
+        if (limit != null || after != null || carId != null || userId != null) {
+            return ResponseEntity.ok(bookingService.getBookingsPage(after, PageDTO.clampLimit(limit),
+                    true, carId, userId));
+        }
         List<Booking> activeBookings = bookingService.getActiveBookings();
         return ResponseEntity.ok(activeBookings);
     }
@@ -107,11 +180,12 @@ public class BookingController {
      *
      * @param bookingRequest Bokningsobjektet som ska sparas.
      * @return ResponseEntity med HTTP-status 201 CREATED vid lyckad bokning,
-     * Status 404 om bilens id inte hittas
+     * Status 404 om bilens id inte hittas, 409 CONFLICT om bilen redan är bokad under perioden,
      * annars INTERNAL_SERVER_ERROR vid fel.
      */
     //Testad
     @PostMapping
+    @QueryBudget(6)
     public ResponseEntity<?> orderCar(
             @AuthenticationPrincipal User currentUser,
             @RequestBody Booking bookingRequest) {
@@ -128,6 +202,13 @@ public class BookingController {
                     : HttpStatus.BAD_REQUEST;
             return ResponseEntity.status(status)
                     .body(Map.of("error", msg));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (OptimisticLockingFailureException e) {
+            // Samtidiga ändringar även efter upprepade försök
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "Bokningen ändrades samtidigt av någon annan, försök igen"));
         } catch (Exception e) {
             logger.error("Fel vid skapande av bokning: {}", e.getMessage(), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -136,17 +217,67 @@ public class BookingController {
     }
 
 
+    /**
+     * Skapar flera bokningar på en gång (allt eller inget), se BookingService.orderCars.
+     *
+     * @param bookingRequests bil och period för varje bokning
+     * @return ResponseEntity med resultat per bokning och HTTP-status 201 CREATED om alla bokades,
+     * annars 400 om någon post är felaktig eller bilen inte finns, 409 CONFLICT om någon bil
+     * redan är bokad, och då har ingen bokning sparats.
+     */
+    @PostMapping("/batch")
+    @QueryBudget(10)
+    public ResponseEntity<?> orderCars(
+            @AuthenticationPrincipal User currentUser,
+            @RequestBody List<Booking> bookingRequests) {
+
+        try {
+            List<BatchBookingResult> results = bookingService.orderCars(currentUser.getId(), bookingRequests);
+            HttpStatus status = HttpStatus.CREATED;
+            for (BatchBookingResult result : results) {
+                if (result.getStatus() == BatchBookingResult.Status.INVALID
+                        || result.getStatus() == BatchBookingResult.Status.NOT_FOUND) {
+                    status = HttpStatus.BAD_REQUEST;
+                    break;
+                }
+                if (result.getStatus() == BatchBookingResult.Status.CONFLICT) {
+                    status = HttpStatus.CONFLICT;
+                }
+            }
+            return ResponseEntity.status(status).body(results);
+        } catch (IllegalArgumentException e) {
+            String msg = e.getMessage();
+            HttpStatus status = msg.contains("not found")
+                    ? HttpStatus.NOT_FOUND
+                    : HttpStatus.BAD_REQUEST;
+            return ResponseEntity.status(status)
+                    .body(Map.of("error", msg));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (OptimisticLockingFailureException e) {
+            // Samtidiga ändringar även efter upprepade försök
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "Bokningarna ändrades samtidigt av någon annan, försök igen"));
+        } catch (Exception e) {
+            logger.error("Fel vid skapande av bokningar: {}", e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Ett internt fel uppstod"));
+        }
+    }
+
     /**
      * Uppdaterar en existerande bokning.
      *
      * @param id             Id för bokningen som ska uppdateras.
      * @param bookingDetails De nya uppgifterna för bokningen.
      * @return ResponseEntity med den uppdaterade bokningen och HTTP-status OK,
-     *         eller 404 NOT_FOUND om bokningen inte kunde hittas.
+     *         404 NOT_FOUND om bokningen inte kunde hittas, 400 vid felaktiga datum
+     *         eller 409 CONFLICT om bilen redan är bokad under den nya perioden.
      */
     //Testad
     @PutMapping("/{id}")
-    public ResponseEntity<Booking> updateOrder(@PathVariable long id, @RequestBody Booking bookingDetails) {
+    public ResponseEntity<?> updateOrder(@PathVariable long id, @RequestBody Booking bookingDetails) {
         try {
             Booking updatedBooking = bookingService.updateOrder(id, bookingDetails);
             if (updatedBooking != null) {
@@ -154,6 +285,16 @@ public class BookingController {
             } else {
                 return new ResponseEntity<>(HttpStatus.NOT_FOUND);
             }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (OptimisticLockingFailureException e) {
+            // Samtidiga ändringar även efter upprepade försök
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "Bokningen ändrades samtidigt av någon annan, försök igen"));
         } catch (Exception e) {
             logger.error("Fel vid uppdatering av bokning med id {}: {}", id, e.getMessage(), e);
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -168,6 +309,7 @@ public class BookingController {
      */
     //Testad
     @PutMapping("/return/{id}")
+    @QueryBudget(4)
     public ResponseEntity<Booking> returnCar(@PathVariable long id) {
         try {
             Booking returnedBooking = bookingService.returnCar(id);
@@ -0,0 +1,38 @@
+package com.wigell.controllers;
+
+import com.wigell.services.CacheStatsService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1/cache/stats")
+@CrossOrigin(origins = {"http://127.0.0.1:5500"}, allowCredentials = "true")
+@PreAuthorize("hasRole('ROLE_ADMIN')")
+public class CacheStatsController {
+
+    private final CacheStatsService cacheStatsService;
+
+    public CacheStatsController(CacheStatsService cacheStatsService) {
+        this.cacheStatsService = cacheStatsService;
+    }
+
+    /**
+     * Hämtar andra nivåns cachestatistik och antal databasfrågor (endast admin).
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getStats() {
+        return ResponseEntity.ok(cacheStatsService.snapshot());
+    }
+
+    /**
+     * Nollställer statistiken (endast admin).
+     */
+    @DeleteMapping
+    public ResponseEntity<Void> resetStats() {
+        cacheStatsService.reset();
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -1,38 +1,121 @@
 package com.wigell.controllers;
 
+import com.wigell.config.QueryBudget;
+import com.wigell.dto.CarImageDTO;
+import com.wigell.dto.CarImportReport;
+import com.wigell.dto.CarSummary;
+import com.wigell.dto.PageDTO;
 import com.wigell.entities.Car;
+import com.wigell.entities.CarImageSize;
+import com.wigell.services.CarCatalog;
+import com.wigell.services.CarImportService;
 import com.wigell.services.CarService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
+import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.Map;
 import java.util.Optional;
+import java.util.zip.ZipException;
 
 @RestController
 @RequestMapping("/api/v1/cars")
 @CrossOrigin(origins = {"http://127.0.0.1:5500"}, allowCredentials = "true")
 public class CarController {
 
+    private static final Logger logger = LoggerFactory.getLogger(CarController.class);
+
+    // Request-attribut som Tomcat använder för att skicka filer med sendfile
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     private final CarService carService;
+    private final CarImportService carImportService;
 
     @Autowired
-    public CarController(CarService carService) {
+    public CarController(CarService carService, CarImportService carImportService) {
         this.carService = carService;
+        this.carImportService = carImportService;
     }
 
     /**
      * Hämtar alla bilar.
+     * Med limit, after eller något filter (type, booked) returneras en sida
+     * i id-ordning ({"data": [...], "next": id}) i stället för hela listan.
+     * Hela listan skickas som färdig JSON (gzip om klienten accepterar det) med ETag,
+     * så att klienten får 304 Not Modified om inget har ändrats.
      */
     //Testad
     @GetMapping
-    public ResponseEntity<List<Car>> getAllCars() {
-        List<Car> cars = carService.getAllCars();
-        return ResponseEntity.ok(cars);
+    @QueryBudget(2)
+    public ResponseEntity<?> getAllCars(@RequestParam(value = "limit", required = false) Integer limit,
+                                        @RequestParam(value = "after", required = false) Long after,
+                                        @RequestParam(value = "type", required = false) String type,
+                                        @RequestParam(value = "booked", required = false) Boolean booked,
+                                        @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false)
+                                        String acceptEncoding) {
+        if (limit != null || after != null || type != null || booked != null) {
+            return ResponseEntity.ok(carService.getCarsPage(after, PageDTO.clampLimit(limit), type, booked));
+        }
+        CarCatalog.Snapshot catalog = carService.getCatalog();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache().cachePublic())
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        // Stark ETag per kodning, de två svaren är inte byte-identiska
+        if (acceptsGzip(acceptEncoding)) {
+            return response.eTag(catalog.getEtag() + "-gzip")
+                    .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                    .body(catalog.getGzip());
+        }
+        return response.eTag(catalog.getEtag()).body(catalog.getJson());
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").equalsIgnoreCase("q=0");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hämtar bilar som är lediga hela perioden from till och med to (yyyy-MM-dd).
+     * Returnerar 400 om to är före from.
+     */
+    @GetMapping("/available")
+    public ResponseEntity<?> getAvailableCars(
+            @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        try {
+            return ResponseEntity.ok(carService.getAvailableCars(from, to));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        }
     }
 
     /**
@@ -41,16 +124,97 @@ public class CarController {
      */
     //Testad
     @GetMapping("/{id}")
-    public ResponseEntity<Car> getCar(@PathVariable Long id) {
-        Optional<Car> carOptional = carService.getCar(id);
+    public ResponseEntity<CarSummary> getCar(@PathVariable Long id) {
+        Optional<CarSummary> carOptional = carService.getCar(id);
         return carOptional.map(ResponseEntity::ok)
                 .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).build());
     }
 
+    /**
+     * Hämtar bilens bild som binärdata med rätt content type.
+     * Med size (thumb, list, detail) returneras en nerskalad variant om den finns, annars originalet.
+     * Svarar med ETag och Last-Modified så att webbläsaren kan få 304 Not Modified,
+     * och stöder Range-förfrågningar (206 Partial Content).
+     * Om v matchar bildens aktuella version och rätt storlek finns får svaret en lång cachetid.
+     * Bilder i filsystemet skickas med sendfile när Tomcat stöder det.
+     * Returnerar 404 om bilen inte finns eller saknar bild, 400 vid okänd storlek.
+     */
+    @GetMapping("/{id}/image")
+    public ResponseEntity<Resource> getCarImage(@PathVariable Long id,
+                                                @RequestParam(value = "v", required = false) String version,
+                                                @RequestParam(value = "size", required = false) String size,
+                                                ServletWebRequest webRequest) throws IOException {
+        CarImageSize requestedSize;
+        try {
+            requestedSize = CarImageSize.fromParam(size);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
+        }
+        Optional<CarImageDTO> imageOptional = carService.getCarImage(id, requestedSize);
+        if (imageOptional.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        CarImageDTO image = imageOptional.get();
+
+        // Originalet som ersättning för en saknad variant får inte cachas permanent
+        boolean current = image.getSize() == requestedSize && image.getVersion().equals(version);
+        CacheControl cacheControl = current
+                ? CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable()
+                : CacheControl.noCache().cachePublic();
+
+        if (canSendFile(webRequest.getRequest(), image.getResource())) {
+            return sendFile(webRequest, image, cacheControl);
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(image.getContentType()))
+                .eTag(image.getHash())
+                .cacheControl(cacheControl);
+        if (image.getUpdatedAt() != null) {
+            response.lastModified(image.getUpdatedAt());
+        }
+        return response.body(image.getResource());
+    }
+
+    /**
+     * Sendfile används för hela filer när Tomcat stöder det.
+     * Range-förfrågningar hanteras av Spring, som läser filen i små block.
+     */
+    private static boolean canSendFile(HttpServletRequest request, Resource resource) {
+        return resource.isFile()
+                && request.getHeader(HttpHeaders.RANGE) == null
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT));
+    }
+
+    /**
+     * Låter Tomcat skicka filen direkt från disk (FileChannel.transferTo) när svaret är klart,
+     * så att bilden aldrig kopieras genom Java-heapen.
+     */
+    private static ResponseEntity<Resource> sendFile(ServletWebRequest webRequest, CarImageDTO image,
+                                                     CacheControl cacheControl) throws IOException {
+        long lastModified = image.getUpdatedAt() != null ? image.getUpdatedAt().toEpochMilli() : -1;
+        if (webRequest.checkNotModified(image.getHash(), lastModified)) {
+            // 304 och ETag är redan satta på svaret
+            return null;
+        }
+        File file = image.getResource().getFile();
+        HttpServletRequest request = webRequest.getRequest();
+        request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+        request.setAttribute(SENDFILE_START, 0L);
+        request.setAttribute(SENDFILE_END, file.length());
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(image.getContentType()))
+                .contentLength(file.length())
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .build();
+    }
+
     /**
      * Uppdaterar informationen för en specifik bil.
      * Om bilen inte hittas returneras 404.
      * Om en user försöker uppdatera returneras 403.
+     * Om bilen ändrades samtidigt av någon annan returneras 409.
      */
     //Testad
     @PutMapping("/{id}")
@@ -64,6 +228,10 @@ public class CarController {
             return ResponseEntity
                     .status(HttpStatus.NOT_FOUND)
                     .body(Map.of("error", e.getMessage()));
+        } catch (OptimisticLockingFailureException e) {
+            return ResponseEntity
+                    .status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "Bilen ändrades samtidigt av någon annan, försök igen"));
         } catch (Exception e) {
           //  logger.error("Fel vid uppdatering av bil med id {}: {}", id, e.getMessage(), e);
             return ResponseEntity
@@ -105,7 +273,7 @@ public class CarController {
      */
     //Testad
     @PostMapping(path = "", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<Car> addCar(
+    public ResponseEntity<CarSummary> addCar(
             @RequestParam("name") String name,
             @RequestParam("model") String model,
             @RequestParam("feature1") String feature1,
@@ -115,13 +283,40 @@ public class CarController {
             @RequestParam("price") double price,
             @RequestParam("booked") boolean booked,
             @RequestParam(value="image", required=false) MultipartFile imageFile
-    ) throws IOException {
+    ) {
         Car car = new Car(name, model, feature1, feature2, feature3, type, price, booked);
-        if (imageFile != null && !imageFile.isEmpty()) {
-            car.setImage(imageFile.getBytes());  // din LOB-array
+        Car saved = carService.addCar(car, imageFile);
+        return ResponseEntity.status(HttpStatus.CREATED).body(carService.getCar(saved.getId()).orElseThrow());
+    }
+
+    /**
+     * Importerar många bilar på en gång från ett ZIP-arkiv i anropets body
+     * (Content-Type application/zip), se CarImportService för manifestets format.
+     * Arkivet läses som en ström, så det finns ingen storleksgräns för hela arkivet.
+     * Returnerar 200 med resultat per rad, även om vissa rader inte kunde importeras,
+     * och 400 om arkivet inte är en ZIP-fil eller saknar manifest.
+     */
+    @PostMapping(path = "/import", consumes = {"application/zip", "application/x-zip-compressed",
+            MediaType.APPLICATION_OCTET_STREAM_VALUE})
+    @QueryBudget(QueryBudget.UNLIMITED)
+    public ResponseEntity<?> importCars(InputStream archive) {
+        try {
+            CarImportReport report = carImportService.importCars(archive);
+            return ResponseEntity.ok(report);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", e.getMessage()));
+        } catch (ZipException e) {
+            return ResponseEntity
+                    .status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("error", "Invalid ZIP archive: " + e.getMessage()));
+        } catch (Exception e) {
+            logger.error("Car import failed", e);
+            return ResponseEntity
+                    .status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(Map.of("error", "Ett internt fel uppstod"));
         }
-        Car saved = carService.addCar(car);
-        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
     }
 
 
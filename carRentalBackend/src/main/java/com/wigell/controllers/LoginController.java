@@ -1,13 +1,23 @@
 package com.wigell.controllers;
 
+import com.wigell.entities.User;
+import com.wigell.services.LoginAttemptTracker;
+import com.wigell.services.LoginThrottledException;
+import com.wigell.services.PasswordHasher;
+import com.wigell.services.PasswordUpgrader;
+import com.wigell.services.TokenService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/v1/auth")
@@ -16,28 +26,45 @@ public class LoginController {
 
     private final PasswordEncoder passwordEncoder;
     private final UserDetailsService userDetailsService;
+    private final TokenService tokenService;
+    private final LoginAttemptTracker loginAttemptTracker;
+    private final PasswordHasher passwordHasher;
+    private final PasswordUpgrader passwordUpgrader;
 
     @Autowired
-    public LoginController(PasswordEncoder passwordEncoder, UserDetailsService userDetailsService){
+    public LoginController(PasswordEncoder passwordEncoder, UserDetailsService userDetailsService,
+                           TokenService tokenService, LoginAttemptTracker loginAttemptTracker,
+                           PasswordHasher passwordHasher, PasswordUpgrader passwordUpgrader){
         this.passwordEncoder = passwordEncoder;
         this.userDetailsService = userDetailsService;
+        this.tokenService = tokenService;
+        this.loginAttemptTracker = loginAttemptTracker;
+        this.passwordHasher = passwordHasher;
+        this.passwordUpgrader = passwordUpgrader;
     }
 
     /**
      * Autentiserar en användare baserat på inloggningsuppgifter (användarnamn och lösenord).
      * Vid lyckad autentisering returneras en JSON med användarnamnet och en flagga (isAdmin) som anger om användaren har administratörsbehörighet (true) eller inte (false).
+     * Med app.auth.tokens.enabled=true innehåller svaret även accessToken, refreshToken och expiresIn.
      * Vid misslyckad inloggning returneras ett felmeddelande med status 401.
+     * Efter för många misslyckade försök, eller när lösenordskontrollerna är fullbelagda,
+     * returneras 429 med Retry-After utan att lösenordet kontrolleras.
      *
      * @param loginRequest Map med nycklarna "username" och "password".
      * @return ResponseEntity med ett JSON-objekt
      */
     //Testad
     @PostMapping("/login")
-    public ResponseEntity<Map<String, Object>> login(@RequestBody Map<String, String> loginRequest) {
+    public ResponseEntity<Map<String, Object>> login(@RequestBody Map<String, String> loginRequest,
+                                                     HttpServletRequest request) {
         String username = loginRequest.get("username");
         String password = loginRequest.get("password");
+        String ip = request.getRemoteAddr();
 
         try {
+            loginAttemptTracker.checkAllowed(username, ip);
+
             // Hämta användardata baserat på användarnamn
             UserDetails user = userDetailsService.loadUserByUsername(username);
 
@@ -45,6 +72,8 @@ public class LoginController {
             if (!passwordEncoder.matches(password, user.getPassword())) {
                 throw new Exception("Invalid credentials");
             }
+            // Föråldrade hashar (utan {id} eller med lägre kostnad) kodas om nu när lösenordet är känt
+            passwordUpgrader.upgradeIfNeeded(user, password);
 
             // Kontrollera om användaren har admin-behörighet
             boolean isAdmin = user.getAuthorities().stream()
@@ -54,12 +83,86 @@ public class LoginController {
             Map<String, Object> response = new HashMap<>();
             response.put("username", username);
             response.put("isAdmin", isAdmin);
+            if (tokenService.isEnabled() && user instanceof User) {
+                putTokens(response, tokenService.issue((User) user));
+            }
+            loginAttemptTracker.recordSuccess(username);
 
             return ResponseEntity.ok(response);
+        } catch (LoginThrottledException e) {
+            return ResponseEntity.status(429)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(Map.of("error", "Too many login attempts, try again later"));
         } catch (Exception e) {
             // Vid fel returnera status 401 med ett felmeddelande
+            loginAttemptTracker.recordFailure(username, ip);
             return ResponseEntity.status(401)
                     .body(Map.of("error", "Invalid credentials"));
         }
     }
+
+    /**
+     * Byter en refresh-token mot ett nytt tokenpar. Den gamla refresh-tokenen slutar gälla.
+     *
+     * @param request Map med nyckeln "refreshToken".
+     * @return nya tokens, 401 om refresh-tokenen är ogiltig eller 404 om tokens inte är påslaget
+     */
+    @PostMapping("/refresh")
+    public ResponseEntity<Map<String, Object>> refresh(@RequestBody Map<String, String> request) {
+        if (!tokenService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        Optional<TokenService.TokenPair> tokens = tokenService.refresh(request.get("refreshToken"));
+        if (tokens.isEmpty()) {
+            return ResponseEntity.status(401)
+                    .body(Map.of("error", "Invalid refresh token"));
+        }
+        Map<String, Object> response = new HashMap<>();
+        putTokens(response, tokens.get());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Loggar ut genom att spärra access-tokenen i Authorization-headern
+     * och refresh-tokenen i kroppen, om de skickas med. Kräver ingen inloggning, så att en
+     * klient vars access-token har gått ut ändå kan spärra sin refresh-token.
+     * Tokens med fel signatur ignoreras.
+     *
+     * @return 204, eller 404 om tokens inte är påslaget
+     */
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+                                       @RequestBody(required = false) Map<String, String> request) {
+        if (!tokenService.isEnabled()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            tokenService.revoke(authorization.substring(7).trim());
+        }
+        if (request != null) {
+            tokenService.revoke(request.get("refreshToken"));
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Statistik för inloggningar (endast admin): hashtid, nekade anrop, spärrade försök
+     * och antal lösenord som kodats om.
+     */
+    @PreAuthorize("hasRole('ROLE_ADMIN')")
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> stats() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("hashing", passwordHasher.stats());
+        response.put("attempts", loginAttemptTracker.stats());
+        response.put("rehashedPasswords", passwordUpgrader.getUpgradedCount());
+        return ResponseEntity.ok(response);
+    }
+
+    private static void putTokens(Map<String, Object> response, TokenService.TokenPair tokens) {
+        response.put("tokenType", "Bearer");
+        response.put("accessToken", tokens.getAccessToken());
+        response.put("refreshToken", tokens.getRefreshToken());
+        response.put("expiresIn", tokens.getExpiresIn());
+    }
 }
@@ -1,6 +1,8 @@
 package com.wigell.controllers;
 
+import com.wigell.config.QueryBudget;
 import com.wigell.dto.BookingDTO;
+import com.wigell.dto.PageDTO;
 import com.wigell.entities.Booking;
 import com.wigell.entities.User;
 import com.wigell.services.UserService;
@@ -29,10 +31,17 @@ public class UserController {
 
     /**
      * Hämtar alla användare.
+     * Med limit, after eller role returneras en sida i id-ordning
+     * ({"data": [...], "next": id}) i stället för hela listan.
      */
     //Testad
     @GetMapping
-    public ResponseEntity<List<User>> getAllUsers() {
+    public ResponseEntity<?> getAllUsers(@RequestParam(value = "limit", required = false) Integer limit,
+                                         @RequestParam(value = "after", required = false) Long after,
+                                         @RequestParam(value = "role", required = false) String role) {
+        if (limit != null || after != null || role != null) {
+            return ResponseEntity.ok(userService.usersPage(after, PageDTO.clampLimit(limit), role));
+        }
         List<User> users = userService.users();
         return ResponseEntity.ok(users);
     }
@@ -82,6 +91,7 @@ public class UserController {
     //Testad
     @PreAuthorize("#id == principal.id or hasRole('ROLE_ADMIN')")
     @PutMapping("/{id}")
+    @QueryBudget(4)
     public ResponseEntity<User> updateUser(@PathVariable Long id, @RequestBody User user) {
         user.setId(id);
         // Hämta befintlig användare för att bevara t.ex. noOfOrders
@@ -1,11 +1,21 @@
 package com.wigell.dao;
 
 import com.wigell.entities.Booking;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface BookingRepo extends JpaRepository<Booking, Long> {
@@ -16,5 +26,74 @@ public interface BookingRepo extends JpaRepository<Booking, Long> {
     // Hämtar bokningar baserat på aktiv status
     List<Booking> findByActive(boolean active);
 
+    // Keyset-paginering: bokningar efter id:t after i id-ordning, med valfria filter (null = alla).
+    // Pageable används bara för LIMIT, ingen count-fråga körs.
+    @Query("select b from Booking b where b.id > :after "
+            + "and (:active is null or b.active = :active) "
+            + "and (:carId is null or b.carId = :carId) "
+            + "and (:userId is null or b.userId = :userId) "
+            + "order by b.id")
+    List<Booking> findPage(@Param("after") long after,
+                           @Param("active") Boolean active,
+                           @Param("carId") Long carId,
+                           @Param("userId") Long userId,
+                           Pageable pageable);
 
+    // Alla bokningar som överlappar perioden (null = öppen gräns), för export.
+    // Läses som en ström med fetch size, så att hela tabellen aldrig ligger i minnet.
+    // Med MySQL krävs useCursorFetch=true i URL:en för att fetch size ska gälla.
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("select b from Booking b where (:toDate is null or b.fromDate <= :toDate) "
+            + "and (:fromDate is null or b.toDate >= :fromDate) order by b.id")
+    Stream<Booking> streamForExport(@Param("fromDate") LocalDate fromDate, @Param("toDate") LocalDate toDate);
+
+    // Finns en aktiv bokning för bilen som överlappar perioden (datumen inklusive)?
+    // Använder indexet idx_booking_car_dates. excludedId är bokningen som ändras, eller null.
+    @Query("select count(b) > 0 from Booking b where b.carId = :carId "
+            + "and b.fromDate <= :toDate and b.toDate >= :fromDate and b.active = true "
+            + "and (:excludedId is null or b.id <> :excludedId)")
+    boolean existsOverlap(@Param("carId") Long carId,
+                          @Param("fromDate") LocalDate fromDate,
+                          @Param("toDate") LocalDate toDate,
+                          @Param("excludedId") Long excludedId);
+
+    // Aktiva bokningar för bilarna som överlappar perioden, för att kontrollera flera
+    // nya bokningar med en fråga. Läses bara, så att flush inte behöver jämföra dem.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("select b from Booking b where b.carId in :carIds "
+            + "and b.fromDate <= :toDate and b.toDate >= :fromDate and b.active = true")
+    List<Booking> findActiveOverlapping(@Param("carIds") Collection<Long> carIds,
+                                        @Param("fromDate") LocalDate fromDate,
+                                        @Param("toDate") LocalDate toDate);
+
+    // Aktiva bokningar som har gått ut (toDate före day), äldst först. Följer idx_booking_active_to,
+    // så varje omgång läser bara de rader den returnerar, oavsett hur många som redan avslutats.
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("select b from Booking b where b.active = true and b.toDate < :day order by b.toDate, b.id")
+    List<Booking> findOverdue(@Param("day") LocalDate day, Pageable pageable);
+
+    // Samma villkor som findOverdue, för bokningar som redan valts ut
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+    @Query("select b from Booking b where b.id in :ids and b.active = true and b.toDate < :day")
+    List<Booking> findOverdueByIds(@Param("ids") Collection<Long> ids, @Param("day") LocalDate day);
+
+    // Bilar som inte är markerade som bokade men har en aktiv bokning som gäller day,
+    // t.ex. en bokning som gjordes i förväg och börjar idag
+    @Query("select distinct b.carId from Booking b where b.active = true and b.fromDate <= :day "
+            + "and b.toDate >= :day and b.carId in (select c.id from Car c where c.booked = false)")
+    List<Long> findUnflaggedCarsBookedOn(@Param("day") LocalDate day);
+
+    // Samma villkor som ovan, för bilar som redan valts ut
+    @Query("select distinct b.carId from Booking b where b.carId in :carIds and b.active = true "
+            + "and b.fromDate <= :day and b.toDate >= :day "
+            + "and b.carId in (select c.id from Car c where c.booked = false)")
+    List<Long> findUnflaggedCarsBookedOn(@Param("carIds") Collection<Long> carIds, @Param("day") LocalDate day);
+
+    // Avslutar flera bokningar i samma fråga
+    @Modifying
+    @Query("update Booking b set b.active = false where b.id in :ids and b.active = true")
+    int deactivateAll(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,44 @@
+package com.wigell.dao;
+
+import com.wigell.dto.CarImageDTO;
+import com.wigell.entities.CarImageSize;
+import com.wigell.entities.CarImageVariant;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface CarImageVariantRepo extends JpaRepository<CarImageVariant, Long> {
+
+    // Metadata för en variant som skapats från angiven originalbild, utan bilddata
+    @Query("select new com.wigell.dto.CarImageDTO(v.contentType, v.hash, v.createdAt) from CarImageVariant v "
+            + "where v.carId = :carId and v.size = :size and v.sourceHash = :sourceHash")
+    Optional<CarImageDTO> findCurrentMetadata(@Param("carId") Long carId,
+                                              @Param("size") CarImageSize size,
+                                              @Param("sourceHash") String sourceHash);
+
+    // Hash för en variant, utan att läsa bilddata
+    @Query("select v.hash from CarImageVariant v where v.carId = :carId and v.size = :size")
+    Optional<String> findHash(@Param("carId") Long carId, @Param("size") CarImageSize size);
+
+    // Hash för alla varianter av en bil
+    @Query("select v.hash from CarImageVariant v where v.carId = :carId")
+    List<String> findHashesByCarId(@Param("carId") Long carId);
+
+    // Antal varianter som använder ett visst innehåll
+    long countByHash(String hash);
+
+    @Modifying
+    @Query("delete from CarImageVariant v where v.carId = :carId and v.size = :size")
+    int deleteByCarIdAndSize(@Param("carId") Long carId, @Param("size") CarImageSize size);
+
+    // Tar bort alla varianter för en bil, t.ex. när bilen tas bort
+    @Modifying
+    @Query("delete from CarImageVariant v where v.carId = :carId")
+    int deleteByCarId(@Param("carId") Long carId);
+}
@@ -1,15 +1,21 @@
 package com.wigell.dao;
 
+import com.wigell.dto.CarImageDTO;
+import com.wigell.dto.CarSummary;
 import com.wigell.entities.Car;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface CarRepo extends JpaRepository<Car, Long> {
+public interface CarRepo extends JpaRepository<Car, Long>, CarRepoCustom {
 
 
     // Om "name" antas vara unikt:
@@ -20,4 +26,44 @@ public interface CarRepo extends JpaRepository<Car, Long> {
 
     // Om det kan finnas flera bilar med samma pris:
     List<Car> findByPrice(BigDecimal price);
+
+    // Alla bilar utan bilddata, image-kolumnen ingår inte i SELECT
+    @Query("select new com.wigell.dto.CarSummary(c.id, c.name, c.model, c.type, c.price, "
+            + "c.feature1, c.feature2, c.feature3, c.booked, c.imageHash) from Car c")
+    List<CarSummary> findAllSummaries();
+
+    // Keyset-paginering: bilar utan bilddata efter id:t after, med valfria filter (null = alla)
+    @Query("select new com.wigell.dto.CarSummary(c.id, c.name, c.model, c.type, c.price, "
+            + "c.feature1, c.feature2, c.feature3, c.booked, c.imageHash) from Car c "
+            + "where c.id > :after and (:type is null or c.type = :type) "
+            + "and (:booked is null or c.booked = :booked) order by c.id")
+    List<CarSummary> findSummaryPage(@Param("after") long after,
+                                     @Param("type") String type,
+                                     @Param("booked") Boolean booked,
+                                     Pageable pageable);
+
+    // En bil utan bilddata
+    @Query("select new com.wigell.dto.CarSummary(c.id, c.name, c.model, c.type, c.price, "
+            + "c.feature1, c.feature2, c.feature3, c.booked, c.imageHash) from Car c where c.id = :id")
+    Optional<CarSummary> findSummaryById(@Param("id") Long id);
+
+    // Vilka av bilarna som finns, utan att läsa in dem
+    @Query("select c.id from Car c where c.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    // Metadata för bilens originalbild, utan bilddata
+    @Query("select new com.wigell.dto.CarImageDTO(c.imageContentType, c.imageHash, c.imageUpdatedAt) "
+            + "from Car c where c.id = :id and c.imageHash is not null")
+    Optional<CarImageDTO> findImageMetadata(@Param("id") Long id);
+
+    // Bilar som har en bild
+    @Query("select c.id from Car c where c.imageHash is not null")
+    List<Long> findIdsWithImage();
+
+    // Antal bilar som använder ett visst innehåll som originalbild
+    long countByImageHash(String imageHash);
+
+    // Bilar med bild som sparades innan hash och content type fanns
+    @Query("select c.id from Car c where c.image is not null and c.imageHash is null")
+    List<Long> findIdsWithImageButNoHash();
 }
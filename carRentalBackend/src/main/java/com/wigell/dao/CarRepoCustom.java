@@ -0,0 +1,51 @@
+package com.wigell.dao;
+
+import com.wigell.entities.Car;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Metoder i CarRepo som är skrivna för hand (se CarRepoCustomImpl).
+ *
+ * Uppdateringarna läser inte in bilen (och därmed inte bilden). De räknar upp versionen, så att
+ * en samtidig uppdatering av hela bilen märker ändringen, och låser bara de ändrade bilarna
+ * i andra nivåns cache tills transaktionen är klar, inte hela regionen (se SecondLevelCacheLocks).
+ */
+public interface CarRepoCustom {
+
+    /**
+     * Sparar flera nya bilar med en JDBC-batch. Car har IDENTITY-id:n, och då skickar
+     * Hibernate varje insert för sig. Bilarna läggs inte i persistence context eller cache.
+     *
+     * @param cars nya bilar utan id, får sina id:n satta
+     * @return id:n i samma ordning som cars
+     */
+    List<Long> insertAll(List<Car> cars);
+
+    /**
+     * Sätter booked för en bil.
+     *
+     * @return antal uppdaterade bilar, 0 om bilen inte finns
+     */
+    int updateBooked(Long id, boolean booked);
+
+    /**
+     * Som updateBooked, för flera bilar i samma fråga.
+     */
+    int updateBookedAll(Collection<Long> ids, boolean booked);
+
+    /**
+     * Sätter booked = false för de av bilarna som inte har någon aktiv bokning som gäller day.
+     *
+     * @return antal bilar som släpptes
+     */
+    int releaseUnbooked(Collection<Long> ids, LocalDate day);
+
+    /**
+     * Sätter metadata för bilens originalbild.
+     */
+    int updateImageMetadata(Long id, String contentType, String hash, Instant updatedAt);
+}
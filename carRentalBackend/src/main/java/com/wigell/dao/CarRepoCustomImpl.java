@@ -0,0 +1,146 @@
+package com.wigell.dao;
+
+import com.wigell.entities.Booking;
+import com.wigell.entities.Car;
+import jakarta.persistence.EntityManager;
+import org.hibernate.query.NativeQuery;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+class CarRepoCustomImpl implements CarRepoCustom {
+
+    private static final String INSERT_CAR = "insert into car (name, model, feature1, feature2, feature3, "
+            + "type, price, booked, version) values (?, ?, ?, ?, ?, ?, ?, ?, 0)";
+
+    // Uppdateringarna synkroniseras mot ett eget query space. En JPQL-uppdatering eller en
+    // native-fråga utan query space tömmer hela bilcachen vid varje bokning och återlämning.
+    // I stället låses bara de ändrade bilarna i cachen tills transaktionen är klar (SecondLevelCacheLocks).
+    private static final String CAR_UPDATE_SPACE = "car_update";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+
+    CarRepoCustomImpl(JdbcTemplate jdbcTemplate, EntityManager entityManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+    }
+
+    @Override
+    @Transactional
+    public List<Long> insertAll(List<Car> cars) {
+        if (cars.isEmpty()) {
+            return List.of();
+        }
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_CAR, new String[]{"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Car car = cars.get(i);
+                        ps.setString(1, car.getName());
+                        ps.setString(2, car.getModel());
+                        ps.setString(3, car.getFeature1());
+                        ps.setString(4, car.getFeature2());
+                        ps.setString(5, car.getFeature3());
+                        ps.setString(6, car.getType());
+                        ps.setDouble(7, car.getPrice());
+                        ps.setBoolean(8, car.isBooked());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return cars.size();
+                    }
+                }, keys);
+
+        List<Map<String, Object>> rows = keys.getKeyList();
+        if (rows.size() != cars.size()) {
+            throw new IllegalStateException("Expected " + cars.size() + " generated ids, got " + rows.size());
+        }
+        List<Long> ids = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            long id = ((Number) rows.get(i).values().iterator().next()).longValue();
+            cars.get(i).setId(id);
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Override
+    @Transactional
+    public int updateBooked(Long id, boolean booked) {
+        lockInCache(List.of(id));
+        return carUpdate("update car set booked = :booked, version = version + 1 where id = :id")
+                .setParameter("booked", booked)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    @Override
+    @Transactional
+    public int updateBookedAll(Collection<Long> ids, boolean booked) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        lockInCache(ids);
+        return carUpdate("update car set booked = :booked, version = version + 1 where id in (:ids)")
+                .setParameter("booked", booked)
+                .setParameterList("ids", ids)
+                .executeUpdate();
+    }
+
+    @Override
+    @Transactional
+    public int releaseUnbooked(Collection<Long> ids, LocalDate day) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        // Vilka av bilarna som släpps syns inte i förväg, alla kandidater låses
+        lockInCache(ids);
+        return carUpdate("update car c set booked = false, version = version + 1 "
+                        + "where c.id in (:ids) and c.booked = true and not exists (select b.id from booking b "
+                        + "where b.car_id = c.id and b.active = true and b.from_date <= :day and b.to_date >= :day)")
+                // Ändrade bokningar i transaktionen skrivs till databasen innan frågan körs.
+                // Booking cachas inte, så ingen cache töms av det.
+                .addSynchronizedEntityClass(Booking.class)
+                .setParameterList("ids", ids)
+                .setParameter("day", day)
+                .executeUpdate();
+    }
+
+    @Override
+    @Transactional
+    public int updateImageMetadata(Long id, String contentType, String hash, Instant updatedAt) {
+        lockInCache(List.of(id));
+        return carUpdate("update car set image_content_type = :contentType, image_hash = :hash, "
+                        + "image_updated_at = :updatedAt, version = version + 1 where id = :id")
+                .setParameter("contentType", contentType)
+                .setParameter("hash", hash)
+                .setParameter("updatedAt", updatedAt)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    @SuppressWarnings("unchecked")
+    private NativeQuery<Object> carUpdate(String sql) {
+        return entityManager.createNativeQuery(sql)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(CAR_UPDATE_SPACE);
+    }
+
+    private void lockInCache(Collection<Long> ids) {
+        SecondLevelCacheLocks.lockUntilCompletion(entityManager, Car.class, ids);
+    }
+}
@@ -0,0 +1,50 @@
+package com.wigell.dao;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Låser entiteter i andra nivåns cache under en native-uppdatering, på samma sätt som Hibernate
+ * gör för sina egna uppdateringar: posten låses innan frågan körs och låses upp när transaktionen
+ * är klar. Med READ_WRITE kan ingen läsa en låst post ur cachen, och en transaktion som började
+ * innan upplåsningen kan inte lägga in det den läste. Att bara ta bort posten efter commit räcker
+ * inte: en samtidig läsning som hämtade raden före commit kan lägga tillbaka den gamla raden efteråt.
+ */
+final class SecondLevelCacheLocks {
+
+    private SecondLevelCacheLocks() {
+    }
+
+    /**
+     * Låser entityClass med id:n ids tills den pågående transaktionen är klar (commit eller rollback).
+     */
+    static void lockUntilCompletion(EntityManager entityManager, Class<?> entityClass, Collection<?> ids) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        SessionFactoryImplementor factory = session.getFactory();
+        EntityPersister persister = factory.getMappingMetamodel().getEntityDescriptor(entityClass);
+        if (!persister.canWriteToCache()) {
+            return;
+        }
+        EntityDataAccess cache = persister.getCacheAccessStrategy();
+        List<Object> keys = new ArrayList<>(ids.size());
+        List<SoftLock> locks = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            Object key = cache.generateCacheKey(id, persister, factory, session.getTenantIdentifier());
+            keys.add(key);
+            locks.add(cache.lockItem(session, key, null));
+        }
+        session.getActionQueue().registerProcess((success, completedSession) -> {
+            for (int i = 0; i < keys.size(); i++) {
+                cache.unlockItem(completedSession, keys.get(i), locks.get(i));
+            }
+        });
+    }
+}
@@ -1,18 +1,37 @@
 package com.wigell.dao;
 
 import com.wigell.entities.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-import java.util.Optional;
-public interface UserRepo extends JpaRepository<User, Long> {
+import java.util.List;
+public interface UserRepo extends JpaRepository<User, Long>, UserRepoCustom {
 
         /**
-         * Hämtar en användare baserat på användarnamn.
+         * Keyset-paginering: användare efter id:t after i id-ordning.
          *
-         * @param username det användarnamn som ska hämtas
-         * @return ett Optional med användaren, om den finns
+         * @param after    sista id:t från föregående sida, 0 för första sidan
+         * @param role     filtrera på roll, null för alla
+         * @param pageable används bara för LIMIT
+         * @return användarna på sidan
          */
-        Optional<User> findByUsername(String username);
+        @Query("select u from User u where u.id > :after "
+                + "and (:role is null or u.role = :role) order by u.id")
+        List<User> findPage(@Param("after") long after, @Param("role") String role, Pageable pageable);
+
+        /**
+         * Räknar om noOfOrders från bokningstabellen för de användare där värdet inte stämmer.
+         * Som JPQL-uppdatering tömmer den hela användarcachen, vilket är väntat för ett sällsynt jobb.
+         *
+         * @return antal användare som rättades
+         */
+        @Modifying
+        @Query("update User u set u.noOfOrders = (select count(b) from Booking b where b.userId = u.id) "
+                + "where u.noOfOrders <> (select count(b) from Booking b where b.userId = u.id)")
+        int reconcileOrderCounts();
 
         // Här kan du lägga till fler metoder om det behövs, exempelvis:
         // Optional<User> findByEmail(String email);
@@ -0,0 +1,58 @@
+package com.wigell.dao;
+
+import com.wigell.entities.User;
+
+import java.util.Optional;
+
+/**
+ * Metoder i UserRepo som är skrivna för hand (se UserRepoCustomImpl) för att
+ * utnyttja andra nivåns cache.
+ */
+public interface UserRepoCustom {
+
+    /**
+     * Hämtar en användare baserat på användarnamn. Slås upp som naturligt id,
+     * så att upprepade uppslag (t.ex. vid inloggning) kan besvaras från cachen.
+     *
+     * @param username det användarnamn som ska hämtas
+     * @return ett Optional med användaren, om den finns
+     */
+    Optional<User> findByUsername(String username);
+
+    /**
+     * Räknar upp noOfOrders direkt i databasen, utan att läsa in användaren.
+     *
+     * @param id användarens id
+     * @return antal uppdaterade rader, 0 om användaren inte finns
+     */
+    int incrementOrders(long id);
+
+    /**
+     * Räknar upp noOfOrders med count direkt i databasen, för flera bokningar på en gång.
+     *
+     * @param id    användarens id
+     * @param count antal nya bokningar
+     * @return antal uppdaterade rader, 0 om användaren inte finns
+     */
+    int addOrders(long id, int count);
+
+    /**
+     * Räknar ned noOfOrders direkt i databasen, aldrig under 0.
+     *
+     * @param id användarens id
+     * @return antal uppdaterade rader, 0 om användaren inte finns eller redan har 0
+     */
+    int decrementOrders(long id);
+
+    /**
+     * Byter lösenordshash direkt i databasen, men bara om den fortfarande är oldPassword.
+     * Används när en hash kodas om vid inloggning, så att ett samtidigt lösenordsbyte
+     * inte skrivs över med det gamla lösenordet.
+     *
+     * @param id          användarens id
+     * @param oldPassword hashen som lästes vid inloggningen
+     * @param newPassword den nya hashen
+     * @return antal uppdaterade rader, 0 om användaren saknas eller lösenordet redan ändrats
+     */
+    int updatePassword(long id, String oldPassword, String newPassword);
+}
@@ -0,0 +1,87 @@
+package com.wigell.dao;
+
+import com.wigell.entities.User;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.query.NativeQuery;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
+
+class UserRepoCustomImpl implements UserRepoCustom {
+
+    // Räknar- och lösenordsuppdateringarna synkroniseras mot egna query spaces. En JPQL-uppdatering
+    // eller en native-fråga utan query space tömmer hela användarcachen vid varje bokning.
+    // I stället låses bara den ändrade användaren i cachen tills transaktionen är klar (SecondLevelCacheLocks).
+    private static final String ORDER_COUNT_SPACE = "user_order_count";
+    private static final String PASSWORD_SPACE = "user_password";
+
+    private final EntityManager entityManager;
+
+    UserRepoCustomImpl(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    // Sessionen från unwrap måste höra till en transaktion, annars är den redan stängd.
+    // Inte readOnly: inloggningen ska läsa från primären även när läsningar går till en replika,
+    // så att ett bytt lösenord gäller direkt, och användaren ska kunna läggas i cachen.
+    @Override
+    @Transactional
+    public Optional<User> findByUsername(String username) {
+        return entityManager.unwrap(Session.class)
+                .bySimpleNaturalId(User.class)
+                .loadOptional(username);
+    }
+
+    @Override
+    @Transactional
+    public int incrementOrders(long id) {
+        return updateOrders("update user set no_of_orders = no_of_orders + 1 where id = :id", id);
+    }
+
+    @Override
+    @Transactional
+    public int addOrders(long id, int count) {
+        lockInCache(id);
+        return entityManager.createNativeQuery("update user set no_of_orders = no_of_orders + :count where id = :id")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(ORDER_COUNT_SPACE)
+                .setParameter("count", count)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    @Override
+    @Transactional
+    public int decrementOrders(long id) {
+        return updateOrders("update user set no_of_orders = no_of_orders - 1 where id = :id and no_of_orders > 0", id);
+    }
+
+    @Override
+    @Transactional
+    public int updatePassword(long id, String oldPassword, String newPassword) {
+        lockInCache(id);
+        return entityManager.createNativeQuery(
+                        "update user set password = :newPassword where id = :id and password = :oldPassword")
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(PASSWORD_SPACE)
+                .setParameter("newPassword", newPassword)
+                .setParameter("id", id)
+                .setParameter("oldPassword", oldPassword)
+                .executeUpdate();
+    }
+
+    private int updateOrders(String sql, long id) {
+        lockInCache(id);
+        return entityManager.createNativeQuery(sql)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedQuerySpace(ORDER_COUNT_SPACE)
+                .setParameter("id", id)
+                .executeUpdate();
+    }
+
+    private void lockInCache(long id) {
+        SecondLevelCacheLocks.lockUntilCompletion(entityManager, User.class, List.of(id));
+    }
+}
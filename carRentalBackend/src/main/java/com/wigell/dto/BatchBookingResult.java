@@ -0,0 +1,79 @@
+package com.wigell.dto;
+
+import java.time.LocalDate;
+
+/**
+ * Resultatet för en post i POST /api/v1/bookings/batch. index är postens plats i anropet.
+ * bookingId finns bara när status är BOOKED, error bara när posten stoppade anropet.
+ */
+public class BatchBookingResult {
+
+    public enum Status {
+        // Bokad
+        BOOKED,
+        // Bilen är redan bokad under perioden, eller två poster i anropet överlappar
+        CONFLICT,
+        // carId eller datum saknas eller är fel
+        INVALID,
+        // Bilen finns inte
+        NOT_FOUND,
+        // Posten var giltig men bokades inte, eftersom en annan post stoppade anropet
+        SKIPPED
+    }
+
+    private int index;
+    private Long carId;
+    private LocalDate fromDate;
+    private LocalDate toDate;
+    private Status status;
+    private Long bookingId;
+    private String error;
+
+    public BatchBookingResult() {
+    }
+
+    public BatchBookingResult(int index, Long carId, LocalDate fromDate, LocalDate toDate) {
+        this.index = index;
+        this.carId = carId;
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+    }
+
+    public void booked(long bookingId) {
+        this.status = Status.BOOKED;
+        this.bookingId = bookingId;
+    }
+
+    public void reject(Status status, String error) {
+        this.status = status;
+        this.error = error;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public Long getCarId() {
+        return carId;
+    }
+
+    public LocalDate getFromDate() {
+        return fromDate;
+    }
+
+    public LocalDate getToDate() {
+        return toDate;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Long getBookingId() {
+        return bookingId;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
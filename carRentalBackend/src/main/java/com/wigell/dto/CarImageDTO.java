@@ -0,0 +1,75 @@
+package com.wigell.dto;
+
+import com.wigell.entities.CarImageSize;
+import org.springframework.core.io.Resource;
+
+import java.time.Instant;
+
+public class CarImageDTO {
+    private Resource resource;
+    private String contentType;
+    private String hash;
+    private Instant updatedAt;
+    // Storleken som faktiskt returneras, kan vara ORIGINAL om varianten saknas
+    private CarImageSize size;
+    // Version av originalbilden, samma som v-parametern i bild-URL:en
+    private String version;
+
+    public CarImageDTO() {
+    }
+
+    // Används av JPQL-frågor som bara läser metadata
+    public CarImageDTO(String contentType, String hash, Instant updatedAt) {
+        this.contentType = contentType;
+        this.hash = hash;
+        this.updatedAt = updatedAt;
+    }
+
+    public Resource getResource() {
+        return resource;
+    }
+
+    public void setResource(Resource resource) {
+        this.resource = resource;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public CarImageSize getSize() {
+        return size;
+    }
+
+    public void setSize(CarImageSize size) {
+        this.size = size;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+}
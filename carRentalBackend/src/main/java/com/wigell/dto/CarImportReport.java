@@ -0,0 +1,128 @@
+package com.wigell.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resultatet av POST /api/v1/cars/import: antal skapade bilar och sparade bilder,
+ * en post per rad i manifestet och bilder i arkivet som ingen rad använde.
+ */
+public class CarImportReport {
+
+    public enum Status {
+        // Bilen skapades, med bild om raden angav en
+        CREATED,
+        // Bilen skapades men bilden kunde inte sparas eller saknades i arkivet
+        IMAGE_FAILED,
+        // Raden saknar obligatoriska fält eller har felaktiga värden
+        INVALID,
+        // Raden var giltig men bilen kunde inte sparas
+        FAILED
+    }
+
+    /**
+     * En rad i manifestet. line är radnumret i filen, räknat från 1.
+     */
+    public static class Item {
+
+        private final long line;
+        private final String name;
+        private final String image;
+        private Status status;
+        private Long carId;
+        private String error;
+
+        public Item(long line, String name, String image) {
+            this.line = line;
+            this.name = name;
+            this.image = image;
+        }
+
+        public void created(long carId) {
+            this.status = Status.CREATED;
+            this.carId = carId;
+        }
+
+        public void reject(Status status, String error) {
+            this.status = status;
+            this.error = error;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getImage() {
+            return image;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public Long getCarId() {
+            return carId;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private String manifest;
+    private int carsCreated;
+    private int imagesSaved;
+    private int rejected;
+    private final List<Item> items = new ArrayList<>();
+    private final List<String> unusedImages = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+
+    public void carsCreated(int count) {
+        carsCreated += count;
+    }
+
+    public void imageSaved() {
+        imagesSaved++;
+    }
+
+    public void rejected() {
+        rejected++;
+    }
+
+    public String getManifest() {
+        return manifest;
+    }
+
+    public void setManifest(String manifest) {
+        this.manifest = manifest;
+    }
+
+    public int getCarsCreated() {
+        return carsCreated;
+    }
+
+    public int getImagesSaved() {
+        return imagesSaved;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public List<String> getUnusedImages() {
+        return unusedImages;
+    }
+
+    // Fel som gäller hela arkivet, t.ex. att importen avbröts
+    public List<String> getErrors() {
+        return errors;
+    }
+}
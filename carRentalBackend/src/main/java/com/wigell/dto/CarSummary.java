@@ -0,0 +1,131 @@
+package com.wigell.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.wigell.entities.Car;
+
+/**
+ * Bil utan bilddata. Listor skapas direkt i JPQL-frågor så att image-kolumnen aldrig läses.
+ * Enskilda bilar byggs från entiteten, vars bild är lat tack vare bytecode enhancement.
+ */
+public class CarSummary {
+    private Long id;
+    private String name;
+    private String model;
+    private String type;
+    private double price;
+    private String feature1;
+    private String feature2;
+    private String feature3;
+    private boolean booked;
+    private String imageHash;
+
+    public CarSummary() {
+    }
+
+    public CarSummary(Long id, String name, String model, String type, double price,
+                      String feature1, String feature2, String feature3,
+                      boolean booked, String imageHash) {
+        this.id = id;
+        this.name = name;
+        this.model = model;
+        this.type = type;
+        this.price = price;
+        this.feature1 = feature1;
+        this.feature2 = feature2;
+        this.feature3 = feature3;
+        this.booked = booked;
+        this.imageHash = imageHash;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public void setModel(String model) {
+        this.model = model;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public void setPrice(double price) {
+        this.price = price;
+    }
+
+    public String getFeature1() {
+        return feature1;
+    }
+
+    public void setFeature1(String feature1) {
+        this.feature1 = feature1;
+    }
+
+    public String getFeature2() {
+        return feature2;
+    }
+
+    public void setFeature2(String feature2) {
+        this.feature2 = feature2;
+    }
+
+    public String getFeature3() {
+        return feature3;
+    }
+
+    public void setFeature3(String feature3) {
+        this.feature3 = feature3;
+    }
+
+    public boolean isBooked() {
+        return booked;
+    }
+
+    public void setBooked(boolean booked) {
+        this.booked = booked;
+    }
+
+    @JsonIgnore
+    public String getImageHash() {
+        return imageHash;
+    }
+
+    public void setImageHash(String imageHash) {
+        this.imageHash = imageHash;
+    }
+
+    /**
+     * Bildens version, eller null om bilen saknar bild.
+     */
+    public String getImageVersion() {
+        return imageHash == null ? null : Car.imageVersionOf(imageHash);
+    }
+
+    public String getImageUrl() {
+        return Car.imageUrlFor(id, imageHash);
+    }
+}
@@ -0,0 +1,62 @@
+package com.wigell.dto;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * En sida från en lista med keyset-paginering. next är id:t som skickas som after
+ * för att hämta nästa sida, eller null om det inte finns fler rader.
+ */
+public class PageDTO<T> {
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private List<T> data;
+    private Long next;
+
+    public PageDTO() {
+    }
+
+    public PageDTO(List<T> data, Long next) {
+        this.data = data;
+        this.next = next;
+    }
+
+    /**
+     * Bygger en sida av en fråga som hämtade limit + 1 rader.
+     * Den extra raden visar bara att det finns fler och skickas inte med.
+     */
+    public static <T> PageDTO<T> of(List<T> rows, int limit, Function<T, Long> idOf) {
+        if (rows.size() <= limit) {
+            return new PageDTO<>(rows, null);
+        }
+        List<T> page = rows.subList(0, limit);
+        return new PageDTO<>(page, idOf.apply(page.get(limit - 1)));
+    }
+
+    /**
+     * Begränsar limit till 1..MAX_LIMIT, med DEFAULT_LIMIT om den saknas.
+     */
+    public static int clampLimit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    public List<T> getData() {
+        return data;
+    }
+
+    public void setData(List<T> data) {
+        this.data = data;
+    }
+
+    public Long getNext() {
+        return next;
+    }
+
+    public void setNext(Long next) {
+        this.next = next;
+    }
+}
@@ -4,11 +4,28 @@ import jakarta.persistence.*;
 import java.time.LocalDate;
 
 @Entity
-@Table(name = "Booking")
+@Table(name = "Booking", indexes = {
+        // Överlappskontroll per bil: car_id = ? and from_date <= ? and to_date >= ?
+        @Index(name = "idx_booking_car_dates", columnList = "car_id, from_date, to_date"),
+        // Bokningar per kund
+        @Index(name = "idx_booking_user", columnList = "user_id"),
+        // Aktiva bokningar och bokningar som har gått ut
+        @Index(name = "idx_booking_active_to", columnList = "active, to_date")
+})
 public class Booking {
 
+    // Id:n delas ut i block om ID_ALLOCATION_SIZE från tabellen id_generator (pooled), så att
+    // flera nya bokningar kan skickas i samma JDBC-batch. Med IDENTITY skickas varje rad för sig.
+    // Blocket hämtas på en egen anslutning ur poolen. Se BookingIdGeneratorMigration.
+    public static final String ID_GENERATOR_TABLE = "id_generator";
+    public static final String ID_GENERATOR_NAME = "booking";
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "booking_ids")
+    @TableGenerator(name = "booking_ids", table = ID_GENERATOR_TABLE,
+            pkColumnName = "sequence_name", valueColumnName = "next_val",
+            pkColumnValue = ID_GENERATOR_NAME, allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
 
     @Column(name = "from_date", nullable = false)
@@ -1,10 +1,18 @@
 package com.wigell.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.Objects;
 
+// Andra nivåns cache (se HibernateCacheConfig). Bilden är lat och ingår aldrig i cachen.
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "cars", includeLazy = false)
 @Table(name = "car")
 public class Car {
 
@@ -36,11 +44,33 @@ public class Car {
     @Column(nullable = false)
     private boolean booked;
 
+    // Bilden skickas aldrig i JSON, den hämtas via /api/v1/cars/{id}/image.
+    // Kolumnen skrivs och läses bara av DatabaseCarImageStore, aldrig via entiteten.
+    @JsonIgnore
     @Lob
     @Basic(fetch = FetchType.LAZY)
-    @Column(name = "image", columnDefinition = "LONGBLOB")
+    @Column(name = "image", columnDefinition = "LONGBLOB", insertable = false, updatable = false)
     private byte[] image;
 
+    @JsonIgnore
+    @Column(name = "image_content_type", length = 100)
+    private String imageContentType;
+
+    // SHA-256 (hex) av bilden, används som ETag och version i bild-URL:en
+    @JsonIgnore
+    @Column(name = "image_hash", length = 64)
+    private String imageHash;
+
+    @JsonIgnore
+    @Column(name = "image_updated_at")
+    private Instant imageUpdatedAt;
+
+    // Optimistisk låsning, uppdateringar som bygger på en gammal version nekas
+    @JsonIgnore
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+
     // Tom konstruktor
     public Car() {
     }
@@ -140,6 +170,65 @@ public class Car {
         this.image = image;
     }
 
+    public String getImageContentType() {
+        return imageContentType;
+    }
+
+    public void setImageContentType(String imageContentType) {
+        this.imageContentType = imageContentType;
+    }
+
+    public String getImageHash() {
+        return imageHash;
+    }
+
+    public void setImageHash(String imageHash) {
+        this.imageHash = imageHash;
+    }
+
+    public Instant getImageUpdatedAt() {
+        return imageUpdatedAt;
+    }
+
+    public void setImageUpdatedAt(Instant imageUpdatedAt) {
+        this.imageUpdatedAt = imageUpdatedAt;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * URL till bilens bild eller null om bilen saknar bild.
+     * Skickas i JSON istället för själva bilden.
+     */
+    @JsonProperty(value = "imageUrl", access = JsonProperty.Access.READ_ONLY)
+    public String getImageUrl() {
+        return imageUrlFor(id, imageHash);
+    }
+
+    /**
+     * Bygger bild-URL:en för en bil. Versionsparametern ändras när bilden byts ut,
+     * så webbläsaren kan cacha bilden under obegränsad tid.
+     */
+    public static String imageUrlFor(Long id, String imageHash) {
+        if (id == null || imageHash == null) {
+            return null;
+        }
+        return "/api/v1/cars/" + id + "/image?v=" + imageVersionOf(imageHash);
+    }
+
+    /**
+     * Kort version av bildens hash som används i bild-URL:en.
+     */
+    public static String imageVersionOf(String imageHash) {
+        return imageHash.length() > 16 ? imageHash.substring(0, 16) : imageHash;
+    }
+
     /**
      * Metoden kontrollerar om två objekt är lika.
      * Objekten anses lika om de har samma id.
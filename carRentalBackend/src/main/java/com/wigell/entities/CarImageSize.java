@@ -0,0 +1,47 @@
+package com.wigell.entities;
+
+import java.util.Locale;
+
+/**
+ * Storlekar som en bilbild kan hämtas i. ORIGINAL är bilden som laddades upp,
+ * övriga skalas ner vid uppladdning så att de ryms inom angiven bredd och höjd.
+ */
+public enum CarImageSize {
+    ORIGINAL(0, 0),
+    THUMB(240, 160),
+    LIST(640, 480),
+    DETAIL(1600, 1200);
+
+    private final int maxWidth;
+    private final int maxHeight;
+
+    CarImageSize(int maxWidth, int maxHeight) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * Tolkar size-parametern från en förfrågan, t.ex. "thumb".
+     *
+     * @param value parameterns värde, null eller tomt ger ORIGINAL
+     * @throws IllegalArgumentException om storleken är okänd
+     */
+    public static CarImageSize fromParam(String value) {
+        if (value == null || value.isBlank()) {
+            return ORIGINAL;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown image size: " + value);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.wigell.entities;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Metadata för en nerskalad version av en bilbild. Skapas i bakgrunden när en bild laddas upp,
+ * själva innehållet ligger i CarImageStore. sourceHash anger vilken originalbild varianten
+ * skapades från, så att en variant av en utbytt bild aldrig serveras.
+ */
+@Entity
+@Table(name = "car_image_variant",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"car_id", "variant"}))
+public class CarImageVariant {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "car_id", nullable = false)
+    private Long carId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "variant", nullable = false, length = 20)
+    private CarImageSize size;
+
+    @Column(name = "content_type", nullable = false, length = 100)
+    private String contentType;
+
+    @Column(name = "hash", nullable = false, length = 64)
+    private String hash;
+
+    @Column(name = "source_hash", nullable = false, length = 64)
+    private String sourceHash;
+
+    @Column(nullable = false)
+    private int width;
+
+    @Column(nullable = false)
+    private int height;
+
+    // Används bara av DatabaseCarImageStore, som läser och skriver kolumnen direkt
+    @Lob
+    @Basic(fetch = FetchType.LAZY)
+    @Column(name = "data", columnDefinition = "LONGBLOB", insertable = false, updatable = false)
+    private byte[] data;
+
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    // Tom konstruktor (krävs av JPA)
+    public CarImageVariant() {
+    }
+
+    public CarImageVariant(Long carId, CarImageSize size, String contentType, String hash,
+                           String sourceHash, int width, int height, Instant createdAt) {
+        this.carId = carId;
+        this.size = size;
+        this.contentType = contentType;
+        this.hash = hash;
+        this.sourceHash = sourceHash;
+        this.width = width;
+        this.height = height;
+        this.createdAt = createdAt;
+    }
+
+    // Getters och Setters
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getCarId() {
+        return carId;
+    }
+
+    public void setCarId(Long carId) {
+        this.carId = carId;
+    }
+
+    public CarImageSize getSize() {
+        return size;
+    }
+
+    public void setSize(CarImageSize size) {
+        this.size = size;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
+    public String getSourceHash() {
+        return sourceHash;
+    }
+
+    public void setSourceHash(String sourceHash) {
+        this.sourceHash = sourceHash;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public void setWidth(int width) {
+        this.width = width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setHeight(int height) {
+        this.height = height;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+}
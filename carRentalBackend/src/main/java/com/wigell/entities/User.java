@@ -1,6 +1,11 @@
 package com.wigell.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -9,10 +14,17 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Objects;
 
+// Andra nivåns cache (se HibernateCacheConfig). Inloggningen slår upp användaren på username,
+// som därför är naturligt id med egen cache.
 @Entity
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
+@NaturalIdCache(region = "users-by-username")
 @Table(name = "user")  // Notera att "user" är ett reserverat ord i vissa databaser, så det kan vara bra att använda backticks eller byta namn (dock behöver du inte göra det här)
 public class User implements UserDetails {
 
+    public static final int PASSWORD_LENGTH = 100;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -23,6 +35,8 @@ public class User implements UserDetails {
     @Column(name = "last_name", nullable = false)
     private String lastName;
 
+    // Kan ändras av updateUser, därför mutable
+    @NaturalId(mutable = true)
     @Column(name = "username", nullable = false, unique = true)
     private String username;
 
@@ -32,15 +46,24 @@ public class User implements UserDetails {
     @Column(nullable = false, unique = true)
     private String email;
 
-    @Column(nullable = false, length = 64)
+    // {bcrypt} + 60 tecken BCrypt, med marginal för andra kodare (se SecurityConfig)
+    @Column(nullable = false, length = PASSWORD_LENGTH)
     private String password;
 
-    @Column(name = "no_of_orders", nullable = false)
+    // Ändras bara med atomära uppdateringar i UserRepo, så att en save av hela användaren
+    // aldrig skriver över en samtidig ändring av räknaren
+    @Column(name = "no_of_orders", nullable = false, updatable = false)
     private int noOfOrders;
 
     @Column(name = "role", nullable = false)
     private String role;
 
+    // Optimistisk låsning, så att samtidiga ändringar av användaren inte skriver över varandra
+    @JsonIgnore
+    @Version
+    @Column(name = "version", nullable = false)
+    private long version;
+
     // Tom konstruktor för JPA
     public User() {
     }
@@ -132,6 +155,14 @@ public class User implements UserDetails {
         this.role = role;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     // Implementering av metoder från UserDetails
 
     @Override
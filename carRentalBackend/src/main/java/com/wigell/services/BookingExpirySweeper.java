@@ -0,0 +1,126 @@
+package com.wigell.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Avslutar bokningar vars toDate har passerat och frisläpper bilarna, så att de inte
+ * förblir bokade tills en admin returnerar dem. Bokningarna hanteras i omgångar om
+ * app.bookings.expiry.chunk-size (se BookingService.expireOverdue) med en kort paus emellan,
+ * tills inga förfallna bokningar finns kvar. Därefter markeras bilar vars bokningar har börjat
+ * gälla som bokade (se BookingService.markStartedBookings).
+ *
+ * Mätvärden: app.bookings.expired, app.bookings.expiry.released-cars och
+ * app.bookings.expiry.booked-cars (räknare),
+ * app.bookings.expiry.sweep (tid per körning) och app.bookings.expiry.last-sweep
+ * (när senaste körningen blev klar, sekunder sedan epoch).
+ *
+ * Körs enligt app.bookings.expiry.cron ("-" stänger av jobbet).
+ */
+@Component
+public class BookingExpirySweeper {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingExpirySweeper.class);
+
+    private final BookingService bookingService;
+    private final int chunkSize;
+    private final Duration chunkPause;
+    private final Counter expired;
+    private final Counter releasedCars;
+    private final Counter bookedCars;
+    private final Timer sweepTimer;
+    private final AtomicLong lastSweep = new AtomicLong();
+
+    public BookingExpirySweeper(BookingService bookingService,
+                                @Value("${app.bookings.expiry.chunk-size:1000}") int chunkSize,
+                                @Value("${app.bookings.expiry.chunk-pause:50ms}") Duration chunkPause,
+                                MeterRegistry meterRegistry) {
+        this.bookingService = bookingService;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkPause = chunkPause;
+        this.expired = Counter.builder("app.bookings.expired")
+                .description("Bookings deactivated because their end date has passed")
+                .register(meterRegistry);
+        this.releasedCars = Counter.builder("app.bookings.expiry.released-cars")
+                .description("Cars released when their bookings expired")
+                .register(meterRegistry);
+        this.bookedCars = Counter.builder("app.bookings.expiry.booked-cars")
+                .description("Cars marked booked when one of their bookings started")
+                .register(meterRegistry);
+        this.sweepTimer = Timer.builder("app.bookings.expiry.sweep")
+                .description("Duration of a booking expiry sweep")
+                .register(meterRegistry);
+        Gauge.builder("app.bookings.expiry.last-sweep", lastSweep, AtomicLong::get)
+                .description("When the last booking expiry sweep finished, in seconds since the epoch")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Avslutar alla aktiva bokningar vars toDate är före idag och markerar bilar
+     * med en bokning som gäller idag som bokade.
+     *
+     * @return antal bokningar som avslutades
+     */
+    @Scheduled(cron = "${app.bookings.expiry.cron:0 5 * * * *}")
+    public int sweep() {
+        LocalDate today = LocalDate.now();
+        Timer.Sample sample = Timer.start();
+        int totalExpired = 0;
+        int totalReleased = 0;
+        int chunks = 0;
+        int totalBooked;
+        try {
+            while (true) {
+                BookingService.ExpiredBookings chunk = bookingService.expireOverdue(today, chunkSize);
+                chunks++;
+                totalExpired += chunk.getExpired();
+                totalReleased += chunk.getReleasedCars();
+                expired.increment(chunk.getExpired());
+                releasedCars.increment(chunk.getReleasedCars());
+                // Slut när omgången inte fylldes, eller när inget i en full omgång gick att avsluta
+                // (bokningarna ändrades under tiden och tas vid nästa körning)
+                if (chunk.getSelected() < chunkSize || chunk.getExpired() == 0) {
+                    break;
+                }
+                pause();
+            }
+            totalBooked = bookingService.markStartedBookings(today);
+            bookedCars.increment(totalBooked);
+        } finally {
+            sample.stop(sweepTimer);
+        }
+        lastSweep.set(System.currentTimeMillis() / 1000);
+        if (totalExpired > 0) {
+            logger.info("Expired {} bookings and released {} cars in {} chunks", totalExpired, totalReleased, chunks);
+        }
+        if (totalBooked > 0) {
+            logger.info("Marked {} cars booked for bookings starting today", totalBooked);
+        }
+        return totalExpired;
+    }
+
+    // Låter andra transaktioner komma åt tabellerna mellan omgångarna
+    private void pause() {
+        if (chunkPause.isZero() || chunkPause.isNegative()) {
+            return;
+        }
+        try {
+            Thread.sleep(chunkPause.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during booking expiry sweep", e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.wigell.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.wigell.dao.BookingRepo;
+import com.wigell.entities.Booking;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Exporterar bokningar som NDJSON (en JSON-rad per bokning) eller CSV.
+ * Bokningarna läses som en ström och skrivs direkt till klienten, en i taget,
+ * så minnesåtgången är densamma oavsett hur många bokningar som exporteras.
+ */
+@Service
+public class BookingExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookingExportService.class);
+    // Hur ofta svaret flushas, så att klienten får data medan exporten pågår
+    private static final int FLUSH_EVERY = 500;
+    private static final String CSV_HEADER = "id,fromDate,toDate,userId,carId,active";
+
+    /**
+     * Exportformat och dess content type.
+     */
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * @throws IllegalArgumentException om formatet är okänt
+         */
+        public static Format fromParam(String value) {
+            if (value == null || value.isBlank()) {
+                return NDJSON;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown export format: " + value);
+            }
+        }
+    }
+
+    private final BookingRepo bookingRepo;
+    private final EntityManager entityManager;
+    private final ObjectWriter bookingWriter;
+    private final TransactionTemplate transactionTemplate;
+
+    public BookingExportService(BookingRepo bookingRepo, EntityManager entityManager, ObjectMapper objectMapper,
+                                PlatformTransactionManager transactionManager) {
+        this.bookingRepo = bookingRepo;
+        this.entityManager = entityManager;
+        // Varje rad flushas inte för sig, det görs i block om FLUSH_EVERY. Raderna avslutas
+        // med radbrytning i writeNdjson, så Jacksons mellanslag mellan värden behövs inte.
+        this.bookingWriter = objectMapper.writerFor(Booking.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("");
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Skriver alla bokningar som överlappar perioden till out.
+     *
+     * @param format NDJSON eller CSV
+     * @param from   första dagen, null för ingen nedre gräns
+     * @param to     sista dagen, null för ingen övre gräns
+     * @param out    strömmen som svaret skrivs till, stängs inte
+     * @return antal exporterade bokningar
+     */
+    public long export(Format format, LocalDate from, LocalDate to, OutputStream out) {
+        Long count = transactionTemplate.execute(status -> {
+            try (Stream<Booking> bookings = bookingRepo.streamForExport(from, to)) {
+                return format == Format.CSV ? writeCsv(bookings, out) : writeNdjson(bookings, out);
+            } catch (IOException e) {
+                // Oftast att klienten avbröt nedladdningen
+                throw new UncheckedIOException(e);
+            }
+        });
+        logger.info("Exported {} bookings as {} (from={}, to={})", count, format, from, to);
+        return count == null ? 0 : count;
+    }
+
+    private long writeNdjson(Stream<Booking> bookings, OutputStream out) throws IOException {
+        long count = 0;
+        try (JsonGenerator generator = bookingWriter.createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            for (Booking booking : (Iterable<Booking>) bookings::iterator) {
+                bookingWriter.writeValue(generator, booking);
+                generator.writeRaw('\n');
+                detach(booking);
+                if (++count % FLUSH_EVERY == 0) {
+                    generator.flush();
+                }
+            }
+        }
+        return count;
+    }
+
+    private long writeCsv(Stream<Booking> bookings, OutputStream out) throws IOException {
+        long count = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writer.write(CSV_HEADER);
+        writer.write('\n');
+        for (Booking booking : (Iterable<Booking>) bookings::iterator) {
+            // Alla fält är tal, datum eller boolean, så inget behöver citeras
+            writer.write(booking.getId() + "," + booking.getFromDate() + "," + booking.getToDate() + ","
+                    + booking.getUserId() + "," + booking.getCarId() + "," + booking.isActive());
+            writer.write('\n');
+            detach(booking);
+            if (++count % FLUSH_EVERY == 0) {
+                writer.flush();
+            }
+        }
+        writer.flush();
+        return count;
+    }
+
+    // Exporterade bokningar släpps från persistence context så att den inte växer
+    private void detach(Booking booking) {
+        entityManager.detach(booking);
+    }
+}
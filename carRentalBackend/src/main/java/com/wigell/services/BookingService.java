@@ -3,22 +3,42 @@ package com.wigell.services;
 import com.wigell.dao.BookingRepo;
 import com.wigell.dao.CarRepo;
 import com.wigell.dao.UserRepo;
+import com.wigell.dto.BatchBookingResult;
+import com.wigell.dto.PageDTO;
 import com.wigell.entities.Booking;
-import com.wigell.entities.Car;
-import com.wigell.entities.User;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 @Service
+@Timed(value = "app.service", description = "Service method latency")
 public class BookingService {
 
     private static final Logger logger = LoggerFactory.getLogger(BookingService.class);
@@ -26,11 +46,37 @@ public class BookingService {
     private final BookingRepo bookingRepo;
     private final UserRepo userRepo;
     private final CarRepo carRepo;
-
-    public BookingService(BookingRepo bookingRepo, UserRepo userRepo, CarRepo carRepo) {
+    private final CarAvailabilityIndex availabilityIndex;
+    private final CarLockStripes carLocks;
+    private final CarCatalog carCatalog;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxAttempts;
+    private final int maxBatchSize;
+    private final Counter conflictRetries;
+    private final Counter conflictFailures;
+
+    public BookingService(BookingRepo bookingRepo, UserRepo userRepo, CarRepo carRepo,
+                          CarAvailabilityIndex availabilityIndex, CarLockStripes carLocks,
+                          CarCatalog carCatalog, PlatformTransactionManager transactionManager,
+                          @Value("${app.bookings.max-attempts:3}") int maxAttempts,
+                          @Value("${app.bookings.max-batch-size:50}") int maxBatchSize,
+                          MeterRegistry meterRegistry) {
         this.bookingRepo = bookingRepo;
         this.userRepo = userRepo;
         this.carRepo = carRepo;
+        this.availabilityIndex = availabilityIndex;
+        this.carLocks = carLocks;
+        this.carCatalog = carCatalog;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        // Samtidiga ändringar som upptäckts via @Version: försökt igen respektive gett upp
+        this.conflictRetries = Counter.builder("app.bookings.conflicts")
+                .tag("outcome", "retried")
+                .register(meterRegistry);
+        this.conflictFailures = Counter.builder("app.bookings.conflicts")
+                .tag("outcome", "failed")
+                .register(meterRegistry);
     }
 
     /**
@@ -44,62 +90,215 @@ public class BookingService {
 
     /**
      * Skapar en ny bokning (order av bil).
-     * Kontrollerar att både kund och bil finns innan en ny bokning görs.
+     * Kontrollerar att både kund och bil finns och att bilen är ledig hela perioden
+     * innan en ny bokning görs.
      *
      * @param booking Bokningsobjekt med nödvändig information.
      * @return Det sparade bokningsobjektet.
-     * @throws IllegalArgumentException om kund eller bil inte hittas.
+     * @throws IllegalArgumentException om kund eller bil inte hittas, eller om datumen saknas eller är fel.
+     * @throws IllegalStateException om bilen redan är bokad under en del av perioden.
      */
-    @Transactional
     public Booking orderCar(Booking booking) {
+        if (booking.getCarId() == null) {
+            throw new IllegalArgumentException("carId is required");
+        }
+        return inCarLocks(List.of(booking.getCarId()), () -> placeOrder(booking));
+    }
+
+    private Booking placeOrder(Booking booking) {
       /*  Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         System.out.println("Auth principal: " + auth.getName() + " authorities:" + auth.getAuthorities());
 */
-        // Använder direkt Optional-varianten om findById returnerar Optional
-        Optional<User> optionalUser = userRepo.findById(booking.getUserId());
-        Optional<Car> optionalCar = carRepo.findById(booking.getCarId());
-
-        if (optionalUser.isEmpty()) {
+        validateDates(booking.getFromDate(), booking.getToDate());
+        // Användare och bil läses via andra nivåns cache, räknaren uppdateras direkt i databasen
+        if (userRepo.findById(booking.getUserId()).isEmpty()) {
             logger.error("User not found: id={}", booking.getUserId());
             throw new IllegalArgumentException("User " + booking.getUserId() + " not found");
         }
-        if (optionalCar.isEmpty()) {
+        if (carRepo.findById(booking.getCarId()).isEmpty()) {
             logger.error("Car not found: id={}", booking.getCarId());
             throw new IllegalArgumentException("Car " +  booking.getCarId() + " not found");
         }
 
-        User user = optionalUser.get();
-        Car car = optionalCar.get();
-
-        // Uppdatera kund och bil baserat på bokningen
-        user.setNoOfOrders(user.getNoOfOrders() + 1);
-        car.setBooked(true);
+        checkNoOverlapInDatabase(booking.getCarId(), booking.getFromDate(), booking.getToDate(), null);
 
         // Skapa ny bokning
         Booking newBooking = new Booking(booking.getFromDate(), booking.getToDate(),
                 booking.getUserId(), booking.getCarId(), true);
 
-        userRepo.save(user);
-        carRepo.save(car);
         bookingRepo.save(newBooking);
+        // Atomär uppräkning, samtidiga bokningar för samma kund krockar inte på användarraden
+        userRepo.incrementOrders(booking.getUserId());
+        // Nekar bokningen om perioden överlappar en annan, hela transaktionen rullas då tillbaka
+        availabilityIndex.add(newBooking);
+        if (covers(newBooking, LocalDate.now())) {
+            updateBooked(booking.getCarId(), true);
+        }
 
         logger.info("New booking created: id={}", newBooking.getId());
         return newBooking;
     }
 
+    /**
+     * Bokar flera bilar på en gång åt samma kund, allt eller inget. Alla poster kontrolleras
+     * tillsammans: datum, att bilarna finns, överlapp mellan posterna och överlapp med befintliga
+     * bokningar (en fråga för alla bilar). Bilarna låses i stigande ordning, så två samtidiga
+     * anrop med samma bilar hamnar aldrig i deadlock.
+     *
+     * Går alla poster att boka sparas de i en transaktion, och Hibernate skickar dem i
+     * JDBC-batchar. Annars sparas ingenting och posterna som stoppade anropet får status
+     * CONFLICT, INVALID eller NOT_FOUND, övriga SKIPPED.
+     *
+     * @param userId   kunden som bokar
+     * @param requests bil och period för varje bokning, userId och active ignoreras
+     * @return resultat per post, i samma ordning som requests
+     * @throws IllegalArgumentException om listan är tom eller för lång, eller om kunden inte hittas
+     */
+    public List<BatchBookingResult> orderCars(long userId, List<Booking> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new IllegalArgumentException("At least one booking is required");
+        }
+        if (requests.size() > maxBatchSize) {
+            throw new IllegalArgumentException("At most " + maxBatchSize + " bookings per request");
+        }
+        List<Long> carIds = requests.stream()
+                .map(request -> request == null ? null : request.getCarId())
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        return inCarLocks(carIds, () -> placeOrders(userId, requests, carIds));
+    }
+
+    private List<BatchBookingResult> placeOrders(long userId, List<Booking> requests, List<Long> carIds) {
+        if (userRepo.findById(userId).isEmpty()) {
+            throw new IllegalArgumentException("User " + userId + " not found");
+        }
+        Set<Long> existingCars = carIds.isEmpty() ? Set.of() : new HashSet<>(carRepo.findExistingIds(carIds));
+
+        List<BatchBookingResult> results = new ArrayList<>(requests.size());
+        // Giltiga poster per bil, för att hitta överlapp inom anropet
+        Map<Long, List<Booking>> validByCar = new HashMap<>();
+        LocalDate earliest = null;
+        LocalDate latest = null;
+        for (int i = 0; i < requests.size(); i++) {
+            Booking request = requests.get(i);
+            BatchBookingResult result = request == null
+                    ? new BatchBookingResult(i, null, null, null)
+                    : new BatchBookingResult(i, request.getCarId(), request.getFromDate(), request.getToDate());
+            results.add(result);
+            if (request == null || request.getCarId() == null) {
+                result.reject(BatchBookingResult.Status.INVALID, "carId is required");
+                continue;
+            }
+            try {
+                validateDates(request.getFromDate(), request.getToDate());
+            } catch (IllegalArgumentException e) {
+                result.reject(BatchBookingResult.Status.INVALID, e.getMessage());
+                continue;
+            }
+            if (!existingCars.contains(request.getCarId())) {
+                result.reject(BatchBookingResult.Status.NOT_FOUND, "Car " + request.getCarId() + " not found");
+                continue;
+            }
+            List<Booking> sameCar = validByCar.computeIfAbsent(request.getCarId(), id -> new ArrayList<>());
+            if (sameCar.stream().anyMatch(other -> overlaps(other, request.getFromDate(), request.getToDate()))) {
+                result.reject(BatchBookingResult.Status.CONFLICT, "Overlaps another booking in the same request");
+                continue;
+            }
+            sameCar.add(request);
+            earliest = earliest == null || request.getFromDate().isBefore(earliest) ? request.getFromDate() : earliest;
+            latest = latest == null || request.getToDate().isAfter(latest) ? request.getToDate() : latest;
+        }
+
+        if (!validByCar.isEmpty()) {
+            // Befintliga bokningar för alla bilar och hela perioden, kontrolleras sedan i minnet
+            Map<Long, List<Booking>> existingByCar = new HashMap<>();
+            for (Booking existing : bookingRepo.findActiveOverlapping(validByCar.keySet(), earliest, latest)) {
+                existingByCar.computeIfAbsent(existing.getCarId(), id -> new ArrayList<>()).add(existing);
+            }
+            for (BatchBookingResult result : results) {
+                if (result.getStatus() != null) {
+                    continue;
+                }
+                boolean taken = existingByCar.getOrDefault(result.getCarId(), List.of()).stream()
+                        .anyMatch(existing -> overlaps(existing, result.getFromDate(), result.getToDate()))
+                        || !availabilityIndex.isAvailable(result.getCarId(), result.getFromDate(), result.getToDate());
+                if (taken) {
+                    result.reject(BatchBookingResult.Status.CONFLICT, "Car " + result.getCarId()
+                            + " is not available between " + result.getFromDate() + " and " + result.getToDate());
+                }
+            }
+        }
+
+        if (results.stream().anyMatch(result -> result.getStatus() != null)) {
+            for (BatchBookingResult result : results) {
+                if (result.getStatus() == null) {
+                    result.reject(BatchBookingResult.Status.SKIPPED, null);
+                }
+            }
+            return results;
+        }
+
+        // Id:n delas ut när bokningarna sparas, raderna skickas i batchar vid commit
+        List<Booking> created = new ArrayList<>(results.size());
+        for (BatchBookingResult result : results) {
+            created.add(new Booking(result.getFromDate(), result.getToDate(), userId, result.getCarId(), true));
+        }
+        bookingRepo.saveAll(created);
+        userRepo.addOrders(userId, created.size());
+
+        LocalDate today = LocalDate.now();
+        Set<Long> bookedToday = new HashSet<>();
+        for (int i = 0; i < created.size(); i++) {
+            Booking booking = created.get(i);
+            availabilityIndex.add(booking);
+            results.get(i).booked(booking.getId());
+            if (covers(booking, today)) {
+                bookedToday.add(booking.getCarId());
+            }
+        }
+        if (!bookedToday.isEmpty() && carRepo.updateBookedAll(bookedToday, true) > 0) {
+            carCatalog.invalidate();
+        }
+
+        logger.info("{} bookings created for user {}", created.size(), userId);
+        return results;
+    }
+
+    private static boolean overlaps(Booking booking, LocalDate fromDate, LocalDate toDate) {
+        return !booking.getFromDate().isAfter(toDate) && !booking.getToDate().isBefore(fromDate);
+    }
+
     /**
      * Uppdaterar en befintlig bokning med de nya uppgifterna.
      *
      * @param id             ID för den bokning som ska uppdateras.
      * @param bookingDetails Innehåller de fält som ska uppdateras.
      * @return Den uppdaterade bokningen eller null om bokningen inte hittas.
+     * @throws IllegalArgumentException om de nya datumen är fel.
+     * @throws IllegalStateException om bilen redan är bokad under en del av den nya perioden.
      */
-    @Transactional
     public Booking updateOrder(long id, Booking bookingDetails) {
+        Optional<Long> currentCarId = bookingRepo.findById(id).map(Booking::getCarId);
+        if (currentCarId.isEmpty()) {
+            logger.warn("Booking not found: id={}", Optional.of(id));
+            return null;
+        }
+        // Både nuvarande och ny bil låses om bokningen flyttas
+        List<Long> carIds = Arrays.asList(currentCarId.get(), bookingDetails.getCarId());
+        return inCarLocks(carIds, () -> applyUpdate(id, bookingDetails));
+    }
+
+    private Booking applyUpdate(long id, Booking bookingDetails) {
         Optional<Booking> optionalBooking = bookingRepo.findById(id);
 
         if (optionalBooking.isPresent()) {
             Booking existingBooking = optionalBooking.get();
+            // Tidigare värden behövs för att uppdatera tillgänglighetsindexet
+            long previousCarId = existingBooking.getCarId();
+            LocalDate previousFrom = existingBooking.getFromDate();
+            LocalDate previousTo = existingBooking.getToDate();
+            boolean previouslyActive = existingBooking.isActive();
 
             // Uppdatera endast de fält som skickas med (kontrollera eventuella null-värden)
             if (bookingDetails.getFromDate() != null) {
@@ -116,6 +315,23 @@ public class BookingService {
             }
             // Uppdatera active-flaggans värde (boolean)
             existingBooking.setActive(bookingDetails.isActive());
+            validateDates(existingBooking.getFromDate(), existingBooking.getToDate());
+
+            boolean periodChanged = previousCarId != existingBooking.getCarId()
+                    || !previousFrom.equals(existingBooking.getFromDate())
+                    || !previousTo.equals(existingBooking.getToDate());
+            if (existingBooking.isActive() && (periodChanged || !previouslyActive)) {
+                checkNoOverlapInDatabase(existingBooking.getCarId(), existingBooking.getFromDate(),
+                        existingBooking.getToDate(), id);
+                availabilityIndex.add(existingBooking);
+            }
+            if (previouslyActive && (periodChanged || !existingBooking.isActive())) {
+                availabilityIndex.remove(previousCarId, id, previousFrom, previousTo);
+            }
+            refreshBooked(previousCarId, existingBooking);
+            if (previousCarId != existingBooking.getCarId()) {
+                refreshBooked(existingBooking.getCarId(), existingBooking);
+            }
 
             Booking updatedBooking = bookingRepo.save(existingBooking);
             logger.info("Booking updated: id={}", updatedBooking.getId());
@@ -132,25 +348,28 @@ public class BookingService {
      * @param bookingId             ID för den bokning som ska uppdateras.
      * @return Den uppdaterade bokningen eller null om bokningen inte hittas.
      */
-    @Transactional
     public Booking returnCar(long bookingId) {
-        Booking booking = bookingRepo.findById(bookingId)
-                .orElseThrow(() ->
-                        new ResponseStatusException(
-                                HttpStatus.NOT_FOUND,
-                                "Booking med id " + bookingId + " finns inte"));
+        long carId = findBookingOrThrow(bookingId).getCarId();
+        return inCarLocks(List.of(carId), () -> completeReturn(bookingId));
+    }
 
+    private Booking completeReturn(long bookingId) {
+        Booking booking = findBookingOrThrow(bookingId);
+
+        boolean wasActive = booking.isActive();
         // Sätt active-flaggan till false
         booking.setActive(false);
+        if (wasActive) {
+            availabilityIndex.remove(booking.getCarId(), bookingId, booking.getFromDate(), booking.getToDate());
+        }
 
-        // Frisläpp bilen
-        Car car = carRepo.findById(booking.getCarId())
-                .orElseThrow(() ->
-                        new ResponseStatusException(
-                                HttpStatus.NOT_FOUND,
-                                "Car med id " + booking.getCarId() + " finns inte"));
-        car.setBooked(false);
-        carRepo.save(car);
+        // Frisläpp bilen utan att läsa in den, om ingen annan bokning gäller idag
+        boolean stillBooked = availabilityIndex.isBookedOn(booking.getCarId(), LocalDate.now(), bookingId);
+        if (updateBooked(booking.getCarId(), stillBooked) == 0) {
+            throw new ResponseStatusException(
+                    HttpStatus.NOT_FOUND,
+                    "Car med id " + booking.getCarId() + " finns inte");
+        }
 
         // Spara och returnera
         Booking updated = bookingRepo.save(booking);
@@ -159,13 +378,122 @@ public class BookingService {
     }
 
 
+    /**
+     * Avslutar en omgång aktiva bokningar vars toDate är före today, och frisläpper bilarna
+     * som då inte har någon annan aktiv bokning som gäller today. Bokningarna väljs ut först,
+     * sedan låses deras bilar och bokningarna och bilarna uppdateras med en fråga var.
+     * Låsen och transaktionen gäller bara omgången, så långa körningar blockerar aldrig
+     * bokningar av samma bilar länge. Se BookingExpirySweeper.
+     *
+     * @param today dagen som bokningarna ska ha gått ut före
+     * @param limit högsta antal bokningar i omgången
+     * @return antal utvalda och avslutade bokningar samt frisläppta bilar
+     */
+    public ExpiredBookings expireOverdue(LocalDate today, int limit) {
+        List<Booking> candidates = bookingRepo.findOverdue(today, PageRequest.of(0, limit));
+        if (candidates.isEmpty()) {
+            return new ExpiredBookings(0, 0, 0);
+        }
+        List<Long> ids = candidates.stream().map(Booking::getId).toList();
+        Set<Long> carIds = new HashSet<>();
+        candidates.forEach(booking -> carIds.add(booking.getCarId()));
+        return inCarLocks(carIds, () -> {
+            // Läses om under låsen, en bokning kan ha ändrats eller flyttats till en annan bil
+            List<Booking> overdue = bookingRepo.findOverdueByIds(ids, today).stream()
+                    .filter(booking -> carIds.contains(booking.getCarId()))
+                    .toList();
+            if (overdue.isEmpty()) {
+                return new ExpiredBookings(candidates.size(), 0, 0);
+            }
+            int expired = bookingRepo.deactivateAll(overdue.stream().map(Booking::getId).toList());
+            Set<Long> affectedCars = new HashSet<>();
+            for (Booking booking : overdue) {
+                availabilityIndex.remove(booking.getCarId(), booking.getId(), booking.getFromDate(), booking.getToDate());
+                affectedCars.add(booking.getCarId());
+            }
+            int released = carRepo.releaseUnbooked(affectedCars, today);
+            if (released > 0) {
+                carCatalog.invalidate();
+            }
+            return new ExpiredBookings(candidates.size(), expired, released);
+        });
+    }
+
+    /**
+     * Markerar bilar som bokade när en av deras bokningar börjar gälla: bilar med booked = false
+     * och en aktiv bokning som gäller today. booked räknas annars bara om när en bokning ändras,
+     * så en bokning som gjordes i förväg skulle inte synas i bilkatalogen de dagar den gäller.
+     * Bilarna låses och läses om innan de uppdateras, som i expireOverdue. Se BookingExpirySweeper.
+     *
+     * @param today dagen som bokningarna ska gälla
+     * @return antal bilar som markerades som bokade
+     */
+    public int markStartedBookings(LocalDate today) {
+        List<Long> candidates = bookingRepo.findUnflaggedCarsBookedOn(today);
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        return inCarLocks(candidates, () -> {
+            // Läses om under låsen, en bokning kan ha avbokats eller flyttats till en annan bil
+            List<Long> carIds = bookingRepo.findUnflaggedCarsBookedOn(candidates, today);
+            if (carIds.isEmpty()) {
+                return 0;
+            }
+            int marked = carRepo.updateBookedAll(carIds, true);
+            if (marked > 0) {
+                carCatalog.invalidate();
+            }
+            return marked;
+        });
+    }
+
+    /**
+     * Resultatet av en omgång i expireOverdue.
+     */
+    public static final class ExpiredBookings {
+
+        private final int selected;
+        private final int expired;
+        private final int releasedCars;
+
+        ExpiredBookings(int selected, int expired, int releasedCars) {
+            this.selected = selected;
+            this.expired = expired;
+            this.releasedCars = releasedCars;
+        }
+
+        // Bokningar som valdes ut, lika med limit om det kan finnas fler
+        public int getSelected() {
+            return selected;
+        }
+
+        public int getExpired() {
+            return expired;
+        }
+
+        public int getReleasedCars() {
+            return releasedCars;
+        }
+    }
+
     /**
      * Tar bort en bokning baserat på id.
      *
      * @param id ID för bokningen som ska tas bort.
      */
-    @Transactional
     public void deleteBookingById(Long id) {
+        Optional<Long> carId = bookingRepo.findById(id).map(Booking::getCarId);
+        if (carId.isEmpty()) {
+            logger.warn("Attempt to delete non-existing booking: id={}", id);
+            return;
+        }
+        inCarLocks(List.of(carId.get()), () -> {
+            removeBooking(id);
+            return null;
+        });
+    }
+
+    private void removeBooking(Long id) {
         Optional<Booking> bookingOpt = bookingRepo.findById(id);
         if (bookingOpt.isEmpty()) {
             logger.warn("Attempt to delete non-existing booking: id={}", id);
@@ -174,16 +502,15 @@ public class BookingService {
 
         Booking booking = bookingOpt.get();
         long userId = booking.getUserId();
+        if (booking.isActive()) {
+            availabilityIndex.remove(booking.getCarId(), id, booking.getFromDate(), booking.getToDate());
+            booking.setActive(false);
+            refreshBooked(booking.getCarId(), booking);
+        }
 
-        Optional<User> optionalUser = userRepo.findById(userId);
-        if (optionalUser.isPresent()) {
-            User user = optionalUser.get();
-            int current = user.getNoOfOrders();
-            user.setNoOfOrders(Math.max(0, current - 1));
-            userRepo.save(user);
-            logger.info("Decremented noOfOrders for user id={}: {} → {}",
-                    userId, current, user.getNoOfOrders());
-        } else {
+        if (userRepo.decrementOrders(userId) > 0) {
+            logger.info("Decremented noOfOrders for user id={}", userId);
+        } else if (!userRepo.existsById(userId)) {
             logger.warn("User not found when deleting booking id={}: userId={}",
                     id, userId);
         }
@@ -194,6 +521,93 @@ public class BookingService {
 
 
 
+    /**
+     * Kör arbetet i en egen transaktion medan bilarnas lås hålls, så att låset släpps först
+     * efter commit. Om en annan transaktion hann ändra samma bokning eller bil
+     * (@Version) görs ett nytt försök, högst app.bookings.max-attempts gånger.
+     */
+    private <T> T inCarLocks(Collection<Long> carIds, Supplier<T> work) {
+        return carLocks.withLocks(carIds, () -> {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    return transactionTemplate.execute(status -> work.get());
+                } catch (OptimisticLockingFailureException e) {
+                    if (attempt >= maxAttempts) {
+                        conflictFailures.increment();
+                        logger.error("Giving up after {} attempts: {}", attempt, e.getMessage());
+                        throw e;
+                    }
+                    conflictRetries.increment();
+                    logger.warn("Concurrent update detected, retrying (attempt {} of {})", attempt, maxAttempts);
+                    backOff(attempt);
+                }
+            }
+        });
+    }
+
+    private static void backOff(int attempt) {
+        try {
+            // Slumpad väntan så att de som krockade inte försöker igen exakt samtidigt
+            Thread.sleep(ThreadLocalRandom.current().nextLong(5, 20) * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying booking", e);
+        }
+    }
+
+    /**
+     * Kontrollerar överlapp direkt i databasen, utöver indexet i minnet. Fångar bokningar
+     * som har gjorts utanför den här instansen, t.ex. av en annan nod eller direkt i databasen.
+     */
+    private void checkNoOverlapInDatabase(Long carId, LocalDate fromDate, LocalDate toDate, Long excludedId) {
+        if (bookingRepo.existsOverlap(carId, fromDate, toDate, excludedId)) {
+            throw new IllegalStateException("Car " + carId + " is not available between "
+                    + fromDate + " and " + toDate);
+        }
+    }
+
+    private Booking findBookingOrThrow(long bookingId) {
+        return bookingRepo.findById(bookingId)
+                .orElseThrow(() ->
+                        new ResponseStatusException(
+                                HttpStatus.NOT_FOUND,
+                                "Booking med id " + bookingId + " finns inte"));
+    }
+
+    /**
+     * Sätter bilens booked-flagga utifrån om den är bokad idag.
+     * Den ändrade bokningen räknas med sina nya värden, eftersom indexet
+     * fortfarande kan innehålla den gamla perioden fram till commit.
+     */
+    private void refreshBooked(long carId, Booking changed) {
+        LocalDate today = LocalDate.now();
+        boolean booked = availabilityIndex.isBookedOn(carId, today, changed.getId())
+                || (changed.isActive() && changed.getCarId() == carId && covers(changed, today));
+        updateBooked(carId, booked);
+    }
+
+    // Sätter bilens booked-flagga och anmäler ändringen till bilkatalogen
+    private int updateBooked(long carId, boolean booked) {
+        int updated = carRepo.updateBooked(carId, booked);
+        if (updated > 0) {
+            carCatalog.invalidate();
+        }
+        return updated;
+    }
+
+    private static boolean covers(Booking booking, LocalDate day) {
+        return !day.isBefore(booking.getFromDate()) && !day.isAfter(booking.getToDate());
+    }
+
+    private static void validateDates(LocalDate fromDate, LocalDate toDate) {
+        if (fromDate == null || toDate == null) {
+            throw new IllegalArgumentException("fromDate and toDate are required");
+        }
+        if (toDate.isBefore(fromDate)) {
+            throw new IllegalArgumentException("toDate must not be before fromDate");
+        }
+    }
+
     /**
      * Hämtar alla bokningar.
      *
@@ -217,6 +631,24 @@ public class BookingService {
         return bookingRepo.findByActive(true);
     }
 
+    /**
+     * Hämtar en sida bokningar i id-ordning (keyset-paginering).
+     * Svarstiden beror på sidans storlek, inte på hur många bokningar som finns.
+     *
+     * @param after  sista id:t från föregående sida, null för första sidan
+     * @param limit  max antal bokningar på sidan
+     * @param active filtrera på aktiv status, null för alla
+     * @param carId  filtrera på bil, null för alla
+     * @param userId filtrera på kund, null för alla
+     * @return sidan och id:t som nästa sida börjar efter
+     */
+    @Transactional(readOnly = true)
+    public PageDTO<Booking> getBookingsPage(Long after, int limit, Boolean active, Long carId, Long userId) {
+        List<Booking> rows = bookingRepo.findPage(after == null ? 0 : after, active, carId, userId,
+                PageRequest.of(0, limit + 1));
+        return PageDTO.of(rows, limit, Booking::getId);
+    }
+
     /**
      * Hämtar alla bokningar för en viss användare.
      *
@@ -0,0 +1,79 @@
+package com.wigell.services;
+
+import com.wigell.config.HibernateCacheConfig;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Service;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Träffar och missar i andra nivåns cache samt antal frågor mot databasen,
+ * från Hibernates statistik (hibernate.generate_statistics).
+ */
+@Service
+public class CacheStatsService {
+
+    private static final List<String> REGIONS = List.of(
+            HibernateCacheConfig.USERS, HibernateCacheConfig.USERS_BY_USERNAME, HibernateCacheConfig.CARS);
+
+    private final Statistics statistics;
+    private final CacheManager cacheManager;
+
+    public CacheStatsService(EntityManagerFactory entityManagerFactory, CacheManager hibernateCacheManager) {
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        this.cacheManager = hibernateCacheManager;
+    }
+
+    /**
+     * Statistik sedan start eller senaste reset.
+     *
+     * @return per region: hits, misses, puts och antal poster, samt databasens räknare
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String region : REGIONS) {
+            CacheRegionStatistics stats = statistics.getCacheRegionStatistics(region);
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("hits", stats.getHitCount());
+            values.put("misses", stats.getMissCount());
+            values.put("puts", stats.getPutCount());
+            values.put("entries", entries(region));
+            regions.put(region, values);
+        }
+
+        Map<String, Object> database = new LinkedHashMap<>();
+        // Varje förberedd sats är en rundresa till databasen
+        database.put("statements", statistics.getPrepareStatementCount());
+        database.put("queries", statistics.getQueryExecutionCount());
+        database.put("entityLoads", statistics.getEntityLoadCount());
+        database.put("entityFetches", statistics.getEntityFetchCount());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("since", statistics.getStart());
+        result.put("enabled", statistics.isStatisticsEnabled());
+        result.put("regions", regions);
+        result.put("database", database);
+        return result;
+    }
+
+    // Hibernate räknar inte poster för JCache, storleken hämtas från Caffeine
+    private long entries(String region) {
+        Cache<Object, Object> cache = cacheManager.getCache(region);
+        return cache == null ? 0 : cache.unwrap(com.github.benmanes.caffeine.cache.Cache.class).estimatedSize();
+    }
+
+    /**
+     * Nollställer statistiken, t.ex. inför en mätning.
+     */
+    public void reset() {
+        statistics.clear();
+    }
+}
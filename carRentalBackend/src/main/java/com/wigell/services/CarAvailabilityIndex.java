@@ -0,0 +1,268 @@
+package com.wigell.services;
+
+import com.wigell.dao.BookingRepo;
+import com.wigell.entities.Booking;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index i minnet över aktiva bokningar per bil, byggt från Booking.fromDate/toDate.
+ * Används för att neka överlappande bokningar och för att svara på vilka bilar som är
+ * lediga en viss period utan att fråga databasen.
+ *
+ * Datumen räknas inklusive, en bil som lämnas tillbaka den 10:e kan bokas från den 11:e.
+ *
+ * Varje bils bokningar ligger i en oföränderlig array sorterad på fromDate, som byts ut vid
+ * ändringar. Läsningar behöver därför ingen låsning. Ändringar görs direkt i den pågående
+ * transaktionen (så att två samtidiga bokningar inte båda godkänns) och återställs vid rollback.
+ * Borttagningar görs först efter commit, så att perioden inte släpps innan ändringen är sparad.
+ *
+ * Indexet finns bara i den här JVM:en och förutsätter att alla bokningar går via BookingService.
+ */
+@Component
+public class CarAvailabilityIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarAvailabilityIndex.class);
+
+    private final BookingRepo bookingRepo;
+    private final TransactionTemplate transactionTemplate;
+    private final ConcurrentHashMap<Long, CarIntervals> cars = new ConcurrentHashMap<>();
+
+    public CarAvailabilityIndex(BookingRepo bookingRepo, PlatformTransactionManager transactionManager) {
+        this.bookingRepo = bookingRepo;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Bygger indexet från alla aktiva bokningar i databasen. Läser i en skrivande transaktion,
+     * så att bokningarna kommer från primären och inte från en replika som ligger efter.
+     */
+    @PostConstruct
+    public void load() {
+        cars.clear();
+        List<Booking> active = transactionTemplate.execute(status -> bookingRepo.findByActive(true));
+        for (Booking booking : active) {
+            if (booking.getFromDate() != null && booking.getToDate() != null) {
+                cars.compute(booking.getCarId(), (carId, current) ->
+                        (current == null ? CarIntervals.EMPTY : current).with(Interval.of(booking)));
+            }
+        }
+        logger.info("Availability index loaded with {} active bookings for {} cars", active.size(), cars.size());
+    }
+
+    /**
+     * Kontrollerar om bilen är ledig hela perioden.
+     *
+     * @param carId bilens id
+     * @param from  första dagen (inklusive)
+     * @param to    sista dagen (inklusive)
+     * @return true om ingen aktiv bokning överlappar perioden
+     */
+    public boolean isAvailable(long carId, LocalDate from, LocalDate to) {
+        CarIntervals intervals = cars.get(carId);
+        return intervals == null || !intervals.overlaps(from, to, null);
+    }
+
+    /**
+     * Kontrollerar om bilen är bokad en viss dag av någon annan bokning än den angivna.
+     *
+     * @param carId            bilens id
+     * @param day              dagen som kontrolleras
+     * @param ignoredBookingId bokning som inte räknas, kan vara null
+     */
+    public boolean isBookedOn(long carId, LocalDate day, Long ignoredBookingId) {
+        CarIntervals intervals = cars.get(carId);
+        return intervals != null && intervals.overlaps(day, day, ignoredBookingId);
+    }
+
+    /**
+     * Lägger till en aktiv bokning i indexet. Om transaktionen rullas tillbaka tas den bort igen.
+     * Bokningen måste ha ett id.
+     *
+     * @throws IllegalStateException om bilen redan är bokad under en del av perioden
+     */
+    public void add(Booking booking) {
+        Interval interval = Interval.of(booking);
+        cars.compute(booking.getCarId(), (carId, current) -> {
+            CarIntervals intervals = current == null ? CarIntervals.EMPTY : current;
+            // Bokningens egen tidigare period tas bort först efter commit och räknas inte
+            if (intervals.overlaps(interval.from, interval.to, interval.bookingId)) {
+                throw new IllegalStateException("Car " + carId + " is not available between "
+                        + interval.from + " and " + interval.to);
+            }
+            return intervals.with(interval);
+        });
+        afterRollback(() -> removeInterval(booking.getCarId(), interval));
+    }
+
+    /**
+     * Tar bort bokningens nuvarande period ur indexet när transaktionen har gått igenom.
+     *
+     * @param carId     bilen som bokningen gällde
+     * @param bookingId bokningens id
+     * @param from      bokningens första dag
+     * @param to        bokningens sista dag
+     */
+    public void remove(long carId, long bookingId, LocalDate from, LocalDate to) {
+        Interval interval = new Interval(bookingId, from, to);
+        afterCommit(() -> removeInterval(carId, interval));
+    }
+
+    /**
+     * Tar bort alla bokningar för en bil när transaktionen har gått igenom.
+     */
+    public void removeCar(long carId) {
+        afterCommit(() -> cars.remove(carId));
+    }
+
+    private void removeInterval(long carId, Interval interval) {
+        cars.computeIfPresent(carId, (id, current) -> {
+            CarIntervals updated = current.without(interval);
+            return updated.isEmpty() ? null : updated;
+        });
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static void afterRollback(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        action.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * En boknings period, fromDate och toDate inklusive.
+     */
+    private static final class Interval {
+        private final long bookingId;
+        private final LocalDate from;
+        private final LocalDate to;
+
+        private Interval(long bookingId, LocalDate from, LocalDate to) {
+            this.bookingId = bookingId;
+            this.from = from;
+            this.to = to;
+        }
+
+        private static Interval of(Booking booking) {
+            return new Interval(booking.getId(), booking.getFromDate(), booking.getToDate());
+        }
+
+        private boolean sameAs(Interval other) {
+            return bookingId == other.bookingId && from.equals(other.from) && to.equals(other.to);
+        }
+    }
+
+    /**
+     * En bils perioder sorterade på from. maxTo[i] är den senaste to-dagen bland perioderna 0..i,
+     * vilket gör överlappskontrollen till en binärsökning även om äldre data innehåller överlapp.
+     */
+    private static final class CarIntervals {
+        private static final CarIntervals EMPTY = new CarIntervals(new Interval[0]);
+        private static final Comparator<Interval> ORDER =
+                Comparator.comparing((Interval i) -> i.from).thenComparingLong(i -> i.bookingId);
+
+        private final Interval[] intervals;
+        private final LocalDate[] maxTo;
+
+        private CarIntervals(Interval[] intervals) {
+            this.intervals = intervals;
+            this.maxTo = new LocalDate[intervals.length];
+            for (int i = 0; i < intervals.length; i++) {
+                LocalDate previous = i == 0 ? null : maxTo[i - 1];
+                maxTo[i] = previous != null && previous.isAfter(intervals[i].to) ? previous : intervals[i].to;
+            }
+        }
+
+        private boolean isEmpty() {
+            return intervals.length == 0;
+        }
+
+        private boolean overlaps(LocalDate from, LocalDate to, Long ignoredBookingId) {
+            // Sista perioden som börjar senast den sista dagen
+            int last = lastStartingOnOrBefore(to);
+            if (last < 0 || maxTo[last].isBefore(from)) {
+                return false;
+            }
+            if (ignoredBookingId == null) {
+                return true;
+            }
+            // Ovanligt fall: gå igenom kandidaterna och hoppa över den ignorerade bokningen
+            for (int i = last; i >= 0 && !maxTo[i].isBefore(from); i--) {
+                Interval interval = intervals[i];
+                if (interval.bookingId != ignoredBookingId && !interval.to.isBefore(from)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int lastStartingOnOrBefore(LocalDate day) {
+            int low = 0;
+            int high = intervals.length - 1;
+            int result = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (intervals[mid].from.isAfter(day)) {
+                    high = mid - 1;
+                } else {
+                    result = mid;
+                    low = mid + 1;
+                }
+            }
+            return result;
+        }
+
+        private CarIntervals with(Interval interval) {
+            Interval[] copy = Arrays.copyOf(intervals, intervals.length + 1);
+            copy[intervals.length] = interval;
+            Arrays.sort(copy, ORDER);
+            return new CarIntervals(copy);
+        }
+
+        private CarIntervals without(Interval interval) {
+            Collection<Interval> kept = new ArrayList<>(intervals.length);
+            boolean removed = false;
+            for (Interval existing : intervals) {
+                if (!removed && existing.sameAs(interval)) {
+                    removed = true;
+                } else {
+                    kept.add(existing);
+                }
+            }
+            return removed ? new CarIntervals(kept.toArray(new Interval[0])) : this;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.wigell.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wigell.dao.CarRepo;
+import com.wigell.dto.CarSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Hela bilkatalogen (GET /api/v1/cars) som färdig JSON, både okomprimerad och gzip,
+ * med en hash som ETag. Katalogen byggs om först när en bil har ändrats, så att
+ * vanliga anrop varken frågar databasen eller serialiserar något.
+ *
+ * Ändringar anmäls med invalidate(), som räknar upp generationen efter commit.
+ * Nästa anrop bygger då en ny katalog. Generationen läses innan bilarna hämtas, så en
+ * ändring som görs under bygget leder alltid till ett nytt bygge vid nästa anrop.
+ *
+ * Katalogen finns bara i den här JVM:en och förutsätter att alla ändringar av bilar
+ * går via CarService och BookingService. Bilarna läses i en skrivande transaktion, så att
+ * katalogen byggs från primären även när läsande transaktioner går till en replika
+ * (se ReplicaRoutingConfig). Från en replika som ligger efter skulle den gamla katalogen
+ * annars ligga kvar tills nästa ändring.
+ */
+@Component
+public class CarCatalog {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarCatalog.class);
+
+    private final CarRepo carRepo;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final AtomicLong generation = new AtomicLong();
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile Snapshot snapshot;
+
+    public CarCatalog(CarRepo carRepo, ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
+        this.carRepo = carRepo;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Returnerar den aktuella katalogen och bygger om den om någon bil har ändrats.
+     */
+    public Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null && current.generation == generation.get()) {
+            return current;
+        }
+        // ReentrantLock i stället för synchronized: bygget frågar databasen, och en virtuell tråd
+        // som väntar i ett synchronized-block låser fast sin bärartråd
+        rebuildLock.lock();
+        try {
+            current = snapshot;
+            long wanted = generation.get();
+            if (current == null || current.generation != wanted) {
+                current = build(wanted);
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Anmäler att bilkatalogen har ändrats. Inom en transaktion gäller det först efter commit.
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    generation.incrementAndGet();
+                }
+            });
+        } else {
+            generation.incrementAndGet();
+        }
+    }
+
+    private Snapshot build(long forGeneration) {
+        List<CarSummary> cars = transactionTemplate.execute(status -> carRepo.findAllSummaries());
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(cars);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize car catalog", e);
+        }
+        Snapshot built = new Snapshot(json, gzip(json), hash(json), forGeneration);
+        logger.info("Car catalog rebuilt: {} cars, {} bytes ({} gzip), etag={}",
+                cars.size(), json.length, built.gzip.length, built.etag);
+        return built;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            // Kan inte hända för en ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * En oföränderlig version av katalogen. Arrayerna får inte ändras.
+     */
+    public static final class Snapshot {
+        private final byte[] json;
+        private final byte[] gzip;
+        private final String etag;
+        private final long generation;
+
+        private Snapshot(byte[] json, byte[] gzip, String etag, long generation) {
+            this.json = json;
+            this.gzip = gzip;
+            this.etag = etag;
+            this.generation = generation;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.wigell.services;
+
+import com.wigell.dao.CarImageVariantRepo;
+import com.wigell.dao.CarRepo;
+import com.wigell.dto.CarImageDTO;
+import com.wigell.entities.CarImageSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Flyttar bilder från databasen (car.image och car_image_variant.data) till filsystemet.
+ * Varje bild flyttas i en egen kort transaktion och kan köras om, bilder som redan
+ * är flyttade hoppas över.
+ */
+@Service
+public class CarImageMigrationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarImageMigrationService.class);
+
+    private final CarRepo carRepo;
+    private final CarImageVariantRepo variantRepo;
+    private final DatabaseCarImageStore databaseStore;
+    private final FileSystemCarImageStore fileSystemStore;
+    private final TransactionTemplate transactionTemplate;
+
+    public CarImageMigrationService(CarRepo carRepo, CarImageVariantRepo variantRepo,
+                                    DatabaseCarImageStore databaseStore, FileSystemCarImageStore fileSystemStore,
+                                    PlatformTransactionManager transactionManager) {
+        this.carRepo = carRepo;
+        this.variantRepo = variantRepo;
+        this.databaseStore = databaseStore;
+        this.fileSystemStore = fileSystemStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Flyttar alla bilder som fortfarande ligger i databasen till filsystemet.
+     *
+     * @return antal flyttade bilder (original och varianter)
+     */
+    public int migrateToFileSystem() {
+        int moved = 0;
+        List<Long> carIds = carRepo.findIdsWithImage();
+        for (Long carId : carIds) {
+            for (CarImageSize size : CarImageSize.values()) {
+                Optional<String> hash = size == CarImageSize.ORIGINAL
+                        ? carRepo.findImageMetadata(carId).map(CarImageDTO::getHash)
+                        : variantRepo.findHash(carId, size);
+                if (hash.isPresent() && Boolean.TRUE.equals(
+                        transactionTemplate.execute(status -> move(carId, size, hash.get())))) {
+                    moved++;
+                }
+            }
+        }
+        logger.info("Moved {} images from the database to the file system", moved);
+        return moved;
+    }
+
+    private boolean move(long carId, CarImageSize size, String hash) {
+        Optional<Resource> content = databaseStore.read(carId, size, hash);
+        if (content.isEmpty()) {
+            return false;
+        }
+        String writtenHash;
+        try (ImageContentStream in = new ImageContentStream(content.get().getInputStream(), Long.MAX_VALUE)) {
+            writtenHash = fileSystemStore.write(carId, size, in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (!writtenHash.equals(hash)) {
+            // Ska inte hända, men då lämnas bilden kvar i databasen hellre än att den sparas under fel namn
+            logger.error("Hash mismatch for {} image of car id={}, not moved", size, carId);
+            fileSystemStore.delete(carId, size, writtenHash);
+            return false;
+        }
+        databaseStore.delete(carId, size, hash);
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+package com.wigell.services;
+
+import com.wigell.entities.CarImageSize;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Lagring av bildinnehåll för bilar, både original och nerskalade varianter.
+ * Metadata (hash, content type, ändringstid) ligger alltid kvar i databasen,
+ * implementationen ansvarar bara för själva bytes.
+ *
+ * Vilken implementation som används styrs av app.images.store (database eller filesystem).
+ */
+public interface CarImageStore {
+
+    /**
+     * Sparar bildinnehåll för en bil och storlek. Innehållet läses som en ström
+     * till slutet, utan att hela bilden buffras i minnet.
+     *
+     * @param carId   bilens id
+     * @param size    original eller variant
+     * @param content bildens innehåll, hashas medan det läses
+     * @return SHA-256 (hex) av innehållet
+     * @throws IOException om innehållet inte kan läsas eller är för stort
+     */
+    String write(long carId, CarImageSize size, ImageContentStream content) throws IOException;
+
+    /**
+     * Öppnar bildinnehåll för läsning.
+     *
+     * @return Optional med innehållet, tom om det inte finns
+     */
+    Optional<Resource> read(long carId, CarImageSize size, String hash);
+
+    /**
+     * Tar bort bildinnehåll som inte längre används. Innehåll som redan har
+     * ersatts av en annan hash lämnas orört.
+     */
+    void delete(long carId, CarImageSize size, String hash);
+}
@@ -0,0 +1,232 @@
+package com.wigell.services;
+
+import com.wigell.dao.CarImageVariantRepo;
+import com.wigell.dao.CarRepo;
+import com.wigell.dto.CarImageDTO;
+import com.wigell.entities.CarImageSize;
+import com.wigell.entities.CarImageVariant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Skapar nerskalade varianter (thumb, list, detail) av bilbilder med javax.imageio
+ * och sparar dem i CarImageStore.
+ * Arbetet körs på den begränsade trådpoolen imageExecutor, aldrig på request-tråden.
+ */
+@Service
+public class CarImageVariantService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarImageVariantService.class);
+    private static final String VARIANT_CONTENT_TYPE = "image/jpeg";
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private final CarRepo carRepo;
+    private final CarImageVariantRepo variantRepo;
+    private final CarImageStore imageStore;
+    private final TaskExecutor imageExecutor;
+    private final TransactionTemplate transactionTemplate;
+
+    public CarImageVariantService(CarRepo carRepo, CarImageVariantRepo variantRepo, CarImageStore imageStore,
+                                  @Qualifier("imageExecutor") TaskExecutor imageExecutor,
+                                  PlatformTransactionManager transactionManager) {
+        this.carRepo = carRepo;
+        this.variantRepo = variantRepo;
+        this.imageStore = imageStore;
+        this.imageExecutor = imageExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Schemalägger att varianter skapas för bilens bild.
+     * Om en transaktion pågår körs jobbet först efter commit, så att den nya bilden syns.
+     *
+     * @param carId bilens id
+     */
+    public void scheduleVariants(long carId) {
+        scheduleVariants(carId, false);
+    }
+
+    /**
+     * Som scheduleVariants(long), men med runIfFull skapas varianterna på den anropande
+     * tråden när kön är full. Används vid import av många bilar, där importen då får vänta
+     * på bildbehandlingen i stället för att bilarna blir utan varianter.
+     *
+     * @param carId     bilens id
+     * @param runIfFull true för att skapa varianterna direkt om kön är full
+     */
+    public void scheduleVariants(long carId, boolean runIfFull) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(carId, runIfFull);
+                }
+            });
+        } else {
+            submit(carId, runIfFull);
+        }
+    }
+
+    private void submit(long carId, boolean runIfFull) {
+        try {
+            imageExecutor.execute(() -> generateVariants(carId));
+        } catch (TaskRejectedException e) {
+            if (runIfFull) {
+                generateVariants(carId);
+                return;
+            }
+            // Originalbilden serveras tills varianterna finns
+            logger.warn("Image executor is full, no variants created for car id={}", carId);
+        }
+    }
+
+    /**
+     * Skapar alla varianter för bilens nuvarande bild och ersätter eventuella gamla.
+     *
+     * @param carId bilens id
+     */
+    public void generateVariants(long carId) {
+        Optional<CarImageDTO> optionalOriginal = carRepo.findImageMetadata(carId);
+        Optional<Resource> content = optionalOriginal
+                .flatMap(original -> imageStore.read(carId, CarImageSize.ORIGINAL, original.getHash()));
+        if (content.isEmpty()) {
+            logger.warn("No image to create variants from for car id={}", carId);
+            return;
+        }
+        String sourceHash = optionalOriginal.get().getHash();
+
+        BufferedImage source;
+        try (InputStream in = content.get().getInputStream()) {
+            source = ImageIO.read(in);
+        } catch (IOException e) {
+            logger.error("Could not read image for car id={}: {}", carId, e.getMessage());
+            return;
+        }
+        if (source == null) {
+            logger.warn("Unsupported image format for car id={}", carId);
+            return;
+        }
+
+        for (CarImageSize size : CarImageSize.values()) {
+            if (size == CarImageSize.ORIGINAL) {
+                continue;
+            }
+            try {
+                saveVariant(carId, size, sourceHash, source);
+            } catch (IOException | DataAccessException | UncheckedIOException e) {
+                logger.error("Could not create {} variant for car id={}: {}", size, carId, e.getMessage());
+            }
+        }
+        logger.info("Image variants created for car id={}", carId);
+    }
+
+    private void saveVariant(long carId, CarImageSize size, String sourceHash, BufferedImage source)
+            throws IOException {
+        BufferedImage scaled = scale(source, size.getMaxWidth(), size.getMaxHeight());
+        byte[] data = encodeJpeg(scaled);
+        String hash = ImageContentStream.sha256Hex(data);
+
+        // Metadata och innehåll sparas i samma transaktion, så att ingen läser en variant utan innehåll
+        String previousHash = transactionTemplate.execute(status -> {
+            boolean sourceIsCurrent = carRepo.findImageMetadata(carId)
+                    .map(CarImageDTO::getHash)
+                    .filter(sourceHash::equals)
+                    .isPresent();
+            if (!sourceIsCurrent) {
+                // Bilen har fått en ny bild eller tagits bort, ett nytt jobb tar hand om den
+                return null;
+            }
+            String previous = variantRepo.findHash(carId, size).orElse(null);
+            variantRepo.deleteByCarIdAndSize(carId, size);
+            variantRepo.saveAndFlush(new CarImageVariant(carId, size, VARIANT_CONTENT_TYPE, hash, sourceHash,
+                    scaled.getWidth(), scaled.getHeight(), Instant.now()));
+            try {
+                imageStore.write(carId, size, new ImageContentStream(new ByteArrayInputStream(data), data.length));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return previous;
+        });
+
+        if (previousHash != null && !previousHash.equals(hash)) {
+            imageStore.delete(carId, size, previousHash);
+        }
+    }
+
+    /**
+     * Skalar ner bilden så att den ryms inom maxWidth x maxHeight med bibehållna proportioner.
+     * Bilden halveras stegvis, eftersom en enda bilinjär nedskalning med stor faktor ger hackiga kanter.
+     * Mindre bilder förstoras inte.
+     */
+    static BufferedImage scale(BufferedImage source, int maxWidth, int maxHeight) {
+        double factor = Math.min(1.0, Math.min(
+                (double) maxWidth / source.getWidth(),
+                (double) maxHeight / source.getHeight()));
+        int targetWidth = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int targetHeight = Math.max(1, (int) Math.round(source.getHeight() * factor));
+
+        // JPEG saknar alfakanal, så bilden ritas alltid på vit bakgrund
+        BufferedImage current = resize(source, source.getWidth(), source.getHeight());
+        while (current.getWidth() != targetWidth || current.getHeight() != targetHeight) {
+            int width = Math.max(targetWidth, current.getWidth() / 2);
+            int height = Math.max(targetHeight, current.getHeight() / 2);
+            current = resize(current, width, height);
+        }
+        return current;
+    }
+
+    private static BufferedImage resize(BufferedImage source, int width, int height) {
+        BufferedImage target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,515 @@
+package com.wigell.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wigell.dao.CarRepo;
+import com.wigell.dto.CarImportReport;
+import com.wigell.entities.Car;
+import io.micrometer.core.annotation.Timed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Importerar bilar från ett ZIP-arkiv med ett manifest och bilder (POST /api/v1/cars/import).
+ *
+ * Manifestet heter manifest.csv (rubrikrad med kolumnnamn) eller manifest.ndjson (ett
+ * JSON-objekt per rad). Kolumnerna är name, model, feature1-3, type, price, booked och image,
+ * där image är sökvägen till bilden i arkivet. Arkivet läses som en ström, en post i taget:
+ * <ul>
+ *   <li>manifestet läses rad för rad och bilarna sparas i JDBC-batchar om app.cars.import.batch-size,</li>
+ *   <li>bilder efter manifestet strömmas direkt till bildlagringen,</li>
+ *   <li>bilder före manifestet, eller som används av flera bilar, mellanlagras som temporära filer.</li>
+ * </ul>
+ * Är bildkön full skapas varianterna av importen själv, så att inga bilar blir utan varianter
+ * och kön inte växer med arkivet.
+ * Minnet beror därför bara på antalet rader (högst app.cars.import.max-cars), inte på arkivets storlek.
+ *
+ * Varje batch och varje bild sparas i en egen transaktion. Rader som går igenom sparas även
+ * om andra rader är felaktiga, rapporten visar resultatet för varje rad.
+ */
+@Service
+@Timed(value = "app.service", description = "Service method latency")
+public class CarImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CarImportService.class);
+    private static final String MANIFEST_CSV = "manifest.csv";
+    private static final String MANIFEST_NDJSON = "manifest.ndjson";
+    private static final List<String> REQUIRED_COLUMNS = List.of("name", "model", "type", "price");
+    private static final int MAX_LINE_LENGTH = 8192;
+    // Samma gränser som kolumnerna i car-tabellen
+    private static final int MAX_TEXT_LENGTH = 255;
+    private static final int MAX_TYPE_LENGTH = 20;
+    private static final int MAX_UNUSED_IMAGES_REPORTED = 100;
+
+    private final CarRepo carRepo;
+    private final CarService carService;
+    private final CarCatalog carCatalog;
+    private final ObjectMapper objectMapper;
+    private final DataSize maxImageSize;
+    private final int batchSize;
+    private final int maxCars;
+
+    public CarImportService(CarRepo carRepo, CarService carService, CarCatalog carCatalog, ObjectMapper objectMapper,
+                            @Value("${app.images.max-upload-size:10MB}") DataSize maxImageSize,
+                            @Value("${app.cars.import.batch-size:100}") int batchSize,
+                            @Value("${app.cars.import.max-cars:10000}") int maxCars) {
+        this.carRepo = carRepo;
+        this.carService = carService;
+        this.carCatalog = carCatalog;
+        this.objectMapper = objectMapper;
+        this.maxImageSize = maxImageSize;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxCars = Math.max(1, maxCars);
+    }
+
+    /**
+     * Läser arkivet till slutet och importerar bilarna och deras bilder.
+     *
+     * @param archive ZIP-arkivet, stängs när importen är klar
+     * @return resultatet för varje rad i manifestet
+     * @throws IllegalArgumentException om arkivet saknar manifest, har flera manifest eller
+     *                                  om manifestets rubrikrad saknar obligatoriska kolumner
+     * @throws IOException              om arkivet inte kan läsas
+     */
+    public CarImportReport importCars(InputStream archive) throws IOException {
+        CarImportReport report = new CarImportReport();
+        Import state = new Import(report);
+        try (ZipInputStream zip = new ZipInputStream(archive)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = normalize(entry.getName());
+                if (name.equals(MANIFEST_CSV) || name.equals(MANIFEST_NDJSON)) {
+                    if (report.getManifest() != null) {
+                        throw new IllegalArgumentException("Archive contains more than one manifest");
+                    }
+                    report.setManifest(name);
+                    readManifest(zip, name.equals(MANIFEST_CSV), state);
+                    applySpooledImages(state);
+                } else if (report.getManifest() == null) {
+                    // Bilderna kopplas till bilar först när manifestet är läst
+                    spool(name, zip, state);
+                } else {
+                    saveImage(name, zip, state);
+                }
+            }
+        } finally {
+            state.deleteSpoolDirectory();
+        }
+        if (report.getManifest() == null) {
+            throw new IllegalArgumentException("Archive contains no " + MANIFEST_CSV + " or " + MANIFEST_NDJSON);
+        }
+        // Bilder som raderna angav men som inte fanns i arkivet
+        state.waitingForImage.forEach((image, items) -> items.forEach(item ->
+                item.reject(CarImportReport.Status.IMAGE_FAILED, "Image " + image + " not found in archive")));
+
+        logger.info("Car import finished: {} cars created, {} images saved, {} rows rejected",
+                report.getCarsCreated(), report.getImagesSaved(), report.getRejected());
+        return report;
+    }
+
+    private void readManifest(InputStream in, boolean csv, Import state) throws IOException {
+        // Läsaren stängs inte, det skulle stänga hela arkivet
+        Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        CarImportReport report = state.report;
+        List<String> header = null;
+        StringBuilder line = new StringBuilder();
+        long lineNumber = 0;
+        int rows = 0;
+        while (readLine(reader, line)) {
+            lineNumber++;
+            if (lineNumber == 1 && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                line.deleteCharAt(0);
+            }
+            if (line.toString().isBlank()) {
+                continue;
+            }
+            if (csv && header == null) {
+                header = parseHeader(line.toString());
+                continue;
+            }
+            if (rows == maxCars) {
+                report.getErrors().add("Manifest has more than " + maxCars + " cars, line "
+                        + lineNumber + " and later were not imported");
+                break;
+            }
+            rows++;
+
+            Map<String, String> fields;
+            String error = null;
+            if (line.length() > MAX_LINE_LENGTH) {
+                fields = Map.of();
+                error = "Line is longer than " + MAX_LINE_LENGTH + " characters";
+            } else {
+                try {
+                    fields = csv ? csvFields(header, line.toString()) : jsonFields(line.toString());
+                } catch (IllegalArgumentException e) {
+                    fields = Map.of();
+                    error = e.getMessage();
+                }
+            }
+            CarImportReport.Item item = new CarImportReport.Item(lineNumber, fields.get("name"), fields.get("image"));
+            report.getItems().add(item);
+            try {
+                if (error != null) {
+                    throw new IllegalArgumentException(error);
+                }
+                state.pendingCars.add(toCar(fields));
+                state.pendingItems.add(item);
+            } catch (IllegalArgumentException e) {
+                item.reject(CarImportReport.Status.INVALID, e.getMessage());
+                report.rejected();
+                continue;
+            }
+            if (state.pendingCars.size() == batchSize) {
+                insertPending(state);
+            }
+        }
+        insertPending(state);
+    }
+
+    private void insertPending(Import state) {
+        if (state.pendingCars.isEmpty()) {
+            return;
+        }
+        CarImportReport report = state.report;
+        try {
+            List<Long> ids = carRepo.insertAll(state.pendingCars);
+            for (int i = 0; i < ids.size(); i++) {
+                CarImportReport.Item item = state.pendingItems.get(i);
+                item.created(ids.get(i));
+                if (item.getImage() != null) {
+                    state.waitingForImage.computeIfAbsent(item.getImage(), image -> new ArrayList<>()).add(item);
+                }
+            }
+            report.carsCreated(ids.size());
+            carCatalog.invalidate();
+            logger.info("Car import: {} cars created so far", report.getCarsCreated());
+        } catch (DataAccessException e) {
+            logger.warn("Car import: could not save {} cars: {}", state.pendingCars.size(), e.getMessage());
+            for (CarImportReport.Item item : state.pendingItems) {
+                item.reject(CarImportReport.Status.FAILED, "Car could not be saved");
+                report.rejected();
+            }
+        } finally {
+            state.pendingCars.clear();
+            state.pendingItems.clear();
+        }
+    }
+
+    /**
+     * Sparar en bild som kommer efter manifestet. Används den av en bil strömmas den direkt
+     * till bildlagringen, används den av flera mellanlagras den först.
+     */
+    private void saveImage(String name, InputStream in, Import state) throws IOException {
+        List<CarImportReport.Item> items = state.waitingForImage.remove(name);
+        if (items == null) {
+            state.unused(name);
+            return;
+        }
+        if (items.size() == 1) {
+            saveImageFor(name, in, items.get(0), state.report);
+            return;
+        }
+        Path file = state.spoolFile();
+        try {
+            Files.copy(new ImageContentStream(in, maxImageSize.toBytes()), file, StandardCopyOption.REPLACE_EXISTING);
+            saveImageForAll(name, file, items, state.report);
+        } catch (IOException e) {
+            rejectImage(name, items, e);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private void spool(String name, InputStream in, Import state) throws IOException {
+        if (state.spooled.containsKey(name)) {
+            // Bara första posten med samma namn används
+            state.unused(name);
+            return;
+        }
+        Path file = state.spoolFile();
+        try {
+            Files.copy(new ImageContentStream(in, maxImageSize.toBytes()), file, StandardCopyOption.REPLACE_EXISTING);
+            state.spooled.put(name, file);
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            state.spoolErrors.put(name, e.getMessage());
+        }
+    }
+
+    private void applySpooledImages(Import state) throws IOException {
+        state.spoolErrors.forEach((name, error) -> {
+            List<CarImportReport.Item> items = state.waitingForImage.remove(name);
+            if (items != null) {
+                items.forEach(item -> item.reject(CarImportReport.Status.IMAGE_FAILED, error));
+            }
+        });
+        for (Map.Entry<String, Path> spooled : state.spooled.entrySet()) {
+            List<CarImportReport.Item> items = state.waitingForImage.remove(spooled.getKey());
+            if (items == null) {
+                state.unused(spooled.getKey());
+            } else {
+                saveImageForAll(spooled.getKey(), spooled.getValue(), items, state.report);
+            }
+            Files.deleteIfExists(spooled.getValue());
+        }
+        state.spooled.clear();
+        state.spoolErrors.clear();
+    }
+
+    private void saveImageForAll(String name, Path file, List<CarImportReport.Item> items, CarImportReport report)
+            throws IOException {
+        for (CarImportReport.Item item : items) {
+            try (InputStream in = Files.newInputStream(file)) {
+                saveImageFor(name, in, item, report);
+            }
+        }
+    }
+
+    private void saveImageFor(String name, InputStream in, CarImportReport.Item item, CarImportReport report) {
+        try {
+            carService.saveCarImage(item.getCarId(), in, URLConnection.guessContentTypeFromName(name), true);
+            report.imageSaved();
+        } catch (ResponseStatusException e) {
+            item.reject(CarImportReport.Status.IMAGE_FAILED, e.getReason());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Car import: could not save image {} for car id={}: {}", name, item.getCarId(), e.getMessage());
+            item.reject(CarImportReport.Status.IMAGE_FAILED, "Image could not be saved");
+        }
+    }
+
+    private static void rejectImage(String name, List<CarImportReport.Item> items, IOException e) {
+        logger.warn("Car import: could not read image {}: {}", name, e.getMessage());
+        items.forEach(item -> item.reject(CarImportReport.Status.IMAGE_FAILED, e.getMessage()));
+    }
+
+    private static Car toCar(Map<String, String> fields) {
+        String name = required(fields, "name", MAX_TEXT_LENGTH);
+        String model = required(fields, "model", MAX_TEXT_LENGTH);
+        String type = required(fields, "type", MAX_TYPE_LENGTH);
+        String priceText = required(fields, "price", MAX_TEXT_LENGTH);
+        double price;
+        try {
+            price = Double.parseDouble(priceText);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("price is not a number: " + priceText);
+        }
+        if (!Double.isFinite(price) || price < 0) {
+            throw new IllegalArgumentException("price must be zero or more");
+        }
+        String booked = fields.get("booked");
+        if (booked != null && !booked.equalsIgnoreCase("true") && !booked.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException("booked must be true or false");
+        }
+        return new Car(name, model, optional(fields, "feature1"), optional(fields, "feature2"),
+                optional(fields, "feature3"), type, price, Boolean.parseBoolean(booked));
+    }
+
+    private static String required(Map<String, String> fields, String column, int maxLength) {
+        String value = fields.get(column);
+        if (value == null) {
+            throw new IllegalArgumentException(column + " is required");
+        }
+        if (value.length() > maxLength) {
+            throw new IllegalArgumentException(column + " is longer than " + maxLength + " characters");
+        }
+        return value;
+    }
+
+    private static String optional(Map<String, String> fields, String column) {
+        String value = fields.get(column);
+        if (value != null && value.length() > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException(column + " is longer than " + MAX_TEXT_LENGTH + " characters");
+        }
+        return value;
+    }
+
+    private static List<String> parseHeader(String line) {
+        List<String> header = parseCsv(line).stream()
+                .map(column -> column.trim().toLowerCase(Locale.ROOT))
+                .toList();
+        for (String column : REQUIRED_COLUMNS) {
+            if (!header.contains(column)) {
+                throw new IllegalArgumentException("Manifest is missing column " + column);
+            }
+        }
+        return header;
+    }
+
+    private static Map<String, String> csvFields(List<String> header, String line) {
+        List<String> values = parseCsv(line);
+        if (values.size() != header.size()) {
+            throw new IllegalArgumentException("Expected " + header.size() + " columns, got " + values.size());
+        }
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            String value = values.get(i).trim();
+            if (!value.isEmpty()) {
+                fields.put(header.get(i), value);
+            }
+        }
+        return fields;
+    }
+
+    private Map<String, String> jsonFields(String line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON");
+        }
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        Map<String, String> fields = new HashMap<>();
+        node.fields().forEachRemaining(field -> {
+            JsonNode value = field.getValue();
+            if (value.isValueNode() && !value.isNull() && !value.asText().isBlank()) {
+                fields.put(field.getKey().toLowerCase(Locale.ROOT), value.asText().trim());
+            }
+        });
+        return fields;
+    }
+
+    /**
+     * Delar en CSV-rad på kommatecken. Fält inom citattecken får innehålla kommatecken,
+     * och "" inom citattecken blir ett citattecken. Radbrytningar inom fält stöds inte.
+     */
+    private static List<String> parseCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Läser nästa rad utan radbrytning. Rader längre än MAX_LINE_LENGTH läses till slutet
+     * men bara början sparas, så en rad utan radbrytning kan inte fylla minnet.
+     *
+     * @return false när filen är slut
+     */
+    private static boolean readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        boolean read = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            read = true;
+            if (c == '\n') {
+                break;
+            }
+            if (line.length() <= MAX_LINE_LENGTH) {
+                line.append((char) c);
+            }
+        }
+        if (!line.isEmpty() && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+        }
+        return read;
+    }
+
+    private static String normalize(String entryName) {
+        String name = entryName.replace('\\', '/');
+        while (name.startsWith("./") || name.startsWith("/")) {
+            name = name.substring(name.startsWith("./") ? 2 : 1);
+        }
+        return name;
+    }
+
+    /**
+     * Tillståndet för en import: bilar som väntar på nästa batch, sparade bilar som väntar
+     * på sin bild, och bilder som mellanlagrats innan manifestet lästs.
+     */
+    private static final class Import {
+
+        private final CarImportReport report;
+        private final List<Car> pendingCars = new ArrayList<>();
+        private final List<CarImportReport.Item> pendingItems = new ArrayList<>();
+        private final Map<String, List<CarImportReport.Item>> waitingForImage = new HashMap<>();
+        private final Map<String, Path> spooled = new HashMap<>();
+        private final Map<String, String> spoolErrors = new HashMap<>();
+        private Path spoolDirectory;
+
+        Import(CarImportReport report) {
+            this.report = report;
+        }
+
+        Path spoolFile() throws IOException {
+            if (spoolDirectory == null) {
+                spoolDirectory = Files.createTempDirectory("car-import-");
+            }
+            return Files.createTempFile(spoolDirectory, "image-", ".tmp");
+        }
+
+        void unused(String name) {
+            if (report.getUnusedImages().size() < MAX_UNUSED_IMAGES_REPORTED) {
+                report.getUnusedImages().add(name);
+            }
+        }
+
+        void deleteSpoolDirectory() {
+            if (spoolDirectory == null) {
+                return;
+            }
+            try (Stream<Path> files = Files.list(spoolDirectory)) {
+                for (Path file : files.toList()) {
+                    Files.deleteIfExists(file);
+                }
+                Files.deleteIfExists(spoolDirectory);
+            } catch (IOException e) {
+                logger.warn("Could not delete import directory {}: {}", spoolDirectory, e.getMessage());
+            }
+        }
+    }
+}
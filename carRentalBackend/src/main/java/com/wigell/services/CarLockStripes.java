@@ -0,0 +1,77 @@
+package com.wigell.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Lås per bil, fördelade på ett fast antal lås (lock striping) så att minnet inte växer
+ * med antalet bilar. Två bilar kan dela lås, vilket bara gör att de väntar på varandra.
+ *
+ * Låsen tas alltid i stigande ordning, så att två anrop som låser flera bilar aldrig
+ * hamnar i deadlock.
+ *
+ * Tiden det tar att få alla lås mäts i app.bookings.lock.wait.
+ */
+@Component
+public class CarLockStripes {
+
+    private final ReentrantLock[] stripes;
+    private final Timer lockWait;
+
+    public CarLockStripes(@Value("${app.bookings.lock-stripes:64}") int stripeCount, MeterRegistry meterRegistry) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("app.bookings.lock-stripes must be at least 1");
+        }
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.lockWait = Timer.builder("app.bookings.lock.wait")
+                .description("Time spent waiting for the car locks of a booking")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Kör action med låsen för de angivna bilarna. Null-id ignoreras.
+     *
+     * @param carIds bilarna som ska låsas
+     * @param action arbetet som ska utföras
+     * @return resultatet från action
+     */
+    public <T> T withLocks(Collection<Long> carIds, Supplier<T> action) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        carIds.stream()
+                .filter(Objects::nonNull)
+                .forEach(carId -> indexes.add(stripeFor(carId)));
+
+        Deque<ReentrantLock> locked = new ArrayDeque<>(indexes.size());
+        try {
+            long start = System.nanoTime();
+            for (int index : indexes) {
+                stripes[index].lock();
+                locked.push(stripes[index]);
+            }
+            lockWait.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return action.get();
+        } finally {
+            while (!locked.isEmpty()) {
+                locked.pop().unlock();
+            }
+        }
+    }
+
+    private int stripeFor(long carId) {
+        return Math.floorMod(Long.hashCode(carId), stripes.length);
+    }
+}
@@ -1,40 +1,140 @@
 package com.wigell.services;
 
+import com.wigell.dao.CarImageVariantRepo;
 import com.wigell.dao.CarRepo;
+import com.wigell.dto.CarImageDTO;
+import com.wigell.dto.CarSummary;
+import com.wigell.dto.PageDTO;
 import com.wigell.entities.Car;
+import com.wigell.entities.CarImageSize;
+import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-// import org.springframework.beans.factory.annotation.Value; // Ej längre nödvändig när vi lagrar i databasen
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
 
 @Service
+@Timed(value = "app.service", description = "Service method latency")
 public class CarService {
 
     private static final Logger logger = LoggerFactory.getLogger(CarService.class);
+    // Gamla bilder sparades utan content type och visades alltid som JPEG
+    private static final String DEFAULT_IMAGE_CONTENT_TYPE = "image/jpeg";
     private final CarRepo carRepo;
+    private final CarImageVariantRepo variantRepo;
+    private final CarImageVariantService variantService;
+    private final CarImageStore imageStore;
+    private final DatabaseCarImageStore databaseImageStore;
+    private final DataSize maxUploadSize;
+    private final CarAvailabilityIndex availabilityIndex;
+    private final CarCatalog carCatalog;
 
     @Autowired
-    public CarService(CarRepo carRepo) {
+    public CarService(CarRepo carRepo, CarImageVariantRepo variantRepo, CarImageVariantService variantService,
+                      CarImageStore imageStore, DatabaseCarImageStore databaseImageStore,
+                      @Value("${app.images.max-upload-size:10MB}") DataSize maxUploadSize,
+                      CarAvailabilityIndex availabilityIndex, CarCatalog carCatalog) {
         this.carRepo = carRepo;
+        this.variantRepo = variantRepo;
+        this.variantService = variantService;
+        this.imageStore = imageStore;
+        this.databaseImageStore = databaseImageStore;
+        this.maxUploadSize = maxUploadSize;
+        this.availabilityIndex = availabilityIndex;
+        this.carCatalog = carCatalog;
     }
 
-    public List<Car> getAllCars() {
-        return carRepo.findAll();
+    @Transactional(readOnly = true)
+    public List<CarSummary> getAllCars() {
+        return carRepo.findAllSummaries();
+    }
+
+    /**
+     * Hämtar hela bilkatalogen som färdig JSON med ETag.
+     * Byggs om först när någon bil har ändrats (se CarCatalog).
+     */
+    public CarCatalog.Snapshot getCatalog() {
+        return carCatalog.current();
+    }
+
+    /**
+     * Hämtar en sida bilar i id-ordning (keyset-paginering).
+     *
+     * @param after  sista id:t från föregående sida, null för första sidan
+     * @param limit  max antal bilar på sidan
+     * @param type   filtrera på typ, null för alla
+     * @param booked filtrera på booked, null för alla
+     * @return sidan och id:t som nästa sida börjar efter
+     */
+    @Transactional(readOnly = true)
+    public PageDTO<CarSummary> getCarsPage(Long after, int limit, String type, Boolean booked) {
+        List<CarSummary> rows = carRepo.findSummaryPage(after == null ? 0 : after, type, booked,
+                PageRequest.of(0, limit + 1));
+        return PageDTO.of(rows, limit, CarSummary::getId);
+    }
+
+    /**
+     * Hämtar bilar som inte har någon aktiv bokning som överlappar perioden.
+     * Överlappen avgörs i minnet av CarAvailabilityIndex.
+     *
+     * @param from första dagen (inklusive)
+     * @param to   sista dagen (inklusive)
+     * @return lista med lediga bilar
+     * @throws IllegalArgumentException om to är före from
+     */
+    @Transactional(readOnly = true)
+    public List<CarSummary> getAvailableCars(LocalDate from, LocalDate to) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("to must not be before from");
+        }
+        return carRepo.findAllSummaries().stream()
+                .filter(car -> availabilityIndex.isAvailable(car.getId(), from, to))
+                .toList();
     }
 
     public Car addCar(Car car) {
         Car savedCar = carRepo.save(car);
+        carCatalog.invalidate();
         logger.info("New car added: id={}, name={}, model={}", savedCar.getId(), savedCar.getName(), savedCar.getModel());
         return savedCar;
     }
 
+    /**
+     * Lägger till en ny bil och sparar dess bild i samma transaktion,
+     * så att bilen inte finns kvar om bilden inte kan sparas.
+     *
+     * @param car       bilen som ska sparas
+     * @param imageFile bilens bild, kan vara null
+     * @return den sparade bilen
+     */
+    @Transactional
+    public Car addCar(Car car, MultipartFile imageFile) {
+        Car savedCar = addCar(car);
+        if (imageFile != null && !imageFile.isEmpty()) {
+            saveCarImageToDb(savedCar.getId(), imageFile);
+        }
+        return savedCar;
+    }
+
 /*    public Car updateCar(Car updatedCar) {
         Optional<Car> optionalCar = carRepo.findById(updatedCar.getId());
         if (optionalCar.isPresent()) {
@@ -70,7 +170,9 @@ public class CarService {
         existingCar.setFeature2(updatedCar.getFeature2());
         existingCar.setFeature3(updatedCar.getFeature3());
         existingCar.setBooked(updatedCar.isBooked());
-        return carRepo.save(existingCar);
+        Car savedCar = carRepo.save(existingCar);
+        carCatalog.invalidate();
+        return savedCar;
     }
 
 
@@ -86,7 +188,17 @@ public class CarService {
     @Transactional
     public void deleteCarById(Long id) {
         if (carRepo.existsById(id)) {
+            Optional<CarImageDTO> image = carRepo.findImageMetadata(id);
+            for (CarImageSize size : CarImageSize.values()) {
+                Optional<String> hash = size == CarImageSize.ORIGINAL
+                        ? image.map(CarImageDTO::getHash)
+                        : variantRepo.findHash(id, size);
+                hash.ifPresent(h -> deleteImageContentAfterCommit(id, size, h));
+            }
+            variantRepo.deleteByCarId(id);
             carRepo.deleteById(id);
+            availabilityIndex.removeCar(id);
+            carCatalog.invalidate();
             logger.info("Car deleted: id={}", id);
         } else {
             logger.warn("Attempted to delete non-existing car: id={}", id);
@@ -94,29 +206,179 @@ public class CarService {
         }
     }
 
-    public Optional<Car> getCar(Long id) {
-        return carRepo.findById(id);
+    /**
+     * Hämtar en bil utan bilddata. Bilen läses via andra nivåns cache.
+     *
+     * @param id bilens id
+     * @return Optional med bilen, tom om den inte finns
+     */
+    public Optional<CarSummary> getCar(Long id) {
+        return carRepo.findById(id).map(CarService::toSummary);
+    }
+
+    private static CarSummary toSummary(Car car) {
+        return new CarSummary(car.getId(), car.getName(), car.getModel(), car.getType(), car.getPrice(),
+                car.getFeature1(), car.getFeature2(), car.getFeature3(), car.isBooked(), car.getImageHash());
     }
 
     /**
-     * Sparar bilens bild i databasen genom att uppdatera bilens image-fält.
+     * Hämtar bilens bild i önskad storlek tillsammans med content type, hash och ändringstid.
+     * Finns ingen aktuell variant i den storleken (t.ex. medan den skapas) returneras originalet.
      *
      * @param id   bilens id
-     * @param file MultipartFile med bilens bild
+     * @param size önskad storlek
+     * @return Optional med bilden, tom om bilen inte finns eller saknar bild
      */
-    public void saveCarImageToDb(long id, MultipartFile file) {
+    @Transactional(readOnly = true)
+    public Optional<CarImageDTO> getCarImage(Long id, CarImageSize size) {
+        Optional<CarImageDTO> optionalOriginal = carRepo.findImageMetadata(id);
+        if (optionalOriginal.isEmpty()) {
+            return Optional.empty();
+        }
+        CarImageDTO original = optionalOriginal.get();
+        String version = Car.imageVersionOf(original.getHash());
+
+        if (size != CarImageSize.ORIGINAL) {
+            Optional<CarImageDTO> variant = variantRepo.findCurrentMetadata(id, size, original.getHash())
+                    .flatMap(v -> withContent(id, size, v, version));
+            if (variant.isPresent()) {
+                return variant;
+            }
+        }
+        return withContent(id, CarImageSize.ORIGINAL, original, version);
+    }
+
+    private Optional<CarImageDTO> withContent(long id, CarImageSize size, CarImageDTO image, String version) {
+        return imageStore.read(id, size, image.getHash()).map(resource -> {
+            image.setResource(resource);
+            image.setSize(size);
+            image.setVersion(version);
+            return image;
+        });
+    }
+
+    /**
+     * Sparar en ny bild för bilen i den konfigurerade bildlagringen och uppdaterar
+     * content type, hash och ändringstid. Bilden strömmas till lagringen och hashas
+     * och typbestäms under tiden, så hela filen hamnar aldrig på heapen.
+     * Content type avgörs i första hand från filens första bytes.
+     * Varianter skapas i bakgrunden efter commit.
+     *
+     * @param id                  bilens id
+     * @param in                  bildens innehåll, läses till slutet men stängs inte
+     * @param declaredContentType content type som klienten angav, kan vara null
+     * @throws IllegalArgumentException om bilen inte finns
+     * @throws ResponseStatusException  (413) om bilden är större än app.images.max-upload-size
+     */
+    @Transactional
+    public void saveCarImage(long id, InputStream in, String declaredContentType) throws IOException {
+        saveCarImage(id, in, declaredContentType, false);
+    }
+
+    /**
+     * Som saveCarImage(long, InputStream, String). Med bulk skapas varianterna på den
+     * anropande tråden om bildkön är full (se CarImageVariantService), för import av många bilar.
+     */
+    @Transactional
+    public void saveCarImage(long id, InputStream in, String declaredContentType, boolean bulk) throws IOException {
+        CarSummary car = getCar(id)
+                .orElseThrow(() -> new IllegalArgumentException("Car with id " + id + " not found."));
+
+        ImageContentStream content = new ImageContentStream(in, maxUploadSize.toBytes());
+        String hash;
         try {
-            Optional<Car> optionalCar = carRepo.findById(id);
-            if (optionalCar.isPresent()) {
-                Car car = optionalCar.get();
-                // Sätt image-fältet med filens innehåll
-                car.setImage(file.getBytes());
-                carRepo.save(car);
-                logger.info("Image saved in DB for car id={}", Optional.of(id));
-            } else {
-                logger.error("Car with id {} not found to save image", Optional.of(id));
-                throw new IllegalArgumentException("Car with id " + id + " not found.");
+            hash = imageStore.write(id, CarImageSize.ORIGINAL, content);
+        } catch (IOException | DataAccessException e) {
+            // JDBC-drivern slår in fel från strömmen i ett eget undantag
+            if (content.isLimitExceeded()) {
+                throw new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "Image exceeds the maximum size of " + maxUploadSize.toMegabytes() + " MB");
+            }
+            throw e;
+        }
+        String contentType = detectContentType(content.getDetectedContentType(), declaredContentType);
+        carRepo.updateImageMetadata(id, contentType, hash, Instant.now());
+        // Bildens version ingår i katalogens imageUrl
+        carCatalog.invalidate();
+
+        String previousHash = car.getImageHash();
+        if (previousHash != null && !previousHash.equals(hash)) {
+            deleteImageContentAfterCommit(id, CarImageSize.ORIGINAL, previousHash);
+        }
+        variantService.scheduleVariants(id, bulk);
+        logger.info("Image saved for car id={}", id);
+    }
+
+    /**
+     * Fyller i content type, hash och ändringstid för bilar vars bild
+     * sparades i databasen innan dessa kolumner fanns.
+     *
+     * @return antal bilar som uppdaterades
+     */
+    @Transactional
+    public int backfillImageMetadata() {
+        List<Long> ids = carRepo.findIdsWithImageButNoHash();
+        for (Long id : ids) {
+            byte[] data = databaseImageStore.readLegacy(id);
+            if (data != null) {
+                ImageContentStream content = new ImageContentStream(new ByteArrayInputStream(data), data.length);
+                try {
+                    content.transferTo(OutputStream.nullOutputStream());
+                } catch (IOException e) {
+                    // Kan inte hända för en ByteArrayInputStream
+                }
+                carRepo.updateImageMetadata(id, detectContentType(content.getDetectedContentType(), null),
+                        content.getHash(), Instant.now());
+                variantService.scheduleVariants(id);
             }
+        }
+        if (!ids.isEmpty()) {
+            carCatalog.invalidate();
+        }
+        return ids.size();
+    }
+
+    /**
+     * Tar bort bildinnehåll först när transaktionen har gått igenom,
+     * så att en rollback aldrig lämnar rader som pekar på borttagna filer.
+     */
+    void deleteImageContentAfterCommit(long carId, CarImageSize size, String hash) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    imageStore.delete(carId, size, hash);
+                }
+            });
+        } else {
+            imageStore.delete(carId, size, hash);
+        }
+    }
+
+    private static String detectContentType(String sniffedContentType, String declaredContentType) {
+        if (sniffedContentType != null) {
+            return sniffedContentType;
+        }
+        if (declaredContentType != null && declaredContentType.startsWith("image/")) {
+            return declaredContentType;
+        }
+        return DEFAULT_IMAGE_CONTENT_TYPE;
+    }
+
+    /**
+     * Sparar bilens bild i den konfigurerade bildlagringen.
+     * Filen läses som en ström från den temporära uppladdningsfilen, inte med getBytes().
+     *
+     * @param id   bilens id
+     * @param file MultipartFile med bilens bild
+     */
+    @Transactional
+    public void saveCarImageToDb(long id, MultipartFile file) {
+        try (InputStream in = file.getInputStream()) {
+            saveCarImage(id, in, file.getContentType());
+        } catch (IllegalArgumentException e) {
+            logger.error("Car with id {} not found to save image", Optional.of(id));
+            throw e;
         } catch (IOException e) {
             logger.error("Error saving image to DB for car id={}: {}", Optional.of(id), e.getMessage());
             throw new RuntimeException("Error uploading file", e);
@@ -0,0 +1,77 @@
+package com.wigell.services;
+
+import com.wigell.entities.CarImageSize;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Lagrar bilder som LONGBLOB i databasen: originalet i car.image och
+ * varianterna i car_image_variant.data. Kolumnerna skrivs bara härifrån,
+ * aldrig via entiteterna.
+ */
+@Component
+public class DatabaseCarImageStore implements CarImageStore {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public DatabaseCarImageStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public String write(long carId, CarImageSize size, ImageContentStream content) {
+        // setBinaryStream låter JDBC-drivern läsa strömmen i block i stället för att få hela bilden som byte[]
+        if (size == CarImageSize.ORIGINAL) {
+            jdbcTemplate.update("update car set image = ? where id = ?", ps -> {
+                ps.setBinaryStream(1, content);
+                ps.setLong(2, carId);
+            });
+        } else {
+            jdbcTemplate.update("update car_image_variant set data = ? where car_id = ? and variant = ?", ps -> {
+                ps.setBinaryStream(1, content);
+                ps.setLong(2, carId);
+                ps.setString(3, size.name());
+            });
+        }
+        return content.getHash();
+    }
+
+    @Override
+    public Optional<Resource> read(long carId, CarImageSize size, String hash) {
+        List<byte[]> rows = size == CarImageSize.ORIGINAL
+                ? jdbcTemplate.query("select image from car where id = ? and image_hash = ?",
+                        (rs, rowNum) -> rs.getBytes(1), carId, hash)
+                : jdbcTemplate.query("select data from car_image_variant where car_id = ? and variant = ? and hash = ?",
+                        (rs, rowNum) -> rs.getBytes(1), carId, size.name(), hash);
+        return rows.stream()
+                .filter(data -> data != null)
+                .findFirst()
+                .map(ByteArrayResource::new);
+    }
+
+    /**
+     * Läser originalbilden oavsett hash, för bilder som sparades innan hash fanns.
+     *
+     * @return bildens innehåll eller null om bilen saknar bild
+     */
+    public byte[] readLegacy(long carId) {
+        List<byte[]> rows = jdbcTemplate.query("select image from car where id = ?",
+                (rs, rowNum) -> rs.getBytes(1), carId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    @Override
+    public void delete(long carId, CarImageSize size, String hash) {
+        if (size == CarImageSize.ORIGINAL) {
+            jdbcTemplate.update("update car set image = null where id = ? and image_hash = ?", carId, hash);
+        } else {
+            jdbcTemplate.update("update car_image_variant set data = null where car_id = ? and variant = ? and hash = ?",
+                    carId, size.name(), hash);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.wigell.services;
+
+import com.wigell.dao.CarImageVariantRepo;
+import com.wigell.dao.CarRepo;
+import com.wigell.entities.CarImageSize;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Lagrar bilder som filer i en lokal katalog, adresserade efter innehållets hash
+ * (t.ex. ab/ab12...). Samma bild lagras bara en gång oavsett hur många bilar som använder den.
+ * Filerna kan skickas direkt från disk med sendfile, utan att passera Java-heapen.
+ */
+@Component
+public class FileSystemCarImageStore implements CarImageStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemCarImageStore.class);
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-f]{64}");
+
+    private final Path root;
+    private final CarRepo carRepo;
+    private final CarImageVariantRepo variantRepo;
+
+    public FileSystemCarImageStore(@Value("${app.images.directory:data/car-images}") Path root,
+                                   CarRepo carRepo, CarImageVariantRepo variantRepo) {
+        this.root = root.toAbsolutePath().normalize();
+        this.carRepo = carRepo;
+        this.variantRepo = variantRepo;
+    }
+
+    @Override
+    public String write(long carId, CarImageSize size, ImageContentStream content) throws IOException {
+        Files.createDirectories(root);
+        // Hashen är känd först när allt är läst, så strömmen skrivs till en temporär fil
+        // som sedan flyttas till sin plats. Ingen läser därmed en halvskriven bild.
+        Path temp = Files.createTempFile(root, "upload-", ".tmp");
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            String hash = content.getHash();
+            Path target = pathFor(hash);
+            if (!Files.exists(target)) {
+                Files.createDirectories(target.getParent());
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // Samma innehåll skrevs samtidigt av någon annan
+                }
+            }
+            return hash;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public Optional<Resource> read(long carId, CarImageSize size, String hash) {
+        Path path = pathFor(hash);
+        return Files.isRegularFile(path) ? Optional.of(new FileSystemResource(path)) : Optional.empty();
+    }
+
+    @Override
+    public void delete(long carId, CarImageSize size, String hash) {
+        // Filen kan delas med andra bilar eller varianter som har samma innehåll
+        if (carRepo.countByImageHash(hash) > 0 || variantRepo.countByHash(hash) > 0) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(pathFor(hash));
+        } catch (IOException e) {
+            // En kvarglömd fil påverkar inte funktionen
+            logger.warn("Could not delete image {}: {}", hash, e.getMessage());
+        }
+    }
+
+    private Path pathFor(String hash) {
+        if (hash == null || !SHA256_HEX.matcher(hash).matches()) {
+            throw new IllegalArgumentException("Invalid image hash: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+}
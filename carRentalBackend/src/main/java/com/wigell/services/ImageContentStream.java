@@ -0,0 +1,149 @@
+package com.wigell.services;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Ström med bildinnehåll som räknar, hashar (SHA-256) och känner igen bildformat
+ * medan den läses. Bilden behöver därför aldrig ligga i minnet i sin helhet,
+ * den skickas vidare till CarImageStore i små block.
+ *
+ * Hash och längd gäller först när strömmen är läst till slutet.
+ */
+public class ImageContentStream extends FilterInputStream {
+
+    // Tillräckligt för att känna igen JPEG, PNG, GIF och WebP
+    private static final int HEADER_LENGTH = 12;
+
+    private final MessageDigest digest = newSha256();
+    private final long maxBytes;
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int headerLength;
+    private long length;
+    private boolean limitExceeded;
+    private String hash;
+
+    /**
+     * @param in       strömmen som ska läsas
+     * @param maxBytes största tillåtna storlek, läsning efter det ger IOException
+     */
+    public ImageContentStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int n = read(single, 0, 1);
+        return n == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n > 0) {
+            length += n;
+            if (length > maxBytes) {
+                limitExceeded = true;
+                throw new IOException("Image exceeds the maximum size of " + maxBytes + " bytes");
+            }
+            digest.update(b, off, n);
+            if (headerLength < HEADER_LENGTH) {
+                int count = Math.min(n, HEADER_LENGTH - headerLength);
+                System.arraycopy(b, off, header, headerLength, count);
+                headerLength += count;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Överhoppade bytes måste också hashas
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * SHA-256 (hex) av allt som har lästs.
+     */
+    public String getHash() {
+        if (hash == null) {
+            hash = HexFormat.of().formatHex(digest.digest());
+        }
+        return hash;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isLimitExceeded() {
+        return limitExceeded;
+    }
+
+    /**
+     * Bildformat utifrån filens första bytes, eller null om formatet är okänt.
+     */
+    public String getDetectedContentType() {
+        if (startsWith(0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return "image/png";
+        }
+        if (startsWith('G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith('R', 'I', 'F', 'F') && headerLength >= 12
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "image/webp";
+        }
+        return null;
+    }
+
+    private boolean startsWith(int... magic) {
+        if (headerLength < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((header[i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * SHA-256 (hex) av en hel byte-array.
+     */
+    public static String sha256Hex(byte[] data) {
+        return HexFormat.of().formatHex(newSha256().digest(data));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 saknas i JVM:en", e);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.wigell.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Räknar misslyckade inloggningar per användarnamn och per IP-adress i ett glidande fönster.
+ * När gränsen är nådd nekas nya försök direkt, innan lösenordet hashas, tills det äldsta
+ * misslyckandet har fallit ur fönstret. En lyckad inloggning nollställer användarnamnet,
+ * men inte IP-adressen.
+ *
+ * Nycklarna ligger i en Caffeine-cache med övre gräns, så att försök med många olika
+ * användarnamn inte kan fylla minnet.
+ */
+@Component
+public class LoginAttemptTracker {
+
+    private final int maxPerUsername;
+    private final int maxPerIp;
+    private final long windowMillis;
+    private final Cache<String, FailureWindow> windows;
+
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    public LoginAttemptTracker(@Value("${app.auth.login.max-failures-per-username:5}") int maxPerUsername,
+                               @Value("${app.auth.login.max-failures-per-ip:20}") int maxPerIp,
+                               @Value("${app.auth.login.failure-window:5m}") Duration window,
+                               @Value("${app.auth.login.max-tracked-keys:100000}") long maxTrackedKeys) {
+        this.maxPerUsername = Math.max(1, maxPerUsername);
+        this.maxPerIp = Math.max(1, maxPerIp);
+        this.windowMillis = window.toMillis();
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(maxTrackedKeys)
+                .expireAfterAccess(window)
+                .build();
+    }
+
+    /**
+     * Nekar försöket om användarnamnet eller IP-adressen har för många misslyckanden i fönstret.
+     *
+     * @throws LoginThrottledException om försöket ska nekas utan lösenordskontroll
+     */
+    public void checkAllowed(String username, String ip) {
+        long now = System.currentTimeMillis();
+        long retryAfter = Math.max(retryAfter(usernameKey(username), now), retryAfter(ipKey(ip), now));
+        if (retryAfter > 0) {
+            shortCircuited.increment();
+            throw new LoginThrottledException("Too many failed login attempts", Math.max(1, retryAfter / 1000));
+        }
+    }
+
+    public void recordFailure(String username, String ip) {
+        long now = System.currentTimeMillis();
+        failures.increment();
+        windows.get(usernameKey(username), key -> new FailureWindow(maxPerUsername)).add(now);
+        windows.get(ipKey(ip), key -> new FailureWindow(maxPerIp)).add(now);
+    }
+
+    public void recordSuccess(String username) {
+        windows.invalidate(usernameKey(username));
+    }
+
+    /**
+     * Räknare sedan start och antal spårade nycklar.
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("failures", failures.sum());
+        stats.put("shortCircuited", shortCircuited.sum());
+        stats.put("trackedKeys", windows.estimatedSize());
+        return stats;
+    }
+
+    // Millisekunder tills nyckeln får försöka igen, 0 om den inte är spärrad
+    private long retryAfter(String key, long now) {
+        FailureWindow window = windows.getIfPresent(key);
+        return window == null ? 0 : window.blockedFor(now, windowMillis);
+    }
+
+    private static String usernameKey(String username) {
+        return "u:" + (username == null ? "" : username.trim().toLowerCase(Locale.ROOT));
+    }
+
+    private static String ipKey(String ip) {
+        return "ip:" + ip;
+    }
+
+    /**
+     * De senaste max misslyckandena i en ring. Är ringen full och det äldsta misslyckandet
+     * ligger inom fönstret är gränsen nådd.
+     */
+    private static final class FailureWindow {
+        private final long[] times;
+        private int next;
+        private int count;
+
+        private FailureWindow(int max) {
+            this.times = new long[max];
+        }
+
+        private synchronized void add(long now) {
+            times[next] = now;
+            next = (next + 1) % times.length;
+            count = Math.min(count + 1, times.length);
+        }
+
+        private synchronized long blockedFor(long now, long windowMillis) {
+            if (count < times.length) {
+                return 0;
+            }
+            long oldest = times[next];
+            return Math.max(0, oldest + windowMillis - now);
+        }
+    }
+}
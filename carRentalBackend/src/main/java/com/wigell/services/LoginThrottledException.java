@@ -0,0 +1,19 @@
+package com.wigell.services;
+
+/**
+ * Kastas när en inloggning nekas utan att lösenordet kontrolleras: för många misslyckade
+ * försök nyligen, eller att lösenordskontrollerna redan är fullbelagda. Ska ge 429.
+ */
+public class LoginThrottledException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public LoginThrottledException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,45 @@
+package com.wigell.services;
+
+import com.wigell.dao.UserRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Stämmer av User.noOfOrders mot bokningstabellen. Räknaren uppdateras atomärt vid varje
+ * bokning och borttagning, men kan ändå glida isär om bokningar ändras direkt i databasen
+ * eller om en räknaruppdatering gick förlorad. Jobbet räknar om värdet för de användare
+ * där det inte stämmer.
+ *
+ * Körs enligt app.users.reconcile-orders-cron ("-" stänger av jobbet).
+ */
+@Component
+public class OrderCountReconciler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderCountReconciler.class);
+
+    private final UserRepo userRepo;
+
+    public OrderCountReconciler(UserRepo userRepo) {
+        this.userRepo = userRepo;
+    }
+
+    /**
+     * Räknar om orderräknaren för alla användare vars värde skiljer sig från antalet bokningar.
+     *
+     * @return antal användare som rättades
+     */
+    @Scheduled(cron = "${app.users.reconcile-orders-cron:0 30 3 * * *}")
+    @Transactional
+    public int reconcile() {
+        int corrected = userRepo.reconcileOrderCounts();
+        if (corrected > 0) {
+            logger.warn("Corrected noOfOrders for {} users", corrected);
+        } else {
+            logger.info("Order counters are consistent with bookings");
+        }
+        return corrected;
+    }
+}
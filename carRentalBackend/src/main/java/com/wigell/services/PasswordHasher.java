@@ -0,0 +1,153 @@
+package com.wigell.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Kör lösenordshashning (BCrypt) i en egen, begränsad trådpool, så att en våg av inloggningar
+ * inte kan ta alla processorkärnor från resten av applikationen. Är kön full, eller blir
+ * arbetet inte klart inom app.auth.hashing.timeout, nekas anropet direkt med
+ * LoginThrottledException (429) i stället för att vänta.
+ *
+ * Håller även räknare för hashtid och nekade anrop, som också exporteras som mätvärden.
+ */
+@Component
+public class PasswordHasher implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+    private static final long RETRY_AFTER_SECONDS = 1;
+
+    private final ThreadPoolExecutor executor;
+    private final Duration timeout;
+
+    private final LongAdder hashes = new LongAdder();
+    private final LongAdder hashNanos = new LongAdder();
+    private final LongAccumulator maxHashNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder rejectedQueueFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+
+    public PasswordHasher(@Value("${app.auth.hashing.threads:0}") int threads,
+                          @Value("${app.auth.hashing.queue-capacity:32}") int queueCapacity,
+                          @Value("${app.auth.hashing.timeout:5s}") Duration timeout) {
+        // 0 = hälften av kärnorna, så att bokningarna alltid har kärnor kvar
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hash-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.timeout = timeout;
+        logger.info("Password hashing pool: {} threads, queue capacity {}", poolSize, queueCapacity);
+    }
+
+    /**
+     * Kör en lösenordsoperation i trådpoolen och väntar på resultatet.
+     *
+     * @throws LoginThrottledException om kön är full eller operationen inte hann köras
+     */
+    public <T> T run(Callable<T> operation) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> timed(operation));
+        } catch (RejectedExecutionException e) {
+            rejectedQueueFull.increment();
+            throw new LoginThrottledException("Password verification is saturated", RETRY_AFTER_SECONDS);
+        }
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejectedTimeout.increment();
+            throw new LoginThrottledException("Password verification timed out", RETRY_AFTER_SECONDS);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while verifying password", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Password operation failed", cause);
+        }
+    }
+
+    private <T> T timed(Callable<T> operation) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return operation.call();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            hashes.increment();
+            hashNanos.add(elapsed);
+            maxHashNanos.accumulate(elapsed);
+        }
+    }
+
+    /**
+     * Trådpoolen (executor.*{name="password.hash"}), hashtid och nekade anrop.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(executor, "password.hash", Tags.empty()).bindTo(registry);
+        FunctionTimer.builder("app.auth.hashing", this, h -> h.hashes.sum(), h -> h.hashNanos.sum(), TimeUnit.NANOSECONDS)
+                .description("Password hashing operations run in the pool")
+                .register(registry);
+        FunctionCounter.builder("app.auth.hashing.rejected", this, h -> h.rejectedQueueFull.sum())
+                .tag("reason", "queue_full")
+                .register(registry);
+        FunctionCounter.builder("app.auth.hashing.rejected", this, h -> h.rejectedTimeout.sum())
+                .tag("reason", "timeout")
+                .register(registry);
+    }
+
+    /**
+     * Räknare sedan start: antal hashningar, medel- och maxtid, nekade anrop och kölängd.
+     */
+    public Map<String, Object> stats() {
+        long count = hashes.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hashes", count);
+        stats.put("meanMillis", count == 0 ? 0.0 : hashNanos.sum() / 1_000_000.0 / count);
+        stats.put("maxMillis", maxHashNanos.get() / 1_000_000.0);
+        stats.put("rejectedQueueFull", rejectedQueueFull.sum());
+        stats.put("rejectedTimeout", rejectedTimeout.sum());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("threads", executor.getMaximumPoolSize());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,77 @@
+package com.wigell.services;
+
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Kodar om lösenord vars hash är föråldrad (saknar {id}-prefix eller har lägre BCrypt-kostnad
+ * än den kalibrerade) efter en lyckad inloggning, när det rena lösenordet är känt.
+ *
+ * Formulärinloggningen anropar updatePassword via DaoAuthenticationProvider,
+ * LoginController anropar upgradeIfNeeded. Ett misslyckat byte loggas men stoppar
+ * aldrig inloggningen, hashen byts då vid nästa inloggning.
+ */
+@Service
+public class PasswordUpgrader implements UserDetailsPasswordService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordUpgrader.class);
+
+    private final UserRepo userRepo;
+    private final PasswordEncoder passwordEncoder;
+    private final AtomicLong upgraded = new AtomicLong();
+
+    public PasswordUpgrader(UserRepo userRepo, PasswordEncoder passwordEncoder) {
+        this.userRepo = userRepo;
+        this.passwordEncoder = passwordEncoder;
+    }
+
+    /**
+     * Kodar om och sparar lösenordet om hashen är föråldrad.
+     *
+     * @param user        den inloggade användaren
+     * @param rawPassword lösenordet som just kontrollerats
+     */
+    public void upgradeIfNeeded(UserDetails user, String rawPassword) {
+        if (!passwordEncoder.upgradeEncoding(user.getPassword())) {
+            return;
+        }
+        try {
+            updatePassword(user, passwordEncoder.encode(rawPassword));
+        } catch (RuntimeException e) {
+            // T.ex. LoginThrottledException när lösenordskontrollerna är fullbelagda
+            logger.warn("Could not rehash password for {}: {}", user.getUsername(), e.getMessage());
+        }
+    }
+
+    @Override
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        if (!(user instanceof User u)) {
+            return user;
+        }
+        try {
+            if (userRepo.updatePassword(u.getId(), u.getPassword(), newPassword) > 0) {
+                u.setPassword(newPassword);
+                upgraded.incrementAndGet();
+                logger.debug("Rehashed password for user {}", u.getId());
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not store rehashed password for user {}: {}", u.getId(), e.getMessage());
+        }
+        return user;
+    }
+
+    /**
+     * @return antal lösenord som kodats om sedan start
+     */
+    public long getUpgradedCount() {
+        return upgraded.get();
+    }
+}
@@ -0,0 +1,338 @@
+package com.wigell.services;
+
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Signerade tokens för tillståndslös inloggning (app.auth.tokens.enabled).
+ *
+ * En token är base64url(innehåll) + "." + base64url(HMAC-SHA256(innehåll)) där innehållet är
+ * typ, användarens id, roll, utfärdad, utgång, token-id och användarnamn. En access-token
+ * kontrolleras helt i minnet, utan databas. Refresh-tokens byts ut vid varje användning och
+ * kontrolleras mot databasen, så att borttagna användare och ändrade roller slår igenom.
+ *
+ * Spärrlistan (utloggade tokens och användare vars tokens har dragits tillbaka) finns bara
+ * i den här JVM:en. Med flera noder gäller en spärr på de andra noderna först när
+ * access-tokenen löper ut, därför ska access-tokens vara kortlivade.
+ */
+@Service
+public class TokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenService.class);
+    private static final String HMAC = "HmacSHA256";
+    private static final int MIN_SECRET_BYTES = 32;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * Tokentyp, första fältet i innehållet.
+     */
+    public enum Type {
+        ACCESS("a"),
+        REFRESH("r");
+
+        private final String code;
+
+        Type(String code) {
+            this.code = code;
+        }
+
+        private static Type fromCode(String code) {
+            for (Type type : values()) {
+                if (type.code.equals(code)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final boolean enabled;
+    private final Mac macPrototype;
+    private final Duration accessTtl;
+    private final Duration refreshTtl;
+    private final UserRepo userRepo;
+    // Token-id -> utgång (epoch ms) för utloggade tokens
+    private final ConcurrentHashMap<String, Long> revokedTokens = new ConcurrentHashMap<>();
+    // Användar-id -> tidpunkt (epoch ms), tokens utfärdade före den gäller inte
+    private final ConcurrentHashMap<Long, Long> revokedBefore = new ConcurrentHashMap<>();
+
+    public TokenService(@Value("${app.auth.tokens.enabled:false}") boolean enabled,
+                        @Value("${app.auth.tokens.secret:}") String secret,
+                        @Value("${app.auth.tokens.access-ttl:15m}") Duration accessTtl,
+                        @Value("${app.auth.tokens.refresh-ttl:7d}") Duration refreshTtl,
+                        UserRepo userRepo) {
+        this.enabled = enabled;
+        this.accessTtl = accessTtl;
+        this.refreshTtl = refreshTtl;
+        this.userRepo = userRepo;
+        this.macPrototype = createMac(secretKey(secret, enabled));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getAccessTtl() {
+        return accessTtl;
+    }
+
+    /**
+     * Utfärdar en access-token och en refresh-token för användaren.
+     */
+    public TokenPair issue(User user) {
+        long now = System.currentTimeMillis();
+        return new TokenPair(
+                sign(new Claims(Type.ACCESS, user.getId(), user.getRole(), user.getUsername(),
+                        now, now + accessTtl.toMillis(), newId())),
+                sign(new Claims(Type.REFRESH, user.getId(), user.getRole(), user.getUsername(),
+                        now, now + refreshTtl.toMillis(), newId())),
+                accessTtl.toSeconds());
+    }
+
+    /**
+     * Kontrollerar en access-token och bygger principal från dess innehåll, utan databasanrop.
+     * Principal är en User som bara har id, användarnamn och roll.
+     *
+     * @return användaren, tom om tokenen är ogiltig, har gått ut eller är spärrad
+     */
+    public Optional<User> authenticate(String token) {
+        return verify(token, Type.ACCESS).map(claims -> {
+            User principal = new User();
+            principal.setId(claims.userId);
+            principal.setUsername(claims.username);
+            principal.setRole(claims.role);
+            return principal;
+        });
+    }
+
+    /**
+     * Byter en refresh-token mot ett nytt tokenpar. Den gamla refresh-tokenen spärras.
+     * Används en redan spärrad refresh-token spärras alla användarens tokens,
+     * eftersom den då kan ha kommit på avvägar.
+     *
+     * @return nytt tokenpar, tom om refresh-tokenen är ogiltig eller användaren inte finns
+     */
+    public Optional<TokenPair> refresh(String refreshToken) {
+        Optional<Claims> parsed = parse(refreshToken);
+        if (parsed.isEmpty() || parsed.get().type != Type.REFRESH) {
+            return Optional.empty();
+        }
+        Claims claims = parsed.get();
+        if (revokedTokens.containsKey(claims.id)) {
+            logger.warn("Revoked refresh token reused for user id={}, revoking all tokens", claims.userId);
+            revokeAll(claims.userId);
+            return Optional.empty();
+        }
+        if (!isValid(claims, System.currentTimeMillis())) {
+            return Optional.empty();
+        }
+        // Aktuell roll och användarnamn hämtas, så att ändringar slår igenom vid nästa refresh
+        Optional<User> user = userRepo.findById(claims.userId);
+        if (user.isEmpty()) {
+            return Optional.empty();
+        }
+        if (revokedTokens.putIfAbsent(claims.id, claims.expiresAt) != null) {
+            // Samma refresh-token användes samtidigt i ett annat anrop
+            return Optional.empty();
+        }
+        return Optional.of(issue(user.get()));
+    }
+
+    /**
+     * Spärrar en token (vid utloggning) fram till att den ändå hade gått ut.
+     * Ogiltiga tokens ignoreras.
+     */
+    public void revoke(String token) {
+        parse(token).ifPresent(claims -> revokedTokens.put(claims.id, claims.expiresAt));
+    }
+
+    /**
+     * Spärrar alla tokens som har utfärdats för användaren hittills,
+     * t.ex. när lösenord eller användarnamn ändras eller användaren tas bort.
+     */
+    public void revokeAll(long userId) {
+        revokedBefore.put(userId, System.currentTimeMillis());
+    }
+
+    /**
+     * Rensar spärrar som inte längre behövs, eftersom tokens de gällde har gått ut.
+     */
+    @Scheduled(fixedDelayString = "${app.auth.tokens.purge-interval:10m}")
+    public void purgeRevocations() {
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt < now);
+        long oldestValid = now - Math.max(accessTtl.toMillis(), refreshTtl.toMillis());
+        revokedBefore.values().removeIf(revokedAt -> revokedAt < oldestValid);
+    }
+
+    private Optional<Claims> verify(String token, Type type) {
+        return parse(token).filter(claims -> claims.type == type && isValid(claims, System.currentTimeMillis()));
+    }
+
+    private boolean isValid(Claims claims, long now) {
+        if (claims.expiresAt <= now || revokedTokens.containsKey(claims.id)) {
+            return false;
+        }
+        Long revokedAt = revokedBefore.get(claims.userId);
+        return revokedAt == null || claims.issuedAt > revokedAt;
+    }
+
+    // Kontrollerar signaturen och läser innehållet, men inte utgång eller spärrar
+    private Optional<Claims> parse(String token) {
+        if (!enabled || token == null) {
+            return Optional.empty();
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return Optional.empty();
+        }
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            // Jämförelse i konstant tid
+            if (!MessageDigest.isEqual(mac(payload), signature)) {
+                return Optional.empty();
+            }
+            return Optional.ofNullable(Claims.decode(new String(payload, StandardCharsets.UTF_8)));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private String sign(Claims claims) {
+        byte[] payload = claims.encode().getBytes(StandardCharsets.UTF_8);
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(mac(payload));
+    }
+
+    private byte[] mac(byte[] payload) {
+        try {
+            // Mac är inte trådsäker, varje anrop får en egen kopia av den initierade prototypen
+            Mac mac = (Mac) macPrototype.clone();
+            return mac.doFinal(payload);
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("HMAC cannot be cloned", e);
+        }
+    }
+
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static SecretKeySpec secretKey(String secret, boolean enabled) {
+        byte[] key;
+        if (secret == null || secret.isBlank()) {
+            key = new byte[MIN_SECRET_BYTES];
+            new SecureRandom().nextBytes(key);
+            if (enabled) {
+                logger.warn("app.auth.tokens.secret is not set, using a random key. "
+                        + "Tokens will not survive a restart or work across nodes.");
+            }
+        } else {
+            key = Base64.getDecoder().decode(secret.trim());
+            if (key.length < MIN_SECRET_BYTES) {
+                throw new IllegalStateException("app.auth.tokens.secret must be at least "
+                        + MIN_SECRET_BYTES + " bytes (base64)");
+            }
+        }
+        return new SecretKeySpec(key, HMAC);
+    }
+
+    private static Mac createMac(SecretKeySpec key) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 not available", e);
+        }
+    }
+
+    /**
+     * Access-token, refresh-token och access-tokenens livslängd i sekunder.
+     */
+    public static final class TokenPair {
+        private final String accessToken;
+        private final String refreshToken;
+        private final long expiresIn;
+
+        private TokenPair(String accessToken, String refreshToken, long expiresIn) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+            this.expiresIn = expiresIn;
+        }
+
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        public String getRefreshToken() {
+            return refreshToken;
+        }
+
+        public long getExpiresIn() {
+            return expiresIn;
+        }
+    }
+
+    /**
+     * Tokenens innehåll. Fälten skiljs med ':' och användarnamnet ligger sist,
+     * så att det får innehålla vilka tecken som helst.
+     */
+    private static final class Claims {
+        private final Type type;
+        private final long userId;
+        private final String role;
+        private final String username;
+        private final long issuedAt;
+        private final long expiresAt;
+        private final String id;
+
+        private Claims(Type type, long userId, String role, String username,
+                       long issuedAt, long expiresAt, String id) {
+            this.type = type;
+            this.userId = userId;
+            this.role = role;
+            this.username = username;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+            this.id = id;
+        }
+
+        private String encode() {
+            return type.code + ":" + userId + ":" + role + ":" + issuedAt + ":" + expiresAt + ":" + id + ":" + username;
+        }
+
+        // Signaturen är redan kontrollerad, så formatet är vårt eget
+        private static Claims decode(String payload) {
+            String[] parts = payload.split(":", 7);
+            Type type = parts.length == 7 ? Type.fromCode(parts[0]) : null;
+            if (type == null) {
+                return null;
+            }
+            try {
+                return new Claims(type, Long.parseLong(parts[1]), parts[2], parts[6],
+                        Long.parseLong(parts[3]), Long.parseLong(parts[4]), parts[5]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -3,9 +3,12 @@ package com.wigell.services;
 import com.wigell.dao.BookingRepo;
 import com.wigell.dao.UserRepo;
 import com.wigell.dto.BookingDTO;
+import com.wigell.dto.PageDTO;
 import com.wigell.entities.Booking;
 import com.wigell.entities.User;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -17,17 +20,21 @@ import java.util.Objects;
 import java.util.Optional;
 
 @Service
+@Timed(value = "app.service", description = "Service method latency")
 public class UserService {
 
     private final UserRepo userRepo;
     private final BookingRepo bookingRepo;
     private final PasswordEncoder passwordEncoder;
+    private final TokenService tokenService;
 
     @Autowired
-    public UserService(UserRepo userRepo, BookingRepo bookingRepo, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepo userRepo, BookingRepo bookingRepo, PasswordEncoder passwordEncoder,
+                       TokenService tokenService) {
         this.userRepo = userRepo;
         this.bookingRepo = bookingRepo;
         this.passwordEncoder = passwordEncoder;
+        this.tokenService = tokenService;
     }
 
     /**
@@ -39,6 +46,20 @@ public class UserService {
         return userRepo.findAll();
     }
 
+    /**
+     * Hämtar en sida användare i id-ordning (keyset-paginering).
+     *
+     * @param after sista id:t från föregående sida, null för första sidan
+     * @param limit max antal användare på sidan
+     * @param role  filtrera på roll, null för alla
+     * @return sidan och id:t som nästa sida börjar efter
+     */
+    @Transactional(readOnly = true)
+    public PageDTO<User> usersPage(Long after, int limit, String role) {
+        List<User> rows = userRepo.findPage(after == null ? 0 : after, role, PageRequest.of(0, limit + 1));
+        return PageDTO.of(rows, limit, User::getId);
+    }
+
     /**
      * Hämtar den aktuella användaren baserat på användarnamn.
      *
@@ -83,6 +104,8 @@ public class UserService {
         Optional<User> optionalUser = userRepo.findById(tempUser.getId());
         if (optionalUser.isPresent()) {
             User user = optionalUser.get();
+            // Utfärdade tokens innehåller användarnamnet och ska sluta gälla om det eller lösenordet ändras
+            boolean revokeTokens = !Objects.equals(user.getUsername(), tempUser.getUsername());
             user.setFirstName(tempUser.getFirstName());
             user.setLastName(tempUser.getLastName());
             user.setUsername(tempUser.getUsername());
@@ -92,9 +115,13 @@ public class UserService {
             if (tempUser.getPassword() != null && !tempUser.getPassword().isEmpty()) {
                 String encodedPassword = passwordEncoder.encode(tempUser.getPassword());
                 user.setPassword(encodedPassword);
+                revokeTokens = true;
             }
             // noOfOrders bevaras från befintlig användare
             final User updatedUser = userRepo.save(user);
+            if (revokeTokens) {
+                tokenService.revokeAll(updatedUser.getId());
+            }
             return ResponseEntity.ok(updatedUser);
         } else {
             return ResponseEntity.notFound().build();
@@ -130,6 +157,7 @@ public class UserService {
      */
     public void deleteUserById(Long id) {
         userRepo.deleteById(id);
+        tokenService.revokeAll(id);
     }
 
     /**
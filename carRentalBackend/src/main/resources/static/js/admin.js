@@ -30,39 +30,82 @@ menuItems.forEach(item => {
     })
 })
 
+// Antal rader per sida när listorna hämtas med keyset-paginering
+const PAGE_SIZE = 50;
+let activeListObserver = null;
+
+// Hämtar en lista sida för sida (limit/after) och nästa sida när användaren
+// scrollar till slutet, så att sidan laddar lika snabbt oavsett hur lång listan är.
+// onPage anropas med alla rader som har hämtats hittills.
+async function loadPagedList(url, onPage) {
+    if (activeListObserver) activeListObserver.disconnect();
+
+    const items = [];
+    let next = null;
+    let done = false;
+    let loading = false;
+    const sentinel = document.createElement("div");
+    sentinel.classList.add("scroll-sentinel");
+
+    async function loadMore() {
+        if (loading || done) return;
+        loading = true;
+        try {
+            const params = new URLSearchParams({ limit: PAGE_SIZE });
+            if (next != null) params.set("after", next);
+            const res = await fetch(url + "?" + params, { credentials: "include" });
+            if (!res.ok) throw new Error("Fetch failed");
+            const page = await res.json();
+            // Användaren har bytt vy medan sidan hämtades
+            if (activeListObserver !== observer) return;
+            items.push(...(page.data || []));
+            next = page.next;
+            done = next == null;
+            onPage(items);
+            adminContent.appendChild(sentinel);
+        } finally {
+            loading = false;
+        }
+        if (!done) {
+            // Ladda nästa sida direkt om slutet av listan fortfarande syns
+            observer.unobserve(sentinel);
+            observer.observe(sentinel);
+        }
+    }
+
+    const observer = new IntersectionObserver(entries => {
+        if (entries.some(e => e.isIntersecting)) {
+            loadMore().catch(() => console.error("Could not load next page of " + url));
+        }
+    });
+    activeListObserver = observer;
+
+    await loadMore();
+}
+
+function createListContainer() {
+    const list = document.createElement("div");
+    adminContent.appendChild(list);
+    return list;
+}
 
 async function loadUsers() {
     if (!adminContent) return;
 
     adminContent.innerHTML = "";
     renderSortingBar();
+    const list = createListContainer();
 
     try {
-        const users = await fetchUsers();
-        sortUsersList(users, currentSort);
-        renderUsersTable(users);
+        await loadPagedList("/api/v1/users", users => {
+            sortUsersList(users, currentSort);
+            renderUsersTable(users, list);
+        });
     } catch (e) {
         adminContent.textContent = "Fel vid hämtning av användare\n";
     }
 }
 
-async function fetchUsers() {
-    const res = await fetch("/api/v1/users", { credentials: "include" })
-
-    if (!res.ok) throw new Error("Fetch failed");
-    const json = await res.json();
-
-    if (Array.isArray(json)) {
-        return json;
-    }
-
-    if (json.data) {
-        return json.data;
-    }
-
-    return [];
-}
-
 function renderSortingBar() {
     const bar = document.createElement("div");
     bar.classList.add("sorting-bar");
@@ -93,25 +136,26 @@ function renderSortingBar() {
     };
 }
 
-function renderUsersTable(users) {
-    renderHeaders();
-    users.forEach(renderUserRow);
+function renderUsersTable(users, list) {
+    list.innerHTML = "";
+    renderHeaders(list);
+    users.forEach(u => renderUserRow(u, list));
 }
 
-function renderHeaders() {
+function renderHeaders(list) {
     const row = document.createElement("div");
     row.classList.add("user-titles");
     ["ID", "Email", "First Name", "Last Name", "Phone", "Username"]
         .forEach(t => row.appendChild(createCell(t)));
-    adminContent.appendChild(row);
+    list.appendChild(row);
 }
 
-function renderUserRow(u) {
+function renderUserRow(u, list) {
     const row = document.createElement("div");
     row.classList.add("user-row");
     [u.id, u.email, u.firstName, u.lastName, u.phone, u.username]
         .forEach(v => row.appendChild(createCell(v)));
-    adminContent.appendChild(row);
+    list.appendChild(row);
 }
 
 function createCell(value) {
@@ -181,24 +225,18 @@ async function loadCars() {
 
     adminContent.innerHTML = "";
     renderCarSortingBar();
+    const list = createListContainer();
 
     try {
-        const cars = await fetchCars();
-        sortCarsList(cars, window.currentCarSort);
-        renderCarsTable(cars);
+        await loadPagedList("/api/v1/cars", cars => {
+            sortCarsList(cars, window.currentCarSort);
+            renderCarsTable(cars, list);
+        });
     } catch {
         adminContent.textContent = "Fel vid hämtning av bilar";
     }
 }
 
-async function fetchCars() {
-    const res = await fetch("/api/v1/cars", { credentials: "include" })
-    ;
-    if (!res.ok) throw new Error();
-    const json = await res.json();
-    return Array.isArray(json) ? json : json.data || [];
-}
-
 function renderCarSortingBar() {
     if (!window.currentCarSort) window.currentCarSort = "id-asc";
 
@@ -229,20 +267,21 @@ function renderCarSortingBar() {
     };
 }
 
-function renderCarsTable(cars) {
-    renderCarHeaders();
-    cars.forEach(renderCarRow);
+function renderCarsTable(cars, list) {
+    list.innerHTML = "";
+    renderCarHeaders(list);
+    cars.forEach(car => renderCarRow(car, list));
 }
 
-function renderCarHeaders() {
+function renderCarHeaders(list) {
     const row = document.createElement("div");
     row.classList.add("car-titles");
     ["ID","Name","Type","Model","Price","Image","Feature1","Feature2","Feature3"]
         .forEach(t => row.appendChild(createCell(t)));
-    adminContent.appendChild(row);
+    list.appendChild(row);
 }
 
-function renderCarRow(car) {
+function renderCarRow(car, list) {
     const row = document.createElement("div");
     row.classList.add("car-row");
 
@@ -251,7 +290,10 @@ function renderCarRow(car) {
 
     const imgCell = document.createElement("div");
     const img = document.createElement("img");
-    if (car.image) img.src = "data:image/jpeg;base64," + car.image;
+    if (car.imageUrl) {
+        img.src = car.imageUrl + "&size=thumb";
+        img.loading = "lazy";
+    }
     img.classList.add("car-image");
     imgCell.appendChild(img);
     row.appendChild(imgCell);
@@ -259,7 +301,7 @@ function renderCarRow(car) {
     [car.feature1, car.feature2, car.feature3]
         .forEach(v => row.appendChild(createCell(v)));
 
-    adminContent.appendChild(row);
+    list.appendChild(row);
 }
 
 function createCell(value) {
@@ -315,24 +357,18 @@ async function loadBookings() {
 
     adminContent.innerHTML = "";
     renderBookingSortingBar();
+    const list = createListContainer();
 
     try {
-        const bookings = await fetchBookings();
-        sortBookingsList(bookings, window.currentBookingSort);
-        renderBookingsTable(bookings);
+        await loadPagedList("/api/v1/bookings", bookings => {
+            sortBookingsList(bookings, window.currentBookingSort);
+            renderBookingsTable(bookings, list);
+        });
     } catch {
         adminContent.textContent = "Error while fetching bookings";
     }
 }
 
-async function fetchBookings() {
-    const res = await fetch("/api/v1/bookings", { credentials: "include" })
-    ;
-    if (!res.ok) throw new Error();
-    const json = await res.json();
-    return Array.isArray(json) ? json : json.data || [];
-}
-
 function renderBookingSortingBar() {
     if (!window.currentBookingSort) window.currentBookingSort = "id-asc";
 
@@ -367,20 +403,21 @@ function renderBookingSortingBar() {
     };
 }
 
-function renderBookingsTable(bookings) {
-    renderBookingHeaders();
-    bookings.forEach(renderBookingRow);
+function renderBookingsTable(bookings, list) {
+    list.innerHTML = "";
+    renderBookingHeaders(list);
+    bookings.forEach(b => renderBookingRow(b, list));
 }
 
-function renderBookingHeaders() {
+function renderBookingHeaders(list) {
     const row = document.createElement("div");
     row.classList.add("booking-titles");
     ["ID","Active","Car","User","From","To","Price"]
         .forEach(t => row.appendChild(createCell(t)));
-    adminContent.appendChild(row);
+    list.appendChild(row);
 }
 
-function renderBookingRow(b) {
+function renderBookingRow(b, list) {
     const row = document.createElement("div");
     row.classList.add("booking-row");
 
@@ -394,7 +431,7 @@ function renderBookingRow(b) {
         b.price
     ].forEach(v => row.appendChild(createCell(v)));
 
-    adminContent.appendChild(row);
+    list.appendChild(row);
 }
 
 function createCell(value) {
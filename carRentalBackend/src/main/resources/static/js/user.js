@@ -111,7 +111,7 @@ function renderCarRow(car) {
     [car.id, car.name, car.type, car.model, car.price]
         .forEach(v => row.appendChild(createCell(v)));
 
-    row.appendChild(createImageCell(car.image));
+    row.appendChild(createImageCell(car.imageUrl));
 
     [car.feature1, car.feature2, car.feature3]
         .forEach(v => row.appendChild(createCell(v)));
@@ -235,11 +235,12 @@ function createCell(value) {
     return d;
 }
 
-function createImageCell(image) {
+function createImageCell(imageUrl) {
     const cell = document.createElement("div");
     const img = document.createElement("img");
-    if (image) {
-        img.src = "data:image/jpeg;base64," + image;
+    if (imageUrl) {
+        img.src = imageUrl + "&size=thumb";
+        img.loading = "lazy";
         img.classList.add("car-image");
         img.onerror = () => img.style.display = "none";
     }
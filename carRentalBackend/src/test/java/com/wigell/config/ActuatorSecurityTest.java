@@ -0,0 +1,91 @@
+package com.wigell.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalManagementPort;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.client.RestClient;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Behörigheterna på management-porten: health och prometheus är öppna,
+ * övriga actuator-endpoints (här metrics) kräver admin.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:actuator-security;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "management.server.port=0",
+        "app.loadtest.cars=0",
+        "app.auth.tokens.enabled=true",
+        "app.auth.tokens.secret=MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY=",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+// Annars stänger testramverket av exporten, och då finns ingen prometheus-endpoint
+@AutoConfigureObservability
+class ActuatorSecurityTest {
+
+    @LocalServerPort
+    private int port;
+
+    @LocalManagementPort
+    private int managementPort;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private RestClient management;
+
+    @BeforeEach
+    void setUp() {
+        management = RestClient.builder()
+                .baseUrl("http://localhost:" + managementPort)
+                // Statuskoden kontrolleras i testerna, inte som undantag
+                .defaultStatusHandler(status -> true, (request, response) -> { })
+                .build();
+    }
+
+    @Test
+    void healthAndPrometheusArePublic() {
+        assertThat(status("/actuator/health", null)).isEqualTo(HttpStatus.OK);
+        assertThat(status("/actuator/prometheus", null)).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void otherEndpointsRequireAdmin() throws Exception {
+        assertThat(status("/actuator/metrics", null)).isNotEqualTo(HttpStatus.OK);
+        assertThat(status("/actuator/metrics", accessToken("user1"))).isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(status("/actuator/metrics", accessToken("admin"))).isEqualTo(HttpStatus.OK);
+    }
+
+    private HttpStatus status(String path, String token) {
+        RestClient.RequestHeadersSpec<?> request = management.get().uri(path);
+        if (token != null) {
+            request.header(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+        }
+        return HttpStatus.valueOf(request.retrieve().toBodilessEntity().getStatusCode().value());
+    }
+
+    private String accessToken(String username) throws Exception {
+        String body = RestClient.create("http://localhost:" + port).post()
+                .uri("/api/v1/auth/login")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Map.of("username", username, "password", "pass"))
+                .retrieve()
+                .body(String.class);
+        JsonNode tokens = objectMapper.readTree(body);
+        return tokens.get("accessToken").asText();
+    }
+}
@@ -0,0 +1,31 @@
+package com.wigell.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Kontroll av antal databasfrågor i tester, med samma räkning som QueryBudgetFilter (QueryStats).
+ */
+public final class QueryCountAssertions {
+
+    private QueryCountAssertions() {
+    }
+
+    /**
+     * Kör action med egna räknare på tråden och kontrollerar att Hibernate körde högst budget frågor.
+     * Frågor från andra trådar räknas inte. Går testet över budgeten visas frågorna som körts flera gånger.
+     *
+     * @return räknarna, t.ex. för att kontrollera att action alls gick mot databasen
+     */
+    public static QueryStats assertQueryCount(int budget, Runnable action) {
+        QueryStats stats = QueryStats.begin(budget);
+        try {
+            action.run();
+        } finally {
+            QueryStats.end();
+        }
+        assertThat(stats.getQueries())
+                .as("database queries (repeated statements: %s)", stats.repeatedStatements(2))
+                .isLessThanOrEqualTo(budget);
+        return stats;
+    }
+}
@@ -0,0 +1,173 @@
+package com.wigell.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.persistence.EntityManager;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ReplicaRoutingConfig med en primär och en replika, båda H2 i minnet. Tabellen routing_marker
+ * har olika innehåll i de två databaserna, så att det syns vilken anslutning en transaktion fick.
+ * Replikeringen av hjärtslaget görs för hand (replicateHeartbeat), och hälsokontrollen körs
+ * direkt från testet i stället för var check-interval.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing-primary;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.datasource.replica.urls=" + ReplicaRoutingTest.REPLICA_URL,
+        "app.datasource.replica.max-lag=5s",
+        // Kontrollen schemaläggs aldrig under testet
+        "app.datasource.replica.check-interval=1h",
+        "app.loadtest.cars=0",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+class ReplicaRoutingTest {
+
+    static final String REPLICA_URL =
+            "jdbc:h2:mem:routing-replica;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private ReplicaRoutingDataSource routing;
+
+    @Autowired
+    private HikariDataSource primaryDataSource;
+
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+
+    @BeforeEach
+    void healthyReplica() {
+        primary = new JdbcTemplate(primaryDataSource);
+        replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL,
+                dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword()));
+        for (JdbcTemplate database : List.of(primary, replica)) {
+            database.execute("create table if not exists routing_marker (name varchar(20) not null)");
+            database.update("delete from routing_marker");
+        }
+        primary.update("insert into routing_marker (name) values ('primary')");
+        replica.update("insert into routing_marker (name) values ('replica')");
+        replica.execute("create table if not exists " + ReplicaRoutingDataSource.HEARTBEAT_TABLE
+                + " (id int not null, beat_millis bigint not null, primary key (id))");
+
+        replicateHeartbeat();
+        assertThat(routing.hasHealthyReplica()).isTrue();
+    }
+
+    @Test
+    void readOnlyTransactionsReadFromReplica() {
+        assertThat(readInTransaction(true)).containsExactly("replica");
+    }
+
+    @Test
+    void writesGoToPrimary() {
+        assertThat(readInTransaction(false)).containsExactly("primary");
+
+        transaction(false).executeWithoutResult(status ->
+                jdbc.update("insert into routing_marker (name) values ('written')"));
+
+        assertThat(primary.queryForList("select name from routing_marker", String.class)).contains("written");
+        assertThat(replica.queryForList("select name from routing_marker", String.class)).doesNotContain("written");
+    }
+
+    @Test
+    void staleHeartbeatFallsBackToPrimary() {
+        // Replikan har inte fått något hjärtslag på en minut
+        replica.update("update " + ReplicaRoutingDataSource.HEARTBEAT_TABLE + " set beat_millis = ? where id = 1",
+                System.currentTimeMillis() - 60_000);
+        routing.checkReplicas();
+
+        assertThat(routing.hasHealthyReplica()).isFalse();
+        assertThat(readInTransaction(true)).containsExactly("primary");
+
+        replicateHeartbeat();
+        assertThat(readInTransaction(true)).containsExactly("replica");
+    }
+
+    @Test
+    void failingReplicaFallsBackToPrimary() {
+        // Kontrollen av fördröjningen misslyckas, som när replikan inte går att fråga
+        replica.execute("drop table " + ReplicaRoutingDataSource.HEARTBEAT_TABLE);
+        routing.checkReplicas();
+
+        assertThat(routing.hasHealthyReplica()).isFalse();
+        assertThat(readInTransaction(true)).containsExactly("primary");
+    }
+
+    @Test
+    void secondLevelCacheIsReadOnlyWhileReplicaIsUsed() {
+        transaction(true).executeWithoutResult(status -> {
+            assertThat(session().getCacheMode()).isEqualTo(CacheMode.GET);
+            assertThat(entityManager.createNativeQuery("select name from routing_marker").getSingleResult())
+                    .isEqualTo("replica");
+        });
+        transaction(false).executeWithoutResult(status ->
+                assertThat(session().getCacheMode()).isEqualTo(CacheMode.NORMAL));
+
+        replica.update("update " + ReplicaRoutingDataSource.HEARTBEAT_TABLE + " set beat_millis = ? where id = 1",
+                System.currentTimeMillis() - 60_000);
+        routing.checkReplicas();
+
+        // Läser från primären, och får då fylla cachen som vanligt
+        transaction(true).executeWithoutResult(status -> {
+            assertThat(session().getCacheMode()).isEqualTo(CacheMode.NORMAL);
+            assertThat(entityManager.createNativeQuery("select name from routing_marker").getSingleResult())
+                    .isEqualTo("primary");
+        });
+    }
+
+    /**
+     * Låter primären skriva ett nytt hjärtslag, kopierar det till replikan som replikeringen
+     * skulle ha gjort och kontrollerar replikan igen.
+     */
+    private void replicateHeartbeat() {
+        routing.checkReplicas();
+        Long beat = primary.queryForObject("select beat_millis from " + ReplicaRoutingDataSource.HEARTBEAT_TABLE
+                + " where id = 1", Long.class);
+        replica.update("delete from " + ReplicaRoutingDataSource.HEARTBEAT_TABLE);
+        replica.update("insert into " + ReplicaRoutingDataSource.HEARTBEAT_TABLE + " (id, beat_millis) values (1, ?)",
+                beat);
+        routing.checkReplicas();
+    }
+
+    private List<String> readInTransaction(boolean readOnly) {
+        return transaction(readOnly).execute(status ->
+                jdbc.queryForList("select name from routing_marker", String.class));
+    }
+
+    private TransactionTemplate transaction(boolean readOnly) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(readOnly);
+        return template;
+    }
+
+    private Session session() {
+        return entityManager.unwrap(Session.class);
+    }
+}
@@ -0,0 +1,101 @@
+package com.wigell.controllers;
+
+import com.wigell.dao.CarRepo;
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.Booking;
+import com.wigell.entities.Car;
+import com.wigell.entities.User;
+import com.wigell.services.BookingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Bokningsexporten körs asynkront med app.bookings.export.timeout, medan andra asynkrona
+ * anrop har kvar standardtiden. Filtren är avstängda och inloggningen sätts direkt.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:booking-export;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=2",
+        "app.bookings.export.timeout=45m",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@AutoConfigureMockMvc(addFilters = false)
+@ActiveProfiles("loadtest")
+class BookingExportTimeoutTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BookingService bookingService;
+
+    @Autowired
+    private CarRepo carRepo;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @AfterEach
+    void logout() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void exportUsesItsOwnTimeout() throws Exception {
+        long userId = userRepo.findByUsername("user1").orElseThrow().getId();
+        List<Long> carIds = carRepo.findAll().stream().map(Car::getId).toList();
+        LocalDate start = LocalDate.now().plusDays(10);
+        for (long carId : carIds) {
+            bookingService.orderCar(new Booking(start, start.plusDays(2), userId, carId, true));
+        }
+        User admin = userRepo.findByUsername("admin").orElseThrow();
+        SecurityContextHolder.getContext().setAuthentication(
+                UsernamePasswordAuthenticationToken.authenticated(admin, null, admin.getAuthorities()));
+
+        MvcResult started = mockMvc.perform(get("/api/v1/bookings/export").param("from", start.toString()))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        assertThat(started.getRequest().getAsyncContext().getTimeout())
+                .isEqualTo(Duration.ofMinutes(45).toMillis());
+
+        String body = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("application/x-ndjson")))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"bookings.ndjson\""))
+                .andReturn().getResponse().getContentAsString();
+        assertThat(body.lines().count()).isEqualTo(carIds.size());
+    }
+
+    @Test
+    void unknownFormatIsRejectedBeforeExporting() throws Exception {
+        User admin = userRepo.findByUsername("admin").orElseThrow();
+        SecurityContextHolder.getContext().setAuthentication(
+                UsernamePasswordAuthenticationToken.authenticated(admin, null, admin.getAuthorities()));
+
+        mockMvc.perform(get("/api/v1/bookings/export").param("format", "xml"))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isBadRequest());
+    }
+}
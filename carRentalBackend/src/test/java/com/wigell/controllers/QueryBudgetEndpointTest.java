@@ -0,0 +1,93 @@
+package com.wigell.controllers;
+
+import com.wigell.config.QueryStats;
+import com.wigell.dao.CarRepo;
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.Booking;
+import com.wigell.entities.Car;
+import com.wigell.entities.User;
+import com.wigell.services.BookingService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static com.wigell.config.QueryCountAssertions.assertQueryCount;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Endpoints håller sig inom sin @QueryBudget, även när svaret innehåller många rader (ingen N+1).
+ * Filtren är avstängda: QueryBudgetFilter skulle annars byta ut räknarna från assertQueryCount,
+ * och inloggningen sätts direkt i SecurityContextHolder. Frågor under inloggningen räknas alltså inte.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:query-budget;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=20",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@AutoConfigureMockMvc(addFilters = false)
+@ActiveProfiles("loadtest")
+class QueryBudgetEndpointTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private BookingService bookingService;
+
+    @Autowired
+    private CarRepo carRepo;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @AfterEach
+    void logout() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void carPageStaysWithinBudget() {
+        // Samma budget som @QueryBudget på CarController.getAllCars
+        QueryStats stats = assertQueryCount(2, () -> perform(get("/api/v1/cars").param("limit", "20")));
+
+        assertThat(stats.getQueries()).isPositive();
+    }
+
+    @Test
+    void myBookingsStayWithinBudget() {
+        User user = userRepo.findByUsername("user2").orElseThrow();
+        List<Long> carIds = carRepo.findAll().stream().map(Car::getId).toList();
+        LocalDate start = LocalDate.now().plusDays(1);
+        for (int i = 0; i < 10; i++) {
+            bookingService.orderCar(new Booking(start, start.plusDays(1), user.getId(), carIds.get(i), true));
+        }
+        SecurityContextHolder.getContext().setAuthentication(
+                UsernamePasswordAuthenticationToken.authenticated(user, null, user.getAuthorities()));
+
+        // Samma budget som @QueryBudget på BookingController.getMyBookings
+        QueryStats stats = assertQueryCount(3, () -> perform(get("/api/v1/bookings/me")));
+
+        assertThat(stats.getEntities()).isGreaterThanOrEqualTo(10);
+    }
+
+    private void perform(RequestBuilder request) {
+        try {
+            mockMvc.perform(request).andExpect(status().isOk());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.wigell.dao;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Frågeplanerna (EXPLAIN) för bokningsfrågorna i en tabell med en miljon bokningar. Varje
+ * fråga ska använda sitt index från Booking/BookingIndexMigration i stället för att läsa hela
+ * tabellen. Frågorna är samma SQL som BookingRepo ger, med värden i stället för parametrar.
+ * Planerna skrivs ut. Antalet rader kan ändras med -Dbooking.plan.rows=...
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:booking-plans;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=0",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BookingIndexPlanTest {
+
+    private static final int ROWS = Integer.getInteger("booking.plan.rows", 1_000_000);
+    private static final int CARS = 1000;
+    private static final int USERS = 5000;
+    // Bokningarna sprids över drygt åtta år, bara det senaste året är aktivt
+    private static final LocalDate START = LocalDate.of(2018, 1, 1);
+    private static final LocalDate TODAY = START.plusDays((long) (ROWS / CARS) * 3);
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @BeforeAll
+    void fillBookings() {
+        List<Object[]> batch = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            LocalDate from = START.plusDays((long) (i / CARS) * 3);
+            LocalDate to = from.plusDays(1);
+            boolean active = !to.isBefore(TODAY.minusDays(365));
+            batch.add(new Object[]{(long) i + 1, Date.valueOf(from), Date.valueOf(to), (long) (i % USERS) + 1,
+                    (long) (i % CARS) + 1, active});
+            if (batch.size() == 10_000) {
+                insert(batch);
+            }
+        }
+        insert(batch);
+        // Statistik för planeraren, som efter en import i MySQL
+        jdbc.execute("analyze");
+    }
+
+    private void insert(List<Object[]> batch) {
+        jdbc.batchUpdate("insert into booking (id, from_date, to_date, user_id, car_id, active) values (?, ?, ?, ?, ?, ?)", batch);
+        batch.clear();
+    }
+
+    @Test
+    void overlapCheckUsesCarDatesIndex() {
+        // BookingRepo.existsOverlap
+        assertUsesIndex("select count(b.id) > 0 from booking b where b.car_id = 500"
+                + " and b.from_date <= DATE '" + TODAY + "' and b.to_date >= DATE '" + TODAY + "'"
+                + " and b.active = true", "idx_booking_car_dates");
+    }
+
+    @Test
+    void batchOverlapCheckUsesCarDatesIndex() {
+        // BookingRepo.findActiveOverlapping
+        assertUsesIndex("select b.* from booking b where b.car_id in (1, 2, 3)"
+                + " and b.from_date <= DATE '" + TODAY + "' and b.to_date >= DATE '" + TODAY + "'"
+                + " and b.active = true", "idx_booking_car_dates");
+    }
+
+    @Test
+    void ordersOfUserUseUserIndex() {
+        // BookingRepo.findAllByUserId
+        assertUsesIndex("select b.* from booking b where b.user_id = 42", "idx_booking_user");
+    }
+
+    @Test
+    void overdueBookingsUseActiveToIndex() {
+        // BookingRepo.findOverdue
+        assertUsesIndex("select b.* from booking b where b.active = true and b.to_date < DATE '" + TODAY + "'"
+                + " order by b.to_date, b.id fetch first 1000 rows only", "idx_booking_active_to");
+    }
+
+    private void assertUsesIndex(String sql, String index) {
+        String plan = String.join("\n", jdbc.queryForList("explain " + sql, String.class));
+        System.out.printf("EXPLAIN (%d rows) %s%n%s%n%n", ROWS, sql, plan);
+        assertThat(plan.toLowerCase()).contains(index);
+    }
+}
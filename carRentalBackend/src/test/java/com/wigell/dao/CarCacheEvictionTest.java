@@ -0,0 +1,111 @@
+package com.wigell.dao;
+
+import com.wigell.config.HibernateCacheConfig;
+import com.wigell.entities.Car;
+import jakarta.persistence.Cache;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Uppdateringarna i CarRepoCustomImpl gör bara de ändrade bilarna oläsbara i andra nivåns cache,
+ * inte hela regionen cars, och räknar upp versionen. De ändrade bilarna ligger kvar som låsta
+ * poster (se SecondLevelCacheLocks), så det kontrolleras med träffarna i regionen.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:car-cache;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=3",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+class CarCacheEvictionTest {
+
+    @Autowired
+    private CarRepo carRepo;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Cache cache;
+    private long changed;
+    private long untouched;
+
+    @BeforeEach
+    void loadCarsIntoCache() {
+        cache = entityManagerFactory.getCache();
+        cache.evict(Car.class);
+        List<Long> ids = carRepo.findAll().stream().map(Car::getId).sorted().toList();
+        changed = ids.get(0);
+        untouched = ids.get(1);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            carRepo.findById(changed);
+            carRepo.findById(untouched);
+        });
+        assertThat(cache.contains(Car.class, changed)).isTrue();
+        assertThat(cache.contains(Car.class, untouched)).isTrue();
+    }
+
+    @Test
+    void updateBookedInvalidatesOnlyThatCar() {
+        long version = carRepo.findById(changed).orElseThrow().getVersion();
+
+        assertThat(carRepo.updateBooked(changed, true)).isEqualTo(1);
+
+        assertThat(readFromCache(changed)).isFalse();
+        assertThat(readFromCache(untouched)).isTrue();
+        Car reloaded = carRepo.findById(changed).orElseThrow();
+        assertThat(reloaded.isBooked()).isTrue();
+        assertThat(reloaded.getVersion()).isEqualTo(version + 1);
+        carRepo.updateBooked(changed, false);
+    }
+
+    @Test
+    void releaseUnbookedInvalidatesOnlyCandidates() {
+        carRepo.updateBookedAll(List.of(changed), true);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> carRepo.findById(changed));
+
+        // Bilen har ingen bokning idag och släpps
+        assertThat(carRepo.releaseUnbooked(List.of(changed), LocalDate.now())).isEqualTo(1);
+
+        assertThat(readFromCache(changed)).isFalse();
+        assertThat(readFromCache(untouched)).isTrue();
+        assertThat(carRepo.findById(changed).orElseThrow().isBooked()).isFalse();
+    }
+
+    @Test
+    void updateImageMetadataInvalidatesOnlyThatCar() {
+        assertThat(carRepo.updateImageMetadata(changed, "image/png", "abc", Instant.now())).isEqualTo(1);
+
+        assertThat(readFromCache(changed)).isFalse();
+        assertThat(readFromCache(untouched)).isTrue();
+        assertThat(carRepo.findById(changed).orElseThrow().getImageHash()).isEqualTo("abc");
+    }
+
+    /**
+     * Hämtar bilen i en ny transaktion och svarar på om den kom ur cachen.
+     */
+    private boolean readFromCache(long id) {
+        CacheRegionStatistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics()
+                .getCacheRegionStatistics(HibernateCacheConfig.CARS);
+        long hits = statistics.getHitCount();
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> carRepo.findById(id));
+        return statistics.getHitCount() > hits;
+    }
+}
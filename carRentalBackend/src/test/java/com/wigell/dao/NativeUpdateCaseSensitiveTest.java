@@ -0,0 +1,69 @@
+package com.wigell.dao;
+
+import com.wigell.entities.Booking;
+import com.wigell.entities.Car;
+import com.wigell.entities.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * De handskrivna uppdateringarna i CarRepoCustomImpl och UserRepoCustomImpl mot en databas där
+ * tabellnamn är skiftlägeskänsliga, som MySQL på Linux (lower_case_table_names=0). H2 behåller
+ * då namnen som de skrivs (DATABASE_TO_UPPER=FALSE), så "Booking" är inte samma tabell som "booking".
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:case-sensitive;MODE=MySQL;DATABASE_TO_UPPER=FALSE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=3",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+class NativeUpdateCaseSensitiveTest {
+
+    @Autowired
+    private CarRepo carRepo;
+
+    @Autowired
+    private BookingRepo bookingRepo;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Test
+    void carUpdatesUseLowercaseTableNames() {
+        List<Long> ids = carRepo.findAll().stream().map(Car::getId).sorted().toList();
+        long free = ids.get(0);
+        long rented = ids.get(1);
+        LocalDate today = LocalDate.now();
+        long userId = userRepo.findByUsername("user1").orElseThrow().getId();
+        bookingRepo.save(new Booking(today, today.plusDays(2), userId, rented, true));
+
+        assertThat(carRepo.updateBooked(free, true)).isEqualTo(1);
+        assertThat(carRepo.updateBookedAll(List.of(rented), true)).isEqualTo(1);
+        assertThat(carRepo.updateImageMetadata(free, "image/png", "abc", Instant.now())).isEqualTo(1);
+
+        // Bara bilen utan bokning idag släpps
+        assertThat(carRepo.releaseUnbooked(List.of(free, rented), today)).isEqualTo(1);
+        assertThat(carRepo.findById(free).orElseThrow().isBooked()).isFalse();
+        assertThat(carRepo.findById(rented).orElseThrow().isBooked()).isTrue();
+    }
+
+    @Test
+    void userUpdatesUseLowercaseTableNames() {
+        User user = userRepo.findByUsername("user2").orElseThrow();
+
+        assertThat(userRepo.incrementOrders(user.getId())).isEqualTo(1);
+        assertThat(userRepo.addOrders(user.getId(), 2)).isEqualTo(1);
+        assertThat(userRepo.decrementOrders(user.getId())).isEqualTo(1);
+        assertThat(userRepo.updatePassword(user.getId(), user.getPassword(), user.getPassword())).isEqualTo(1);
+        assertThat(userRepo.findById(user.getId()).orElseThrow().getNoOfOrders()).isEqualTo(user.getNoOfOrders() + 2);
+    }
+}
@@ -0,0 +1,104 @@
+package com.wigell.dao;
+
+import com.wigell.entities.Car;
+import com.wigell.entities.User;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * En läsning som pågår samtidigt med en native-uppdatering får inte lägga tillbaka den gamla
+ * raden i andra nivåns cache. Läsaren kör med REPEATABLE READ (standard i MySQL/InnoDB) och tar
+ * sin ögonblicksbild innan uppdateringen, men laddar entiteten först när uppdateringen är klar:
+ * den läser alltså raden före commit och lägger in den i cachen efter commit.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:cache-lock;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=1",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+class SecondLevelCacheLockTest {
+
+    @Autowired
+    private CarRepo carRepo;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void concurrentLoadDoesNotCacheCarFromBeforeUpdate() throws Exception {
+        Car car = carRepo.findAll().get(0);
+        boolean before = car.isBooked();
+
+        Car loaded = loadDuringUpdate("car", car.getId(),
+                () -> entityManager.find(Car.class, car.getId()),
+                () -> carRepo.updateBooked(car.getId(), !before));
+
+        // Läsaren såg raden från före uppdateringen
+        assertThat(loaded.isBooked()).isEqualTo(before);
+        Car cached = carRepo.findById(car.getId()).orElseThrow();
+        assertThat(cached.isBooked()).isEqualTo(!before);
+        assertThat(cached.getVersion()).isEqualTo(car.getVersion() + 1);
+    }
+
+    @Test
+    void concurrentLoadDoesNotCacheUserFromBeforeUpdate() throws Exception {
+        User user = userRepo.findByUsername("user3").orElseThrow();
+
+        User loaded = loadDuringUpdate("user", user.getId(),
+                () -> entityManager.find(User.class, user.getId()),
+                () -> userRepo.incrementOrders(user.getId()));
+
+        assertThat(loaded.getNoOfOrders()).isEqualTo(user.getNoOfOrders());
+        assertThat(userRepo.findById(user.getId()).orElseThrow().getNoOfOrders())
+                .isEqualTo(user.getNoOfOrders() + 1);
+    }
+
+    /**
+     * Kör load i en läsande transaktion i en annan tråd, med ögonblicksbilden tagen före update.
+     */
+    private <T> T loadDuringUpdate(String table, long id, Supplier<T> load, Runnable update) throws Exception {
+        CountDownLatch snapshotTaken = new CountDownLatch(1);
+        CountDownLatch updated = new CountDownLatch(1);
+        TransactionTemplate reader = new TransactionTemplate(transactionManager);
+        reader.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        CompletableFuture<T> result = CompletableFuture.supplyAsync(() -> reader.execute(status -> {
+            // Läser raden utan cachen, så att ögonblicksbilden tas nu
+            entityManager.createNativeQuery("select id from " + table + " where id = :id")
+                    .setParameter("id", id)
+                    .getSingleResult();
+            snapshotTaken.countDown();
+            try {
+                assertThat(updated.await(30, TimeUnit.SECONDS)).isTrue();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return load.get();
+        }));
+
+        assertThat(snapshotTaken.await(30, TimeUnit.SECONDS)).isTrue();
+        update.run();
+        updated.countDown();
+        return result.get(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,138 @@
+package com.wigell.services;
+
+import com.wigell.dao.BookingRepo;
+import com.wigell.dao.CarRepo;
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.Booking;
+import com.wigell.entities.Car;
+import com.wigell.entities.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Många samtidiga bokningar med överlappande perioder på ett fåtal bilar (BookingService.orderCar).
+ * Efteråt får ingen bil ha två aktiva bokningar som överlappar, och varje kunds noOfOrders ska
+ * vara exakt lika med antalet bokningar kunden fick. Genomströmningen skrivs ut.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        // Egen databas, så att andra testers data inte påverkar räknarna
+        "spring.datasource.url=jdbc:h2:mem:booking-concurrency;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=5",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+class BookingConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int ORDERS = 2000;
+    // Perioderna ligger inom 60 dagar, så de flesta beställningar krockar med en annan
+    private static final int DAYS = 60;
+    private static final int MAX_LENGTH = 3;
+
+    @Autowired
+    private BookingService bookingService;
+
+    @Autowired
+    private BookingRepo bookingRepo;
+
+    @Autowired
+    private CarRepo carRepo;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Test
+    void concurrentOrdersNeverOverlapAndCountersAreExact() throws Exception {
+        List<Long> carIds = carRepo.findAll().stream().map(Car::getId).toList();
+        List<User> customers = userRepo.findAll().stream()
+                .filter(user -> "ROLE_USER".equals(user.getRole()))
+                .toList();
+        Map<Long, Integer> ordersBefore = customers.stream()
+                .collect(Collectors.toMap(User::getId, User::getNoOfOrders));
+        LocalDate start = LocalDate.now().plusDays(1);
+
+        Map<Long, AtomicInteger> placed = new ConcurrentHashMap<>();
+        AtomicInteger conflicts = new AtomicInteger();
+        CountDownLatch go = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                LocalDate from = start.plusDays(random.nextInt(DAYS));
+                long userId = customers.get(random.nextInt(customers.size())).getId();
+                Booking booking = new Booking(from, from.plusDays(random.nextInt(MAX_LENGTH)), userId,
+                        carIds.get(random.nextInt(carIds.size())), true);
+                go.await();
+                try {
+                    bookingService.orderCar(booking);
+                    placed.computeIfAbsent(userId, id -> new AtomicInteger()).incrementAndGet();
+                } catch (IllegalStateException e) {
+                    // Bilen var redan bokad under perioden
+                    conflicts.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        long started = System.nanoTime();
+        go.countDown();
+        for (Future<?> future : futures) {
+            // Alla andra undantag än krockar får testet att misslyckas
+            future.get(2, TimeUnit.MINUTES);
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        executor.shutdown();
+
+        int succeeded = placed.values().stream().mapToInt(AtomicInteger::get).sum();
+        System.out.printf("Booking stress: %d orders from %d threads in %.2f s (%.0f orders/s), %d booked, %d conflicts%n",
+                ORDERS, THREADS, seconds, ORDERS / seconds, succeeded, conflicts.get());
+
+        assertThat(succeeded + conflicts.get()).isEqualTo(ORDERS);
+        assertThat(succeeded).isPositive();
+        assertThat(conflicts.get()).as("the periods should collide").isPositive();
+
+        List<Booking> active = bookingRepo.findByActive(true);
+        assertThat(active).hasSize(succeeded);
+        Map<Long, List<Booking>> byCar = active.stream().collect(Collectors.groupingBy(Booking::getCarId));
+        for (Map.Entry<Long, List<Booking>> car : byCar.entrySet()) {
+            List<Booking> bookings = new ArrayList<>(car.getValue());
+            bookings.sort(Comparator.comparing(Booking::getFromDate));
+            for (int i = 1; i < bookings.size(); i++) {
+                Booking previous = bookings.get(i - 1);
+                Booking current = bookings.get(i);
+                assertThat(current.getFromDate())
+                        .as("car %d: booking %d overlaps booking %d", car.getKey(), current.getId(), previous.getId())
+                        .isAfter(previous.getToDate());
+            }
+        }
+
+        for (User customer : customers) {
+            int expected = placed.getOrDefault(customer.getId(), new AtomicInteger()).get();
+            int stored = userRepo.findById(customer.getId()).orElseThrow().getNoOfOrders();
+            assertThat(stored - ordersBefore.get(customer.getId()))
+                    .as("noOfOrders for user %d", customer.getId())
+                    .isEqualTo(expected);
+            assertThat(bookingRepo.findAllByUserId(customer.getId())).hasSize(expected);
+        }
+    }
+}
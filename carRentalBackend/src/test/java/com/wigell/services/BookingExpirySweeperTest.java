@@ -0,0 +1,98 @@
+package com.wigell.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wigell.dao.BookingRepo;
+import com.wigell.dao.CarRepo;
+import com.wigell.dao.UserRepo;
+import com.wigell.entities.Booking;
+import com.wigell.entities.Car;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bilar med en bokning i förväg blir bokade när bokningen börjar gälla, både i bilen
+ * och i bilkatalogen (GET /api/v1/cars), och frisläpps när den har gått ut.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:booking-expiry;MODE=MySQL;DATABASE_TO_LOWER=TRUE;NON_KEYWORDS=USER;DB_CLOSE_DELAY=-1",
+        "app.loadtest.cars=3",
+        "app.bookings.expiry.cron=-",
+        "app.users.reconcile-orders-cron=-"
+})
+@ActiveProfiles("loadtest")
+class BookingExpirySweeperTest {
+
+    @Autowired
+    private BookingExpirySweeper sweeper;
+
+    @Autowired
+    private BookingService bookingService;
+
+    @Autowired
+    private CarService carService;
+
+    @Autowired
+    private BookingRepo bookingRepo;
+
+    @Autowired
+    private CarRepo carRepo;
+
+    @Autowired
+    private UserRepo userRepo;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void futureBookingMarksCarBookedWhenItStarts() throws IOException {
+        List<Long> carIds = carRepo.findAll().stream().map(Car::getId).sorted().toList();
+        long carId = carIds.get(0);
+        long userId = userRepo.findByUsername("user1").orElseThrow().getId();
+        LocalDate start = LocalDate.now().plusDays(3);
+
+        bookingService.orderCar(new Booking(start, start.plusDays(1), userId, carId, true));
+        assertThat(carRepo.findById(carId).orElseThrow().isBooked()).isFalse();
+        assertThat(bookingService.markStartedBookings(start.minusDays(1))).isZero();
+
+        assertThat(bookingService.markStartedBookings(start)).isEqualTo(1);
+
+        assertThat(carRepo.findById(carId).orElseThrow().isBooked()).isTrue();
+        assertThat(bookedInCatalog(carId)).isTrue();
+        assertThat(bookedInCatalog(carIds.get(1))).isFalse();
+        // Redan markerad
+        assertThat(bookingService.markStartedBookings(start)).isZero();
+    }
+
+    @Test
+    void sweepMarksCarsWithBookingsStartingToday() throws IOException {
+        long carId = carRepo.findAll().stream().map(Car::getId).sorted().toList().get(2);
+        long userId = userRepo.findByUsername("user2").orElseThrow().getId();
+        LocalDate today = LocalDate.now();
+        // Sparas direkt, som en bokning gjord i förväg vars första dag är idag
+        bookingRepo.save(new Booking(today, today.plusDays(1), userId, carId, true));
+        assertThat(carRepo.findById(carId).orElseThrow().isBooked()).isFalse();
+
+        sweeper.sweep();
+
+        assertThat(carRepo.findById(carId).orElseThrow().isBooked()).isTrue();
+        assertThat(bookedInCatalog(carId)).isTrue();
+    }
+
+    private boolean bookedInCatalog(long carId) throws IOException {
+        for (JsonNode car : objectMapper.readTree(carService.getCatalog().getJson())) {
+            if (car.get("id").asLong() == carId) {
+                return car.get("booked").asBoolean();
+            }
+        }
+        throw new AssertionError("car " + carId + " not in catalog");
+    }
+}
@@ -0,0 +1,41 @@
+package com.wigell.loadtest;
+
+import java.util.Set;
+
+/**
+ * Anropen som lastgeneratorn gör, med andel i blandningen (scenariot mix) och de
+ * statuskoder som är väntade svar snarare än fel.
+ */
+public enum Endpoint {
+    CATALOG("GET /api/v1/cars", 35),
+    AVAILABLE("GET /api/v1/cars/available", 15),
+    CAR("GET /api/v1/cars/{id}", 10),
+    BOOK("POST /api/v1/bookings", 15, 409),
+    MY_BOOKINGS("GET /api/v1/bookings/me", 15, 404),
+    RETURN("PUT /api/v1/bookings/return/{id}", 10, 404);
+
+    private final String label;
+    private final int weight;
+    private final Set<Integer> expected;
+
+    Endpoint(String label, int weight, Integer... expected) {
+        this.label = label;
+        this.weight = weight;
+        this.expected = Set.of(expected);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return true om statuskoden är ett väntat avslag, t.ex. 409 när bilen redan är bokad
+     */
+    public boolean isExpected(int status) {
+        return expected.contains(status);
+    }
+}
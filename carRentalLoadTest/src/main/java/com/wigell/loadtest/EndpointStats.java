@@ -0,0 +1,94 @@
+package com.wigell.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Svarstider (HDR-histogram i mikrosekunder) och utfall för ett anrop.
+ * Värden registreras bara under mätperioden.
+ */
+public class EndpointStats {
+
+    // Svarstider upp till en minut, med tre värdesiffror
+    private static final long HIGHEST_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final Endpoint endpoint;
+    private final Recorder recorder = new Recorder(HIGHEST_MICROS, 3);
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    // 5xx under hela körningen, även uppvärmningen
+    private final LongAdder serverErrors = new LongAdder();
+    private volatile boolean measuring;
+
+    EndpointStats(Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Startar mätperioden. Det som registrerats under uppvärmningen kastas.
+     */
+    void startMeasuring() {
+        recorder.reset();
+        measuring = true;
+    }
+
+    /**
+     * @param micros svarstid, mätt från när anropet var planerat att skickas
+     * @param status HTTP-status, eller 0 om anropet inte fick något svar
+     */
+    void record(long micros, int status) {
+        if (status >= 500) {
+            serverErrors.increment();
+        }
+        if (!measuring) {
+            return;
+        }
+        recorder.recordValue(Math.min(Math.max(micros, 0), HIGHEST_MICROS));
+        if (status >= 200 && status < 300) {
+            ok.increment();
+        } else if (endpoint.isExpected(status)) {
+            expected.increment();
+        } else if (status == 429) {
+            throttled.increment();
+        } else {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Avslutar mätperioden och returnerar histogrammet för den.
+     */
+    Histogram finish() {
+        measuring = false;
+        return recorder.getIntervalHistogram();
+    }
+
+    long getOk() {
+        return ok.sum();
+    }
+
+    long getExpected() {
+        return expected.sum();
+    }
+
+    long getThrottled() {
+        return throttled.sum();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    long getServerErrors() {
+        return serverErrors.sum();
+    }
+}
@@ -0,0 +1,398 @@
+package com.wigell.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lastgenerator för backend. Loggar in ett antal virtuella användare som de användare
+ * VirtualUsersSeeder skapar (user1-user4) och kör ett av två scenarier:
+ *
+ * mix: katalog, lediga bilar, enskild bil, bokning, egna bokningar och återlämning
+ * (återlämningen görs av admin, som i backend).
+ * contention: alla användare bokar samma fåtal bilar under samma korta period,
+ * och var fjärde gång lämnas en bokning tillbaka.
+ *
+ * Varje användare körs i en egen virtuell tråd. Med -rate skickas anropen enligt ett fast
+ * schema och svarstiden mäts från planerad start, så att en långsam server inte döljs av att
+ * generatorn väntar (coordinated omission). Utan -rate är det en sluten slinga.
+ *
+ * Efteråt skrivs genomströmning och p50/p99/p99.9 per anrop, ett HDR-histogram per anrop
+ * (.hgrm) och en kontroll av att inga aktiva bokningar överlappar och att varje användares
+ * noOfOrders stämmer med antalet bokningar.
+ */
+public class LoadTest {
+
+    private static final String[] USERS = {"user1", "user2", "user3", "user4"};
+    private static final int MAX_QUEUED_RETURNS = 10_000;
+    private static final int PAGE_SIZE = 500;
+
+    private final Options options;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<Endpoint, EndpointStats> stats = new EnumMap<>(Endpoint.class);
+    private final Queue<Long> returnQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedReturns = new AtomicInteger();
+    private final int totalWeight;
+    private HttpClient client;
+    private Session admin;
+    private List<Long> carIds;
+
+    LoadTest(Options options) {
+        this.options = options;
+        int weight = 0;
+        for (Endpoint endpoint : Endpoint.values()) {
+            stats.put(endpoint, new EndpointStats(endpoint));
+            weight += endpoint.getWeight();
+        }
+        this.totalWeight = weight;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            if (e.getMessage() != null && !e.getMessage().isEmpty()) {
+                System.err.println(e.getMessage());
+            }
+            System.err.print(Options.USAGE);
+            System.exit(2);
+            return;
+        }
+        boolean consistent = new LoadTest(options).run();
+        System.exit(consistent ? 0 : 1);
+    }
+
+    /**
+     * @return true om kontrollen efter körningen inte hittade några fel i datat
+     */
+    boolean run() throws Exception {
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .executor(threads)
+                    .build();
+
+            admin = new Session(client, options.baseUrl, "admin");
+            admin.login(options.password);
+            carIds = fetchCarIds();
+            if (carIds.isEmpty()) {
+                throw new IllegalStateException("No cars found, start the backend with the loadtest profile");
+            }
+            List<Session> sessions = login(threads);
+
+            String loop = options.rate > 0 ? String.format(Locale.ROOT, "%.0f req/s", options.rate) : "closed loop";
+            System.out.printf("Scenario %s, %d users, %d cars, %s, warm-up %d s, measuring %d s%n",
+                    options.scenario, sessions.size(), carIds.size(), loop,
+                    options.warmup.toSeconds(), options.duration.toSeconds());
+
+            long measureStart = System.nanoTime() + options.warmup.toNanos();
+            long end = measureStart + options.duration.toNanos();
+            List<Future<?>> running = new ArrayList<>();
+            for (Session session : sessions) {
+                running.add(threads.submit(() -> {
+                    userLoop(session, end);
+                    return null;
+                }));
+            }
+            sleepUntil(measureStart);
+            stats.values().forEach(EndpointStats::startMeasuring);
+            for (Future<?> future : running) {
+                future.get();
+            }
+            Map<Endpoint, Histogram> histograms = new EnumMap<>(Endpoint.class);
+            stats.forEach((endpoint, s) -> histograms.put(endpoint, s.finish()));
+            report(histograms);
+            return verify();
+        }
+    }
+
+    private List<Session> login(ExecutorService threads) throws Exception {
+        List<Future<Session>> logins = new ArrayList<>();
+        for (int i = 0; i < options.users; i++) {
+            Session session = new Session(client, options.baseUrl, USERS[i % USERS.length]);
+            logins.add(threads.submit(() -> {
+                session.login(options.password);
+                return session;
+            }));
+        }
+        List<Session> sessions = new ArrayList<>();
+        for (Future<Session> login : logins) {
+            sessions.add(login.get());
+        }
+        return sessions;
+    }
+
+    private void userLoop(Session session, long end) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long interval = options.rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * options.users / options.rate) : 0;
+        // Sprider starterna över ett intervall, så att alla användare inte skickar samtidigt
+        long next = System.nanoTime() + (interval > 0 ? random.nextLong(interval) : 0);
+        while (true) {
+            long intended;
+            if (interval > 0) {
+                sleepUntil(next);
+                intended = next;
+                next += interval;
+            } else {
+                intended = System.nanoTime();
+            }
+            if (intended >= end) {
+                return;
+            }
+            Endpoint endpoint = nextEndpoint(random);
+            int status = call(session, endpoint, random);
+            if (status < 0) {
+                continue;
+            }
+            stats.get(endpoint).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended), status);
+            if (interval == 0 && !options.think.isZero()) {
+                Thread.sleep(options.think);
+            }
+        }
+    }
+
+    private Endpoint nextEndpoint(ThreadLocalRandom random) {
+        if (options.scenario.equals("contention")) {
+            // Var fjärde anrop lämnar tillbaka en bokning, annars blir bilarna fullbokade under uppvärmningen
+            if (random.nextInt(4) > 0) {
+                return Endpoint.BOOK;
+            }
+            return returnQueue.isEmpty() ? Endpoint.MY_BOOKINGS : Endpoint.RETURN;
+        }
+        int pick = random.nextInt(totalWeight);
+        for (Endpoint endpoint : Endpoint.values()) {
+            pick -= endpoint.getWeight();
+            if (pick < 0) {
+                // Utan bokningar att lämna tillbaka hämtas användarens bokningar i stället
+                return endpoint == Endpoint.RETURN && returnQueue.isEmpty() ? Endpoint.MY_BOOKINGS : endpoint;
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    /**
+     * @return HTTP-status, 0 om anropet inte fick något svar, eller -1 om inget anrop gjordes
+     */
+    private int call(Session session, Endpoint endpoint, ThreadLocalRandom random) throws InterruptedException {
+        LocalDate today = LocalDate.now();
+        try {
+            return switch (endpoint) {
+                case CATALOG -> session.get("/api/v1/cars").statusCode();
+                case AVAILABLE -> {
+                    LocalDate from = today.plusDays(random.nextInt(1, 61));
+                    yield session.get("/api/v1/cars/available?from=" + from + "&to=" + from.plusDays(random.nextInt(7)))
+                            .statusCode();
+                }
+                case CAR -> session.get("/api/v1/cars/" + randomCar(random, carIds.size())).statusCode();
+                case BOOK -> book(session, random, today);
+                case MY_BOOKINGS -> myBookings(session);
+                case RETURN -> {
+                    Long id = returnQueue.poll();
+                    // En annan användare hann ta den sista bokningen i kön
+                    if (id == null) {
+                        yield -1;
+                    }
+                    queuedReturns.decrementAndGet();
+                    yield admin.put("/api/v1/bookings/return/" + id).statusCode();
+                }
+            };
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private int book(Session session, ThreadLocalRandom random, LocalDate today) throws IOException, InterruptedException {
+        boolean contention = options.scenario.equals("contention");
+        long carId = contention
+                ? randomCar(random, Math.min(options.contentionCars, carIds.size()))
+                : randomCar(random, carIds.size());
+        LocalDate from = today.plusDays(contention ? random.nextInt(1, 15) : random.nextInt(1, 181));
+        LocalDate to = from.plusDays(contention ? random.nextInt(3) : random.nextInt(7));
+        String json = "{\"carId\":" + carId + ",\"fromDate\":\"" + from + "\",\"toDate\":\"" + to + "\"}";
+        return session.postJson("/api/v1/bookings", json).statusCode();
+    }
+
+    // Sparar aktiva bokningar så att de kan lämnas tillbaka senare i körningen
+    private int myBookings(Session session) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = session.get("/api/v1/bookings/me");
+        if (response.statusCode() == 200) {
+            for (JsonNode booking : mapper.readTree(response.body())) {
+                if (booking.path("active").asBoolean() && queuedReturns.get() < MAX_QUEUED_RETURNS) {
+                    returnQueue.add(booking.path("id").asLong());
+                    queuedReturns.incrementAndGet();
+                }
+            }
+        }
+        return response.statusCode();
+    }
+
+    private long randomCar(ThreadLocalRandom random, int among) {
+        return carIds.get(random.nextInt(among));
+    }
+
+    private List<Long> fetchCarIds() throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = admin.get("/api/v1/cars");
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("GET /api/v1/cars returned " + response.statusCode());
+        }
+        List<Long> ids = new ArrayList<>();
+        for (JsonNode car : mapper.readTree(response.body())) {
+            ids.add(car.path("id").asLong());
+        }
+        ids.sort(Comparator.naturalOrder());
+        return ids;
+    }
+
+    private void report(Map<Endpoint, Histogram> histograms) throws IOException {
+        double seconds = options.duration.toMillis() / 1000.0;
+        Path out = Path.of(options.out);
+        Files.createDirectories(out);
+
+        System.out.printf("%n%-34s %9s %8s %8s %8s %6s %7s %9s %9s %9s %9s%n", "Endpoint", "Requests", "Req/s",
+                "OK", "Expected", "429", "Errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        Histogram total = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+        for (Map.Entry<Endpoint, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            EndpointStats s = stats.get(entry.getKey());
+            printRow(entry.getKey().getLabel(), histogram, seconds,
+                    s.getOk(), s.getExpected(), s.getThrottled(), s.getErrors());
+            writeHgrm(out.resolve(entry.getKey().name().toLowerCase(Locale.ROOT) + ".hgrm"), histogram);
+            total.add(histogram);
+        }
+        printRow("Total", total, seconds,
+                stats.values().stream().mapToLong(EndpointStats::getOk).sum(),
+                stats.values().stream().mapToLong(EndpointStats::getExpected).sum(),
+                stats.values().stream().mapToLong(EndpointStats::getThrottled).sum(),
+                stats.values().stream().mapToLong(EndpointStats::getErrors).sum());
+        writeHgrm(out.resolve("total.hgrm"), total);
+        System.out.println("\nHDR histograms written to " + out.toAbsolutePath());
+    }
+
+    private static void printRow(String label, Histogram h, double seconds, long ok, long expected, long throttled, long errors) {
+        if (h.getTotalCount() == 0) {
+            System.out.printf("%-34s %9d%n", label, 0);
+            return;
+        }
+        System.out.printf(Locale.ROOT, "%-34s %9d %8.1f %8d %8d %6d %7d %9.2f %9.2f %9.2f %9.2f%n", label,
+                h.getTotalCount(), h.getTotalCount() / seconds, ok, expected, throttled, errors,
+                h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+                h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0);
+    }
+
+    // Percentilfördelning i millisekunder, läsbar med HdrHistogram:s plottningsverktyg
+    private static void writeHgrm(Path file, Histogram histogram) throws IOException {
+        try (PrintStream stream = new PrintStream(Files.newOutputStream(file))) {
+            histogram.outputPercentileDistribution(stream, 1000.0);
+        }
+    }
+
+    /**
+     * Kontrollerar att inga anrop gav 5xx, att inga aktiva bokningar för samma bil överlappar
+     * och att varje användares noOfOrders är lika med antalet bokningar.
+     *
+     * Med profilen loadtest ger ett anrop som kör fler databasfrågor än sin budget 500
+     * (app.db.query-budget.enforce), så fler frågor än budgeten får körningen att misslyckas.
+     */
+    private boolean verify() throws IOException, InterruptedException {
+        List<String> problems = new ArrayList<>();
+        for (EndpointStats s : stats.values()) {
+            if (s.getServerErrors() > 0) {
+                problems.add(s.getEndpoint().getLabel() + ": " + s.getServerErrors()
+                        + " server errors, see the backend log (e.g. query budget exceeded)");
+            }
+        }
+        Map<Long, List<JsonNode>> activeByCar = new HashMap<>();
+        Map<Long, Long> bookingsByUser = new HashMap<>();
+        long count = 0;
+        String after = "";
+        while (true) {
+            HttpResponse<byte[]> response = admin.get("/api/v1/bookings?limit=" + PAGE_SIZE + after);
+            if (response.statusCode() != 200) {
+                System.out.println("Booking verification skipped: GET /api/v1/bookings returned " + response.statusCode());
+                return printVerification(problems, "no server errors");
+            }
+            JsonNode page = mapper.readTree(response.body());
+            for (JsonNode booking : page.path("data")) {
+                count++;
+                bookingsByUser.merge(booking.path("userId").asLong(), 1L, Long::sum);
+                if (booking.path("active").asBoolean()) {
+                    activeByCar.computeIfAbsent(booking.path("carId").asLong(), id -> new ArrayList<>()).add(booking);
+                }
+            }
+            if (page.path("next").isNull() || page.path("next").isMissingNode()) {
+                break;
+            }
+            after = "&after=" + page.path("next").asLong();
+        }
+
+        for (Map.Entry<Long, List<JsonNode>> car : activeByCar.entrySet()) {
+            List<JsonNode> bookings = car.getValue();
+            bookings.sort(Comparator.comparing(b -> LocalDate.parse(b.path("fromDate").asText())));
+            for (int i = 1; i < bookings.size(); i++) {
+                JsonNode previous = bookings.get(i - 1);
+                JsonNode current = bookings.get(i);
+                if (!LocalDate.parse(current.path("fromDate").asText())
+                        .isAfter(LocalDate.parse(previous.path("toDate").asText()))) {
+                    problems.add("car " + car.getKey() + ": bookings " + previous.path("id").asLong()
+                            + " and " + current.path("id").asLong() + " overlap");
+                }
+            }
+        }
+        HttpResponse<byte[]> users = admin.get("/api/v1/users");
+        for (JsonNode user : mapper.readTree(users.body())) {
+            long id = user.path("id").asLong();
+            long orders = user.path("noOfOrders").asLong();
+            long actual = bookingsByUser.getOrDefault(id, 0L);
+            if (orders != actual) {
+                problems.add("user " + user.path("username").asText() + ": noOfOrders=" + orders
+                        + " but " + actual + " bookings");
+            }
+        }
+
+        return printVerification(problems, "no server errors, " + count
+                + " bookings, no overlapping active bookings, order counters match");
+    }
+
+    private static boolean printVerification(List<String> problems, String summary) {
+        if (problems.isEmpty()) {
+            System.out.println("Verification OK: " + summary);
+            return true;
+        }
+        System.out.println("Verification FAILED:");
+        problems.stream().limit(20).forEach(p -> System.out.println("  " + p));
+        return false;
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long wait = nanoTime - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.wigell.loadtest;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * Inställningar från kommandoraden, på formen -namn värde.
+ */
+public class Options {
+
+    static final String USAGE = """
+            Usage: LoadTest [options]
+              -url <url>              backend base URL (default http://localhost:8080)
+              -scenario <name>        mix (default) or contention
+              -users <n>              concurrent virtual users (default 50)
+              -duration <time>        measured duration, e.g. 60s, 5m (default 60s)
+              -warmup <time>          unmeasured warm-up before the measurement (default 10s)
+              -rate <n>               total target requests/s, 0 = closed loop (default 0)
+              -think <time>           pause between requests per user in closed loop (default 0ms)
+              -contention-cars <n>    cars shared by all users in the contention scenario (default 3)
+              -out <dir>              directory for .hgrm files (default target/loadtest)
+              -password <pw>          password of the seeded users (default pass)
+            """;
+
+    String baseUrl = "http://localhost:8080";
+    String scenario = "mix";
+    int users = 50;
+    Duration duration = Duration.ofSeconds(60);
+    Duration warmup = Duration.ofSeconds(10);
+    double rate = 0;
+    Duration think = Duration.ZERO;
+    int contentionCars = 3;
+    String out = "target/loadtest";
+    String password = "pass";
+
+    /**
+     * @throws IllegalArgumentException vid okänd flagga eller felaktigt värde
+     */
+    static Options parse(String[] args) {
+        Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (name.equals("-help") || name.equals("--help")) {
+                throw new IllegalArgumentException("");
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[++i];
+            switch (name) {
+                case "-url" -> options.baseUrl = value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+                case "-scenario" -> options.scenario = value.toLowerCase(Locale.ROOT);
+                case "-users" -> options.users = positive(name, Integer.parseInt(value));
+                case "-duration" -> options.duration = duration(value);
+                case "-warmup" -> options.warmup = duration(value);
+                case "-rate" -> options.rate = Double.parseDouble(value);
+                case "-think" -> options.think = duration(value);
+                case "-contention-cars" -> options.contentionCars = positive(name, Integer.parseInt(value));
+                case "-out" -> options.out = value;
+                case "-password" -> options.password = value;
+                default -> throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+        if (!options.scenario.equals("mix") && !options.scenario.equals("contention")) {
+            throw new IllegalArgumentException("Unknown scenario " + options.scenario);
+        }
+        return options;
+    }
+
+    private static int positive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1");
+        }
+        return value;
+    }
+
+    // 500ms, 30s, 5m
+    static Duration duration(String value) {
+        String v = value.trim().toLowerCase(Locale.ROOT);
+        if (v.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(v.substring(0, v.length() - 2)));
+        }
+        if (v.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(v.substring(0, v.length() - 1)));
+        }
+        if (v.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(v.substring(0, v.length() - 1)));
+        }
+        throw new IllegalArgumentException("Invalid duration " + value + ", use e.g. 500ms, 30s or 5m");
+    }
+}
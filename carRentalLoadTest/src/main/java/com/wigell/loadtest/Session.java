@@ -0,0 +1,99 @@
+package com.wigell.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * En inloggad användare. Alla sessioner delar samma HttpClient och skickar sin egen
+ * sessionskaka, så att antalet användare inte styr antalet klienttrådar.
+ */
+public class Session {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final int MAX_LOGIN_ATTEMPTS = 20;
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final String username;
+    private String cookie;
+
+    Session(HttpClient client, String baseUrl, String username) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.username = username;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * Loggar in med formulärinloggningen (POST /login). Vid 429 väntas Retry-After sekunder
+     * och försöket görs om, eftersom många samtidiga inloggningar fyller BCrypt-kön.
+     *
+     * @throws IllegalStateException om inloggningen misslyckas
+     */
+    void login(String password) throws IOException, InterruptedException {
+        String form = "username=" + URLEncoder.encode(username, StandardCharsets.UTF_8)
+                + "&password=" + URLEncoder.encode(password, StandardCharsets.UTF_8);
+        for (int attempt = 1; attempt <= MAX_LOGIN_ATTEMPTS; attempt++) {
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/login"))
+                            .timeout(REQUEST_TIMEOUT)
+                            .header("Content-Type", "application/x-www-form-urlencoded")
+                            .POST(HttpRequest.BodyPublishers.ofString(form))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 429) {
+                long wait = response.headers().firstValueAsLong("Retry-After").orElse(1);
+                Thread.sleep(Duration.ofSeconds(Math.max(1, wait)));
+                continue;
+            }
+            Optional<String> location = response.headers().firstValue("Location");
+            Optional<String> session = response.headers().allValues("Set-Cookie").stream()
+                    .filter(c -> c.startsWith("JSESSIONID="))
+                    .map(c -> c.split(";", 2)[0])
+                    .findFirst();
+            if (response.statusCode() != 302 || session.isEmpty() || location.orElse("").contains("error")) {
+                throw new IllegalStateException("Login failed for " + username + ": HTTP " + response.statusCode()
+                        + " " + location.orElse(""));
+            }
+            cookie = session.get();
+            return;
+        }
+        throw new IllegalStateException("Login for " + username + " was throttled " + MAX_LOGIN_ATTEMPTS + " times");
+    }
+
+    HttpResponse<byte[]> get(String path) throws IOException, InterruptedException {
+        return send(request(path).GET());
+    }
+
+    HttpResponse<byte[]> postJson(String path, String json) throws IOException, InterruptedException {
+        return send(request(path).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)));
+    }
+
+    HttpResponse<byte[]> put(String path) throws IOException, InterruptedException {
+        return send(request(path).PUT(HttpRequest.BodyPublishers.noBody()));
+    }
+
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Accept", "application/json");
+        if (cookie != null) {
+            builder.header("Cookie", cookie);
+        }
+        return builder;
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder builder) throws IOException, InterruptedException {
+        return client.send(builder.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+}